@@ -0,0 +1,62 @@
+/*
+ * Copyright 2017 Sami Ekblad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.idle;
+
+/**
+ * Kinds of user input tracked in the browser. The order matches the
+ * sources in the client script.
+ *
+ * @author Sami Ekblad
+ * @see ActivityTelemetry
+ */
+public enum ActivitySource {
+
+    /**
+     * Mouse and pen movement and buttons.
+     */
+    MOUSE,
+
+    /**
+     * Key presses.
+     */
+    KEYBOARD,
+
+    /**
+     * Touches and touch movement.
+     */
+    TOUCH,
+
+    /**
+     * Mouse wheel and touchpad scrolling.
+     */
+    WHEEL,
+
+    /**
+     * Scrolling of the page or any element. Also programmatic scrolling is
+     * counted.
+     */
+    SCROLL,
+
+    /**
+     * Changes to form fields, including pasting, dictation and autofill.
+     */
+    INPUT,
+
+    /**
+     * Focus moving to an element.
+     */
+    FOCUS
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright 2017 Sami Ekblad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.idle;
+
+import elemental.json.JsonArray;
+
+import java.io.Serializable;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Activity history of a UI, reported by the browser in batches.
+ * <p>
+ * Time is divided in buckets of fixed length, one minute by default. For
+ * each bucket the browser records how long the user was considered active
+ * and how many input events each {@link ActivitySource} produced. The
+ * buckets are kept in a ring buffer of fixed capacity, so memory use does
+ * not depend on the length of the session. When full, the oldest bucket is
+ * dropped.
+ *
+ * @author Sami Ekblad
+ * @see Idle#setTelemetryInterval(long)
+ */
+public final class ActivityTelemetry implements Serializable {
+
+    private static final int SOURCES = ActivitySource.values().length;
+
+    private final long resolution;
+    private final long[] buckets;
+    private final int[] activeMillis;
+    private final int[] inputs;
+    private int next;
+    private int size;
+
+    /**
+     * Creates an empty history.
+     *
+     * @param resolution Length of a bucket in milliseconds
+     * @param capacity   Maximum number of buckets
+     */
+    ActivityTelemetry(long resolution, int capacity) {
+        if (resolution <= 0 || capacity <= 0) {
+            throw new IllegalArgumentException("Resolution and capacity must be positive");
+        }
+        this.resolution = resolution;
+        this.buckets = new long[capacity];
+        this.activeMillis = new int[capacity];
+        this.inputs = new int[capacity * SOURCES];
+    }
+
+    /**
+     * Length of a bucket.
+     *
+     * @return Bucket length in milliseconds
+     */
+    public long getResolution() {
+        return resolution;
+    }
+
+    /**
+     * Maximum number of buckets kept.
+     *
+     * @return Capacity of the history
+     */
+    public int getCapacity() {
+        return buckets.length;
+    }
+
+    /**
+     * Number of buckets currently kept.
+     *
+     * @return Number of buckets
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Removes all buckets.
+     */
+    public synchronized void clear() {
+        size = 0;
+        next = 0;
+    }
+
+    /**
+     * Gets a snapshot of the kept buckets, oldest first.
+     *
+     * @return Buckets of the history
+     */
+    public synchronized List<Bucket> getBuckets() {
+        List<Bucket> result = new ArrayList<>(size);
+        for (int i = size; i > 0; i--) {
+            int slot = slot(i);
+            int[] counts = new int[SOURCES];
+            System.arraycopy(inputs, slot * SOURCES, counts, 0, SOURCES);
+            result.add(new Bucket(buckets[slot] * resolution, resolution, activeMillis[slot], counts));
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Total time the user was active in the buckets starting within the
+     * given period.
+     *
+     * @param from Start of the period, inclusive
+     * @param to   End of the period, exclusive
+     * @return Active time in milliseconds
+     */
+    public synchronized long getActiveMillis(Instant from, Instant to) {
+        long total = 0;
+        for (int i = size; i > 0; i--) {
+            int slot = slot(i);
+            if (inPeriod(slot, from, to)) {
+                total += activeMillis[slot];
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Total number of input events from the source in the buckets starting
+     * within the given period.
+     *
+     * @param source Input source
+     * @param from   Start of the period, inclusive
+     * @param to     End of the period, exclusive
+     * @return Number of input events
+     */
+    public synchronized long getInputCount(ActivitySource source, Instant from, Instant to) {
+        long total = 0;
+        for (int i = size; i > 0; i--) {
+            int slot = slot(i);
+            if (inPeriod(slot, from, to)) {
+                total += inputs[slot * SOURCES + source.ordinal()];
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Adds a batch reported by the browser. The batch starts with the
+     * number of values per bucket, followed by the buckets. Each bucket has
+     * the bucket number, the active time and the input counts in the order
+     * of {@link ActivitySource}. Values for a bucket that is already kept
+     * are added to it.
+     *
+     * @param batch Encoded batch
+     */
+    synchronized void add(JsonArray batch) {
+        if (batch.length() == 0) {
+            return;
+        }
+        int stride = (int) batch.getNumber(0);
+        if (stride < 2) {
+            return;
+        }
+        for (int offset = 1; offset + stride <= batch.length(); offset += stride) {
+            long bucket = (long) batch.getNumber(offset);
+            int slot = find(bucket);
+            if (slot < 0) {
+                continue;
+            }
+            long active = activeMillis[slot] + Math.max(0, (long) batch.getNumber(offset + 1));
+            activeMillis[slot] = (int) Math.min(active, resolution);
+            for (int s = 0; s < SOURCES && s < stride - 2; s++) {
+                long count = inputs[slot * SOURCES + s] + Math.max(0, (long) batch.getNumber(offset + 2 + s));
+                inputs[slot * SOURCES + s] = (int) Math.min(count, Integer.MAX_VALUE);
+            }
+        }
+    }
+
+    /**
+     * Finds the slot of a bucket, adding it if newer than the kept ones.
+     *
+     * @param bucket Bucket number
+     * @return Slot of the bucket, or -1 if an older bucket is not kept
+     */
+    private int find(long bucket) {
+        if (size > 0 && bucket <= buckets[slot(1)]) {
+            for (int i = 1; i <= size; i++) {
+                if (buckets[slot(i)] == bucket) {
+                    return slot(i);
+                }
+            }
+            return -1;
+        }
+        int slot = next;
+        buckets[slot] = bucket;
+        activeMillis[slot] = 0;
+        for (int s = 0; s < SOURCES; s++) {
+            inputs[slot * SOURCES + s] = 0;
+        }
+        next = (next + 1) % buckets.length;
+        size = Math.min(size + 1, buckets.length);
+        return slot;
+    }
+
+    /** Slot of the i:th newest bucket, starting from 1. */
+    private int slot(int i) {
+        return Math.floorMod(next - i, buckets.length);
+    }
+
+    private boolean inPeriod(int slot, Instant from, Instant to) {
+        long start = buckets[slot] * resolution;
+        return start >= from.toEpochMilli() && start < to.toEpochMilli();
+    }
+
+    /**
+     * Activity of one bucket.
+     */
+    public static final class Bucket implements Serializable {
+
+        private final long start;
+        private final long length;
+        private final int activeMillis;
+        private final int[] inputs;
+
+        private Bucket(long start, long length, int activeMillis, int[] inputs) {
+            this.start = start;
+            this.length = length;
+            this.activeMillis = activeMillis;
+            this.inputs = inputs;
+        }
+
+        /**
+         * @return Start time of the bucket
+         */
+        public Instant getStart() {
+            return Instant.ofEpochMilli(start);
+        }
+
+        /**
+         * @return Length of the bucket in milliseconds
+         */
+        public long getLength() {
+            return length;
+        }
+
+        /**
+         * @return Time the user was active during the bucket in
+         * milliseconds
+         */
+        public int getActiveMillis() {
+            return activeMillis;
+        }
+
+        /**
+         * @param source Input source
+         * @return Number of input events from the source
+         */
+        public int getInputCount(ActivitySource source) {
+            return inputs[source.ordinal()];
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2017 Sami Ekblad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.idle;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Objects;
+
+/**
+ * Writes hibernated state to files in a directory.
+ *
+ * @author Sami Ekblad
+ */
+final class DirectoryHibernationStore implements HibernationStore {
+
+    private final Path directory;
+
+    DirectoryHibernationStore(Path directory) {
+        this.directory = Objects.requireNonNull(directory, "Directory must not be null");
+    }
+
+    @Override
+    public void put(String key, byte[] data) throws IOException {
+        Files.write(directory.resolve(key), data);
+    }
+
+    @Override
+    public byte[] get(String key) throws IOException {
+        try {
+            return Files.readAllBytes(directory.resolve(key));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public byte[] take(String key) throws IOException {
+        Path file = directory.resolve(key);
+        try {
+            byte[] data = Files.readAllBytes(file);
+            Files.delete(file);
+            return data;
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2017 Sami Ekblad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.idle;
+
+import com.vaadin.flow.function.SerializableRunnable;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * State that can be released while the user is inactive.
+ * <p>
+ * Register instances with {@link Idle#addHibernatable(Hibernatable)}. When
+ * the user has been inactive longer than the hibernation threshold,
+ * {@link #hibernate()} is invoked and the returned state is serialized to
+ * the {@link HibernationStore}. The component should then drop its heavy
+ * state, such as data providers or child components. When the user becomes
+ * active again, {@link #restore(Serializable)} is invoked with a copy of the
+ * state before any listeners.
+ * <p>
+ * Both methods are invoked with the session locked.
+ *
+ * @author Sami Ekblad
+ * @see Idle#setHibernationThreshold(long)
+ */
+public interface Hibernatable extends Serializable {
+
+    /**
+     * Releases the state of this object.
+     *
+     * @return State needed to restore this object, or {@code null} if
+     * nothing needs to be kept
+     */
+    Serializable hibernate();
+
+    /**
+     * Restores the state of this object.
+     *
+     * @param state State returned by {@link #hibernate()}, or {@code null}
+     *              if there was none or it could not be read back
+     */
+    void restore(Serializable state);
+
+    /**
+     * Creates a hibernatable from callbacks that release and rebuild the
+     * state without storing anything.
+     *
+     * @param release Invoked when hibernating
+     * @param rebuild Invoked when the user becomes active again
+     * @return Hibernatable invoking the callbacks
+     */
+    static Hibernatable of(SerializableRunnable release, SerializableRunnable rebuild) {
+        Objects.requireNonNull(release, "Release callback must not be null");
+        Objects.requireNonNull(rebuild, "Rebuild callback must not be null");
+        return new Hibernatable() {
+            @Override
+            public Serializable hibernate() {
+                release.run();
+                return null;
+            }
+
+            @Override
+            public void restore(Serializable state) {
+                rebuild.run();
+            }
+        };
+    }
+}
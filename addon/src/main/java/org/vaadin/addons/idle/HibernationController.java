@@ -0,0 +1,368 @@
+/*
+ * Copyright 2017 Sami Ekblad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.idle;
+
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Hibernates the {@link Hibernatable}s of a tracked UI while the user is
+ * inactive, and restores them when the user returns.
+ * <p>
+ * Owned by an {@link Idle} instance, which passes on the user state and
+ * writes the state of this controller with its own serialized form. Only
+ * accessed with the session locked.
+ *
+ * @author Sami Ekblad
+ * @see Idle#setHibernationThreshold(long)
+ */
+final class HibernationController {
+
+    private final Idle owner;
+    private final List<Hibernatable> hibernatables = new CopyOnWriteArrayList<>();
+    private final Map<Hibernatable, HibernatedState> hibernated = new IdentityHashMap<>();
+    private long threshold;
+    private HibernationStore store = HibernationStore.offHeap();
+    private TimingWheel.Timeout timer;
+    private volatile long reclaimedBytes;
+
+    HibernationController(Idle owner) {
+        this.owner = owner;
+    }
+
+    long getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Sets the threshold. Disabling hibernation restores any hibernated
+     * state immediately.
+     *
+     * @param thresholdMs Threshold in milliseconds, or 0 to disable
+     */
+    void setThreshold(long thresholdMs) {
+        threshold = thresholdMs > 0 ? thresholdMs : 0;
+        cancel();
+        if (threshold == 0) {
+            restoreAll();
+        } else if (!owner.isAdaptedActive()) {
+            schedule();
+        }
+    }
+
+    HibernationStore getStore() {
+        return store;
+    }
+
+    void setStore(HibernationStore store) {
+        Objects.requireNonNull(store, "Store must not be null");
+        if (!hibernated.isEmpty()) {
+            throw new IllegalStateException("Cannot change the store while hibernated");
+        }
+        this.store = store;
+    }
+
+    boolean isHibernated() {
+        return !hibernated.isEmpty();
+    }
+
+    long getReclaimedBytes() {
+        return reclaimedBytes;
+    }
+
+    void add(Hibernatable hibernatable) {
+        hibernatables.add(hibernatable);
+    }
+
+    /**
+     * Removes a hibernatable, restoring it first if it is hibernated.
+     *
+     * @param hibernatable Hibernatable to remove
+     */
+    void remove(Hibernatable hibernatable) {
+        hibernatables.remove(hibernatable);
+        restore(hibernatable);
+    }
+
+    /**
+     * Forgets all hibernatables. They must have been restored already.
+     */
+    void clear() {
+        hibernatables.clear();
+    }
+
+    /**
+     * Restores on activity, or starts the timer on inactivity.
+     *
+     * @param active New user state
+     */
+    void update(boolean active) {
+        if (active) {
+            cancel();
+            restoreAll();
+        } else {
+            schedule();
+        }
+    }
+
+    /**
+     * Starts the timer, unless disabled or already started.
+     */
+    void schedule() {
+        if (threshold > 0 && timer == null) {
+            TimingWheel wheel = TimingWheel.shared();
+            timer = wheel.schedule(wheel.now() + threshold, () -> owner.access(this::expired));
+        }
+    }
+
+    /**
+     * Cancels the timer, without restoring anything.
+     */
+    void cancel() {
+        if (timer != null) {
+            timer.cancel();
+            timer = null;
+        }
+    }
+
+    /**
+     * Invoked when the user has been inactive for the threshold.
+     */
+    private void expired() {
+        TimingWheel.Timeout timer = this.timer;
+        if (timer == null || !timer.isExpired()) {
+            // User became active while waiting for the session lock
+            return;
+        }
+        this.timer = null;
+        if (owner.isAdaptedActive()) {
+            return;
+        }
+        for (Hibernatable hibernatable : hibernatables) {
+            if (!hibernated.containsKey(hibernatable)) {
+                hibernate(hibernatable);
+            }
+        }
+    }
+
+    private void hibernate(Hibernatable hibernatable) {
+        Serializable state = hibernatable.hibernate();
+        if (state == null) {
+            hibernated.put(hibernatable, HibernatedState.EMPTY);
+            return;
+        }
+        String key = "idle-" + UUID.randomUUID();
+        try {
+            byte[] data = serialize(state);
+            store.put(key, data);
+            hibernated.put(hibernatable, new HibernatedState(key, data.length));
+            reclaimedBytes += data.length;
+        } catch (IOException e) {
+            LoggerFactory.getLogger(Idle.class).warn("Could not hibernate " + hibernatable, e);
+            hibernatable.restore(state);
+        }
+    }
+
+    private void restore(Hibernatable hibernatable) {
+        HibernatedState stored = hibernated.remove(hibernatable);
+        if (stored == null) {
+            return;
+        }
+        Serializable state = null;
+        try {
+            byte[] data = stored.data;
+            if (stored.key != null) {
+                reclaimedBytes -= stored.size;
+                data = store.take(stored.key);
+            }
+            state = data != null ? deserialize(data) : null;
+        } catch (IOException | ClassNotFoundException e) {
+            LoggerFactory.getLogger(Idle.class).error("Could not restore " + hibernatable, e);
+        }
+        hibernatable.restore(state);
+    }
+
+    private void restoreAll() {
+        if (hibernated.isEmpty()) {
+            return;
+        }
+        for (Hibernatable hibernatable : hibernatables) {
+            restore(hibernatable);
+        }
+    }
+
+    /**
+     * Moves the hibernated state from the store to the heap, so that it is
+     * written out and dropped with the session instead of staying in the
+     * store of this node.
+     */
+    void unload() {
+        for (Map.Entry<Hibernatable, HibernatedState> entry : hibernated.entrySet()) {
+            HibernatedState stored = entry.getValue();
+            if (stored.key == null) {
+                continue;
+            }
+            try {
+                entry.setValue(new HibernatedState(store.take(stored.key)));
+                reclaimedBytes -= stored.size;
+            } catch (IOException e) {
+                LoggerFactory.getLogger(Idle.class).warn("Could not unload " + entry.getKey(), e);
+            }
+        }
+    }
+
+    /**
+     * Moves the hibernated state kept in the heap back to the store.
+     */
+    void load() {
+        for (Map.Entry<Hibernatable, HibernatedState> entry : hibernated.entrySet()) {
+            byte[] data = entry.getValue().data;
+            if (data == null) {
+                continue;
+            }
+            String key = "idle-" + UUID.randomUUID();
+            try {
+                store.put(key, data);
+                entry.setValue(new HibernatedState(key, data.length));
+                reclaimedBytes += data.length;
+            } catch (IOException e) {
+                LoggerFactory.getLogger(Idle.class).warn("Could not hibernate " + entry.getKey(), e);
+            }
+        }
+    }
+
+    /**
+     * Writes the configuration, the hibernatables and the hibernated state.
+     * The state is written as is, as the store is local to the node.
+     *
+     * @param out Stream of the owner
+     * @throws IOException If writing fails
+     */
+    void write(ObjectOutputStream out) throws IOException {
+        out.writeLong(threshold);
+        out.writeObject(store instanceof Serializable ? store : null);
+        out.writeObject(hibernatables.toArray());
+        out.writeInt(hibernated.size());
+        for (Map.Entry<Hibernatable, HibernatedState> entry : hibernated.entrySet()) {
+            HibernatedState stored = entry.getValue();
+            out.writeObject(entry.getKey());
+            out.writeObject(stored.key != null ? store.get(stored.key) : stored.data);
+        }
+    }
+
+    /**
+     * Reads what {@link #write(ObjectOutputStream)} wrote. Hibernated state
+     * is kept in the heap until {@link #load()}.
+     *
+     * @param in Stream of the owner
+     * @throws IOException            If reading fails
+     * @throws ClassNotFoundException If a class is not found
+     */
+    void read(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        threshold = in.readLong();
+        store = (HibernationStore) in.readObject();
+        if (store == null) {
+            store = HibernationStore.offHeap();
+        }
+        for (Object hibernatable : (Object[]) in.readObject()) {
+            hibernatables.add((Hibernatable) hibernatable);
+        }
+        for (int i = in.readInt(); i > 0; i--) {
+            Hibernatable hibernatable = (Hibernatable) in.readObject();
+            byte[] data = (byte[]) in.readObject();
+            hibernated.put(hibernatable, data != null ? new HibernatedState(data) : HibernatedState.EMPTY);
+        }
+    }
+
+    private static byte[] serialize(Serializable state) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(state);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Serializable deserialize(byte[] data) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ContextObjectInputStream(new ByteArrayInputStream(data))) {
+            return (Serializable) in.readObject();
+        }
+    }
+
+    /**
+     * Location of the state of a hibernated object: a key in the
+     * hibernation store, or the data itself while the session is written
+     * out or not yet used on this node.
+     */
+    private static final class HibernatedState {
+
+        private static final HibernatedState EMPTY = new HibernatedState(null, 0);
+
+        private final String key;
+        private final int size;
+        private final byte[] data;
+
+        private HibernatedState(String key, int size) {
+            this.key = key;
+            this.size = size;
+            this.data = null;
+        }
+
+        private HibernatedState(byte[] data) {
+            this.key = null;
+            this.size = data != null ? data.length : 0;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Reads hibernated state using the context class loader, so that
+     * application classes are found.
+     */
+    private static final class ContextObjectInputStream extends ObjectInputStream {
+
+        private ContextObjectInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc)
+                throws IOException, ClassNotFoundException {
+            ClassLoader loader = Thread.currentThread().getContextClassLoader();
+            if (loader != null) {
+                try {
+                    return Class.forName(desc.getName(), false, loader);
+                } catch (ClassNotFoundException e) {
+                    // Fall back to the default resolution
+                }
+            }
+            return super.resolveClass(desc);
+        }
+    }
+}
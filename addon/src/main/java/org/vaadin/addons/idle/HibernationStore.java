@@ -0,0 +1,79 @@
+/*
+ * Copyright 2017 Sami Ekblad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.idle;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Storage for the serialized state of hibernated objects.
+ * <p>
+ * Implementations must be thread-safe. Each key is written once, may be
+ * read any number of times, and is taken back at most once.
+ *
+ * @author Sami Ekblad
+ * @see Idle#setHibernationStore(HibernationStore)
+ */
+public interface HibernationStore {
+
+    /**
+     * Stores the data.
+     *
+     * @param key  Unique key
+     * @param data Serialized state
+     * @throws IOException If the data could not be stored
+     */
+    void put(String key, byte[] data) throws IOException;
+
+    /**
+     * Reads the data without removing it.
+     *
+     * @param key Key given to {@link #put(String, byte[])}
+     * @return Stored data, or {@code null} if there is none
+     * @throws IOException If the data could not be read
+     */
+    byte[] get(String key) throws IOException;
+
+    /**
+     * Reads and removes the data.
+     *
+     * @param key Key given to {@link #put(String, byte[])}
+     * @return Stored data, or {@code null} if there is none
+     * @throws IOException If the data could not be read
+     */
+    byte[] take(String key) throws IOException;
+
+    /**
+     * Gets the store that keeps the data in direct buffers outside the
+     * Java heap. This is the default.
+     *
+     * @return Shared off-heap store
+     */
+    static HibernationStore offHeap() {
+        return OffHeapHibernationStore.INSTANCE;
+    }
+
+    /**
+     * Creates a store that writes the data to files in a directory. The
+     * files are deleted when read back.
+     *
+     * @param directory Existing directory for the files
+     * @return Store writing to the directory
+     */
+    static HibernationStore directory(Path directory) {
+        return new DirectoryHibernationStore(directory);
+    }
+}
@@ -15,18 +15,55 @@
  */
 package org.vaadin.addons.idle;
 
+import com.vaadin.flow.component.Component;
+import com.vaadin.flow.component.ComponentUtil;
 import com.vaadin.flow.component.UI;
+import com.vaadin.flow.component.UIDetachedException;
+import com.vaadin.flow.dom.DomEvent;
+import com.vaadin.flow.dom.DomEventListener;
 import com.vaadin.flow.dom.DomListenerRegistration;
+import com.vaadin.flow.server.Command;
+import com.vaadin.flow.server.VaadinRequest;
+import com.vaadin.flow.server.VaadinServletService;
+import com.vaadin.flow.server.VaadinSession;
 import com.vaadin.flow.shared.Registration;
+import com.vaadin.flow.shared.communication.PushMode;
+import elemental.json.Json;
+import elemental.json.JsonArray;
+import elemental.json.JsonObject;
+import elemental.json.JsonValue;
 import org.parttio.vaadinjsloader.JSLoader;
+import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.lang.ref.WeakReference;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.EventObject;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
-import java.util.WeakHashMap;
+import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 ;
 
@@ -45,26 +82,89 @@ import java.util.concurrent.CopyOnWriteArrayList;
  * {@link #addUserActiveListener} and {@link #addUserInactiveListener}, they
  * will be invoked.
  * <p>
- * User activity is tracked by following the mouse and keyboard events on the
- * browser window.
+ * User activity is tracked by following the mouse, touch and keyboard events
+ * on the browser window. Other sources can be selected using
+ * {@link #setActivitySources(ActivitySource...)}.
  * <p>
  * The inactivity timeout period can be specified using the
  * {@link #setTimeout(long)} method.
+ * <p>
+ * An instance is serialized with its UI, for example when the session is
+ * persisted or replicated. Only the configuration, the user state and the
+ * listeners are written, and the instance tracks the UI again once the
+ * session has been read. Listener executors and hibernation stores are
+ * kept only if they are serializable themselves.
  *
  * @author Sami Ekblad
  */
-public class Idle {
+public class Idle implements Serializable {
 
-    private static final WeakHashMap<UI, Idle> UI_REGISTRATIONS = new WeakHashMap<>();
+    static final PresenceIndex<Idle> INDEX = new PresenceIndex<>();
+    static final IdleRegistry REGISTRY = new IdleRegistry();
+    private static volatile IdleMetrics metrics = IdleMetrics.NOOP;
+    private static volatile boolean clientBundled;
     public static final long DEFAULT_TIMEOUT = 5000;
-    private final List<UserInactiveListener> inactiveListeners = new CopyOnWriteArrayList<>();
-    private final List<UserActiveListener> activeListeners = new CopyOnWriteArrayList<>();
-    private final WeakReference<UI> ui;
+    private static final String TELEMETRY_DATA = "event.detail";
+    private static final String LEVEL_DATA = "event.detail";
+    private static final String LAST_ACTIVITY_DATA = "event.detail.lastActivity";
+    private static final String IDLE_TIME_DATA = "event.detail.idleTime";
+    private static final String SOURCE_DATA = "event.detail.source";
+    private static final String JS_INSTANCE =
+            "window." + Idle.class.getCanonicalName().replace('.', '_') + "_instance";
+    private static final long serialVersionUID = 1L;
+    private static final int SERIAL_FORMAT = 1;
+    // The serialized form is written by writeObject only
+    private static final ObjectStreamField[] serialPersistentFields = {};
+    private List<UserInactiveListener> inactiveListeners = new CopyOnWriteArrayList<>();
+    private List<UserActiveListener> activeListeners = new CopyOnWriteArrayList<>();
+    private List<UserLevelListener> levelListeners = new CopyOnWriteArrayList<>();
+    private List<VisibilityListener> visibilityListeners = new CopyOnWriteArrayList<>();
+    private WeakReference<UI> ui;
     private long timeout;
     private boolean updateCssClass;
+    private boolean workerTimer;
+    private Set<ActivitySource> activitySources =
+            EnumSet.of(ActivitySource.MOUSE, ActivitySource.KEYBOARD, ActivitySource.TOUCH);
     private DomListenerRegistration activeDomListener;
     private DomListenerRegistration inactiveDomListener;
-    private final String jsSingletonName;
+    private DomListenerRegistration activityDomListener;
+    private DomListenerRegistration telemetryDomListener;
+    private DomListenerRegistration levelDomListener;
+    private DomListenerRegistration hiddenDomListener;
+    private DomListenerRegistration visibleDomListener;
+    private ClientEventListener clientEvents;
+    private Registration detachListener;
+    private volatile boolean userActive = true;
+    private Instant lastActivity;
+    private Duration idleDuration;
+    private ActivitySource activitySource;
+    private long minimumDwellTime;
+    private int reactivationEvents = 1;
+    private long reactivationTime;
+    private long eventCoalescing;
+    private TimingWheel.Timeout coalescingTimer;
+    private boolean coalescedActive = true;
+    private boolean adaptedActive = true;
+    private boolean crossTab;
+    private Executor listenerExecutor;
+    private boolean scriptFree;
+    private Registration pollListener;
+    private long telemetryInterval;
+    private long telemetryResolution = 60000;
+    private int telemetryCapacity = 60;
+    private ActivityTelemetry telemetry;
+    private long[] levels = new long[0];
+    private int level;
+    private VisibilityPolicy visibilityPolicy = VisibilityPolicy.IGNORE;
+    private boolean hideOnBlur;
+    private boolean pageVisible = true;
+    private PresenceTracker presence = new PresenceTracker(this);
+    private HibernationController hibernation = new HibernationController(this);
+    private PushAdapter push = new PushAdapter(this);
+    private List<Command> untrackCommands = new CopyOnWriteArrayList<>();
+    private Map<String, String> pendingCalls = new LinkedHashMap<>();
+    private Map<String, String> clientState = new HashMap<>();
+    private boolean flushScheduled;
 
     /**
      * Creates a new Idle instance.
@@ -73,18 +173,59 @@ public class Idle {
      * @throws IllegalArgumentException If the UI is already monitored by Idle
      */
     public Idle(UI ui) throws IllegalArgumentException {
+        this(ui, false);
+    }
 
-        checkNotTracked(ui);
+    /**
+     * Creates a new Idle instance.
+     *
+     * @param ui         UI instance to monitor
+     * @param scriptFree Infer activity from requests instead of loading
+     *                   the client script
+     * @throws IllegalArgumentException If the UI is already monitored by Idle
+     */
+    private Idle(UI ui, boolean scriptFree) throws IllegalArgumentException {
 
-        // Load the JS and CSS
-        JSLoader.loadJavaResource(ui, Idle.class, "idle-addon","idle.js", "idle.css");
+        checkNotTracked(ui);
+        this.scriptFree = scriptFree;
+        if (scriptFree && (ui.getSession() == null || ui.getUIId() < 0)) {
+            throw new IllegalArgumentException(
+                    "Script-free mode requires an initialized UI");
+        }
 
-        // The loaded script creates a single JS instance in window, with unique name instance name
-        jsSingletonName = "window." + Idle.class.getCanonicalName().replace('.', '_') + "_instance";
+        // Load the JS and CSS, unless included in the frontend bundle
+        if (!scriptFree && !clientBundled) {
+            JSLoader.loadJavaResource(ui, Idle.class, "idle-addon","idle.js", "idle.css");
+        }
 
-        UI_REGISTRATIONS.put(ui, this);
+        if (REGISTRY.putIfAbsent(ui, this) != null) {
+            throw new IllegalArgumentException(
+                    "This UI is already monitored by Idle");
+        }
         this.ui = new WeakReference<>(ui);
+        presence.index(true);
+        // Serialized with the UI, to find this instance again in a restored
+        // session
+        ComponentUtil.setData(ui, Idle.class, this);
+
+        if (ui.getSession() != null) {
+            SessionBinding.join(ui.getSession(), this);
+        }
+
+        // Stop tracking when the UI is closed, instead of waiting for GC
+        detachListener = ui.addDetachListener(e -> untrackUI());
         this.trackUI(ui, DEFAULT_TIMEOUT);
+        if (scriptFree) {
+            RequestActivity.register(ui.getSession(), ui.getUIId());
+            pollListener = ui.addPollListener(e -> {
+                VaadinRequest request = VaadinRequest.getCurrent();
+                if (request != null) {
+                    request.setAttribute(RequestActivity.POLL_ATTRIBUTE, Boolean.TRUE);
+                }
+            });
+            presence.startRequestTimeout();
+        }
+        metrics.uiTracked();
     }
 
     /**
@@ -122,7 +263,222 @@ public class Idle {
      */
     public static Idle get(UI ui) {
         Objects.requireNonNull(ui, "UI must not be null");
-        return UI_REGISTRATIONS.get(ui);
+        Idle idle = REGISTRY.get(ui);
+        if (idle == null) {
+            // Restored with its session, but not yet used on this node
+            idle = ComponentUtil.getData(ui, Idle.class);
+            if (idle != null) {
+                idle.rebind();
+            }
+        }
+        return idle;
+    }
+
+    /**
+     * Installs the metrics implementation used by all Idle instances.
+     *
+     * @param metrics Metrics implementation, or {@code null} to disable
+     *                metrics.
+     */
+    public static void setMetrics(IdleMetrics metrics) {
+        Idle.metrics = metrics != null ? metrics : IdleMetrics.NOOP;
+    }
+
+    /**
+     * Gets the installed metrics implementation.
+     *
+     * @return Metrics implementation, {@link IdleMetrics#NOOP} if disabled.
+     */
+    public static IdleMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Are the client files included in the frontend bundle.
+     *
+     * @return true, if the files are not loaded separately for each UI
+     */
+    public static boolean isClientBundled() {
+        return clientBundled;
+    }
+
+    /**
+     * Sets whether the client files are included in the frontend bundle
+     * using {@link IdleBundle}. When bundled, UIs tracked after this call
+     * do not load the files separately. Affects all UIs in this JVM.
+     *
+     * @param bundled true, if the application bundles {@link IdleBundle}
+     */
+    public static void setClientBundled(boolean bundled) {
+        clientBundled = bundled;
+    }
+
+    /**
+     * Number of UIs currently tracked in this JVM.
+     *
+     * @return Number of tracked UIs
+     */
+    public static int getTrackedUICount() {
+        return REGISTRY.size();
+    }
+
+    /**
+     * Number of tracked UIs where the user is currently considered active.
+     *
+     * @return Number of UIs with an active user
+     * @see #isUserActive()
+     */
+    public static int getActiveUICount() {
+        return INDEX.count(true);
+    }
+
+    /**
+     * Number of tracked UIs where the user is currently considered
+     * inactive.
+     *
+     * @return Number of UIs with an inactive user
+     * @see #isUserActive()
+     */
+    public static int getInactiveUICount() {
+        return INDEX.count(false);
+    }
+
+    /**
+     * Number of tracked UIs where the user has been active or inactive for
+     * at least the given time. Runs in logarithmic time.
+     * <p>
+     * The state is the one returned by {@link #isUserActive()}, so
+     * inactivity is only seen for UIs whose state is known on the server.
+     *
+     * @param active  true, to count active UIs
+     * @param minimum Minimum time in the state
+     * @return Number of UIs
+     */
+    public static int countInState(boolean active, Duration minimum) {
+        return INDEX.count(active, TimingWheel.shared().now() - minimum.toMillis());
+    }
+
+    /**
+     * Iterates the tracked UIs where the user has been active or inactive
+     * for at least the given time, longest first.
+     * <p>
+     * Nothing is copied, and the iteration is weakly consistent: UIs
+     * changing state during the iteration may or may not be included. The
+     * action is invoked without locking the sessions, so use
+     * {@link UI#access} to modify the UIs. For example, to close UIs
+     * inactive for more than 20 minutes:
+     * <pre>
+     * Idle.forEachInState(false, Duration.ofMinutes(20),
+     *         idle -&gt; idle.getUI().ifPresent(ui -&gt; ui.access(ui::close)));
+     * </pre>
+     *
+     * @param active  true, to iterate active UIs
+     * @param minimum Minimum time in the state
+     * @param action  Action to run for each Idle instance
+     */
+    public static void forEachInState(boolean active, Duration minimum, Consumer<Idle> action) {
+        Objects.requireNonNull(action, "Action must not be null");
+        INDEX.forEach(active, TimingWheel.shared().now() - minimum.toMillis(), action);
+    }
+
+    /**
+     * Time since the user state of this UI last changed, or since
+     * tracking started.
+     *
+     * @return Time in the current state, or {@link Duration#ZERO} if the
+     * UI is no longer tracked
+     */
+    public Duration getTimeInState() {
+        return presence.getTimeInState();
+    }
+
+    /**
+     * Gets the tracked UI.
+     *
+     * @return The UI, or empty if it is no longer tracked
+     */
+    public Optional<UI> getUI() {
+        return Optional.ofNullable(ui.get());
+    }
+
+    /**
+     * Number of listeners in all tracked UIs. Iterates all tracked UIs.
+     *
+     * @return Total number of listeners
+     */
+    public static int getTotalListenerCount() {
+        int[] count = new int[1];
+        REGISTRY.forEach(idle -> count[0] += idle.getListenerCount());
+        return count[0];
+    }
+
+    /**
+     * Size of the state currently hibernated by all tracked UIs. Iterates
+     * all tracked UIs.
+     *
+     * @return Total number of bytes moved out of the heap
+     * @see #getReclaimedBytes()
+     */
+    public static long getTotalReclaimedBytes() {
+        long[] bytes = new long[1];
+        REGISTRY.forEach(idle -> bytes[0] += idle.getReclaimedBytes());
+        return bytes[0];
+    }
+
+    /**
+     * Number of tracked UIs whose push connection is currently released.
+     * Iterates all tracked UIs.
+     *
+     * @return Number of UIs with released push
+     * @see #isPushReleased()
+     */
+    public static int getPushReleasedUICount() {
+        int[] count = new int[1];
+        REGISTRY.forEach(idle -> {
+            if (idle.isPushReleased()) {
+                count[0]++;
+            }
+        });
+        return count[0];
+    }
+
+    /**
+     * Create new user activity tracker for UI that does not use any client
+     * script.
+     * <p>
+     * Instead of following mouse and keyboard events in the browser, every
+     * request the user causes to the server counts as activity. Heartbeat
+     * and poll requests are ignored. The user is considered inactive when
+     * there have been no requests within the timeout, which is enforced on
+     * the server. The CSS classes are not updated in this mode, and
+     * cross-tab mode and the server timeout are not available.
+     * <p>
+     * Requires {@link IdleServiceInitListener}, which is registered
+     * automatically. With websocket push, use the
+     * <code>WEBSOCKET_XHR</code> transport so that the requests are seen.
+     *
+     * @param ui        Initialized UI instance to monitor
+     * @param timeoutMs Inactivity timeout in milliseconds
+     * @return Idle Created instance
+     * @throws IllegalArgumentException If the UI is already monitored by
+     *                                  Idle, or not initialized
+     */
+    public static Idle trackRequests(UI ui, long timeoutMs)
+            throws IllegalArgumentException {
+        Objects.requireNonNull(ui, "UI must not be null");
+        Idle idle = new Idle(ui, true);
+        idle.setTimeout(timeoutMs);
+        return idle;
+    }
+
+    /**
+     * Is the activity inferred from server requests instead of the client
+     * script.
+     *
+     * @return true, if tracked with {@link #trackRequests(UI, long)}
+     */
+    public boolean isScriptFree() {
+        return scriptFree;
     }
 
     /**
@@ -173,19 +529,61 @@ public class Idle {
      */
     protected void trackUI(UI ui, long timeout) {
         assert ui != null;
-        setTimeout(timeout);
         callInstanceMethod("register()");
+        setTimeout(timeout);
     }
 
     /** This is an internal method for calling JS functions.
+     * <p>
+     * Calls are not sent immediately, but collected and sent as a single
+     * JavaScript execution before the next response. Only the last call of
+     * each method is sent, and calls that would not change the client state
+     * are skipped.
+     * <p>
+     * The client starts from its defaults on register, so the register
+     * call is always sent first. Unregistering drops the pending calls, as
+     * the client resets its configuration.
      *
      * @param methodCall The method call to execute.
      */
     private void callInstanceMethod(String methodCall) {
         UI ui = this.ui.get();
-        if (ui != null) {
-            ui.getElement().executeJs(jsSingletonName + "." + methodCall + ";");
+        if (ui == null || scriptFree) {
+            return;
+        }
+        String method = methodCall.substring(0, methodCall.indexOf('('));
+        String key = "unregister".equals(method) ? "register" : method;
+        if (methodCall.equals(clientState.get(key))) {
+            pendingCalls.remove(key);
+            return;
+        }
+        if ("unregister".equals(method)) {
+            pendingCalls.clear();
+            clientState.clear();
+        }
+        pendingCalls.put(key, methodCall);
+        if (!flushScheduled) {
+            flushScheduled = true;
+            ui.beforeClientResponse(ui, context -> flushInstanceMethods(ui));
+        }
+    }
+
+    /** Sends the collected JS function calls to the client.
+     *
+     * @param ui UI instance to send the calls to
+     */
+    private void flushInstanceMethods(UI ui) {
+        flushScheduled = false;
+        if (pendingCalls.isEmpty()) {
+            return;
         }
+        StringBuilder js = new StringBuilder("const idle = ").append(JS_INSTANCE).append(';');
+        pendingCalls.forEach((key, methodCall) -> {
+            js.append("idle.").append(methodCall).append(';');
+            clientState.put(key, methodCall);
+        });
+        pendingCalls.clear();
+        ui.getElement().executeJs(js.toString());
     }
 
     /**
@@ -196,7 +594,7 @@ public class Idle {
      */
     protected void checkNotTracked(UI ui) throws IllegalArgumentException {
         assert ui != null;
-        if (UI_REGISTRATIONS.containsKey(ui)) {
+        if (REGISTRY.contains(ui) || ComponentUtil.getData(ui, Idle.class) != null) {
             throw new IllegalArgumentException(
                     "This UI is already monitored by Idle");
         }
@@ -222,6 +620,7 @@ public class Idle {
     public void setTimeout(long timeout) {
         this.timeout = timeout >= 0 ? timeout: 0;
         callInstanceMethod("setTimeout(%d)".formatted(this.timeout));
+        presence.extendRequestTimeout();
     }
 
     /** Do we apply css class when user becomes active/inactive.
@@ -243,177 +642,2032 @@ public class Idle {
     }
 
     /**
-     * Fires an {@link UserActiveEvent}.
+     * Kinds of input that count as user activity.
+     *
+     * @return Selected activity sources
+     * @see #setActivitySources(ActivitySource...)
      */
-    protected void fireUserActive() {
-        activeListeners.forEach(l -> l.userActive(new UserActiveEvent(this)));
+    public Set<ActivitySource> getActivitySources() {
+        return Collections.unmodifiableSet(activitySources);
     }
 
     /**
-     * Adds the user active listener.
+     * Selects the kinds of input that count as user activity. By default,
+     * mouse, touch and keyboard input are tracked.
+     * <p>
+     * Each event type is listened to once on the browser window, in the
+     * capture phase and as a passive listener, so tracking never delays
+     * scrolling. Pointer movement shorter than a few pixels is ignored.
+     * Note that {@link ActivitySource#SCROLL} and
+     * {@link ActivitySource#FOCUS} also count scrolling and focus changes
+     * made by the application.
      *
-     * @param listener the Listener to be added.
-     * @return A registration object for removing the listener.
-     * @see Registration
+     * @param sources Activity sources, at least one
      */
-    public Registration addUserActiveListener(UserActiveListener listener) {
-        activeListeners.add(listener);
-
-        // Attach DOM event listener
-        if (activeDomListener == null) {
-            UI ui = this.ui.get();
-            if (ui != null) {
-                activeDomListener = ui.getElement()
-                        .addEventListener("user-active", e -> fireUserActive());
-            }
+    public void setActivitySources(ActivitySource... sources) {
+        if (sources.length == 0) {
+            throw new IllegalArgumentException("At least one activity source is required");
         }
-        return () -> {
-            activeListeners.remove(listener);
-            // Remove DOM event listener
-            if (activeListeners.isEmpty()) {
-                activeDomListener.remove();
-                activeDomListener = null;
-            }
-        };
+        this.activitySources = EnumSet.copyOf(Arrays.asList(sources));
+        StringBuilder array = new StringBuilder("[");
+        for (ActivitySource source : activitySources) {
+            array.append(array.length() > 1 ? "," : "").append('"').append(source.name()).append('"');
+        }
+        callInstanceMethod("setActivitySources(" + array.append("])"));
     }
 
     /**
-     * Fires an {@link UserInactiveEvent}.
+     * Is the client timer run in a Web Worker.
+     *
+     * @return true, if the worker timer is enabled.
      */
-    protected void fireUserInactive() {
-        inactiveListeners.forEach(l -> l.userInactive(new UserInactiveEvent(this)));
+    public boolean isWorkerTimer() {
+        return workerTimer;
     }
 
     /**
-     * Adds the user inactive listener.
+     * Run the client inactivity timer in a dedicated Web Worker.
+     * <p>
+     * Browsers throttle the timers of background tabs, in some cases to
+     * once per minute, so the user may be reported inactive long after the
+     * timeout. Worker timers are not throttled in the same way. The browser
+     * falls back to window timers if it cannot start the worker, for
+     * example when the Content Security Policy does not allow
+     * {@code blob:} workers.
      *
-     * @param listener The Listener to be added.
-     * @return A registration object for removing the listener.
-     * @see Registration
+     * @param workerTimer true, to use a worker timer.
      */
-    public Registration addUserInactiveListener(UserInactiveListener listener) {
-        inactiveListeners.add(listener);
-
-        // Attach DOM event listener
-        if (inactiveDomListener == null) {
-            UI ui = this.ui.get();
-            if (ui != null) {
-                inactiveDomListener = ui.getElement()
-                        .addEventListener("user-inactive", e -> fireUserInactive());
-            }
-        }
-        return () -> {
-            inactiveListeners.remove(listener);
-            // Remove DOM event listener
-            if (inactiveListeners.isEmpty()) {
-                inactiveDomListener.remove();
-                inactiveDomListener = null;
-            }
-        };
-
+    public void setWorkerTimer(boolean workerTimer) {
+        this.workerTimer = workerTimer;
+        callInstanceMethod("setWorkerTimer(%b)".formatted(workerTimer));
     }
 
-    /** Stop tracking the UI.
+    /**
+     * Server-enforced inactivity timeout in milliseconds.
      *
+     * @return Current server-side timeout in milliseconds, or 0 if disabled.
      */
-    public void untrackUI() {
-        UI ui = this.ui.get();
-        callInstanceMethod("unregister()");
-        UI_REGISTRATIONS.remove(ui);
-        this.ui.clear();
+    public long getServerTimeout() {
+        return presence.getServerTimeout();
     }
 
     /**
-     * Listener interface for user activity status changes to active.
+     * Enforce the inactivity timeout on the server.
+     * <p>
+     * By default, inactivity is decided in the browser only. When a server
+     * timeout is set, the browser periodically reports user activity and the
+     * server considers the user inactive if no activity has been reported
+     * within the timeout. This also works for browsers that were closed,
+     * throttled or tampered with, as the decision does not depend on the
+     * client timer.
+     * <p>
+     * The user is never reported inactive before the timeout has passed,
+     * but may be reported up to a quarter of the timeout late. The
+     * deadlines of all UIs are kept in a single shared timing wheel.
+     * {@link UserInactiveListener}s are invoked using {@link UI#access}.
+     *
+     * @param serverTimeout New timeout in milliseconds, or 0 to disable.
      */
-    @FunctionalInterface
-    public interface UserActiveListener extends Serializable {
-
-        /**
-         * Invoked when user becomes active.
-         *
-         * @param event Event
-         * @see Idle#setTimeout(long)
-         */
-        void userActive(UserActiveEvent event);
-
+    public void setServerTimeout(long serverTimeout) {
+        if (scriptFree && serverTimeout > 0) {
+            throw new IllegalStateException("Not available in script-free mode");
+        }
+        presence.setServerTimeout(serverTimeout);
+        callInstanceMethod("setActivityReportInterval(%d)".formatted(presence.getActivityReportInterval()));
+        updateDomListeners();
     }
 
-
     /**
-     * Listener interface for user activity status changes to inactive.
+     * Minimum time in milliseconds the user must stay in a state before it
+     * is reported to the server.
+     *
+     * @return Minimum dwell time in milliseconds.
      */
-    @FunctionalInterface
-    public interface UserInactiveListener extends Serializable {
-
-        /**
-         * Invoked when user goes inactive based on timeout period.
-         *
-         * @param event Event
-         * @see Idle#setTimeout(long)
-         */
-        void userInactive(UserInactiveEvent event);
+    public long getMinimumDwellTime() {
+        return minimumDwellTime;
+    }
 
+    /**
+     * Minimum time in milliseconds the user must stay in a state before it
+     * is reported to the server.
+     * <p>
+     * When the user returns to the previous state within this time, neither
+     * transition is sent to the server. The last state is always reported
+     * once it has lasted for the dwell time. CSS classes are updated
+     * immediately. Default is 0, which reports every transition.
+     *
+     * @param minimumDwellTime Dwell time in milliseconds.
+     */
+    public void setMinimumDwellTime(long minimumDwellTime) {
+        this.minimumDwellTime = minimumDwellTime >= 0 ? minimumDwellTime : 0;
+        callInstanceMethod("setMinimumDwellTime(%d)".formatted(this.minimumDwellTime));
     }
 
     /**
-     * Basic Idle add-on event
+     * Number of input events needed to become active again.
+     *
+     * @return Number of input events.
+     * @see #setReactivationThreshold(int, long)
      */
-    public static class IdleEvent extends EventObject {
+    public int getReactivationEvents() {
+        return reactivationEvents;
+    }
 
-        /**
-         * New instance of idle event.
-         *
-         * @param idle The source of the event.
-         */
-        public IdleEvent(Idle idle) {
-            super(idle);
-        }
+    /**
+     * Duration of continuous activity needed to become active again.
+     *
+     * @return Duration in milliseconds, or 0 if not used.
+     * @see #setReactivationThreshold(int, long)
+     */
+    public long getReactivationTime() {
+        return reactivationTime;
+    }
 
-        /**
-         * Gets the Idle instance that triggered this event.
-         *
-         * @return Idle instance that triggered this event.
-         */
-        public Idle getIdle() {
-            return (Idle) getSource();
-        }
+    /**
+     * How much activity is needed for an inactive user to become active.
+     * <p>
+     * The user becomes active after the given number of input events, or
+     * after being continuously active for the given time, whichever comes
+     * first. Activity is continuous as long as there are no pauses longer
+     * than the reactivation time, or one second if that is shorter. By
+     * default, a single input event is enough.
+     *
+     * @param events Number of input events, at least 1.
+     * @param timeMs Duration of activity in milliseconds, or 0 to only use
+     *               the number of events.
+     */
+    public void setReactivationThreshold(int events, long timeMs) {
+        this.reactivationEvents = Math.max(1, events);
+        this.reactivationTime = Math.max(0, timeMs);
+        callInstanceMethod("setReactivationThreshold(%d, %d)"
+                .formatted(this.reactivationEvents, this.reactivationTime));
+    }
 
+    /**
+     * Server-side coalescing window in milliseconds.
+     *
+     * @return Coalescing window in milliseconds, or 0 if disabled.
+     */
+    public long getEventCoalescing() {
+        return eventCoalescing;
     }
 
     /**
-     * User active event.
+     * Coalesce state changes on the server.
      * <p>
-     * This event is triggered when the user becomes active.
+     * When enabled, a state change received from the client is not passed
+     * to the listeners immediately. Instead, listeners are invoked once the
+     * window has passed, and only if the state then differs from the last
+     * state passed to them. Listeners are invoked using {@link UI#access}.
+     *
+     * @param windowMs Coalescing window in milliseconds, or 0 to disable.
      */
-    public static class UserActiveEvent extends IdleEvent {
+    public void setEventCoalescing(long windowMs) {
+        this.eventCoalescing = windowMs >= 0 ? windowMs : 0;
+    }
 
-        /**
-         * New instance of user active event.
-         *
-         * @param idle The source of the event.
-         */
-        public UserActiveEvent(Idle idle) {
-            super(idle);
-        }
+    /**
+     * Is cross-tab coordination enabled.
+     *
+     * @return true, if cross-tab coordination is enabled.
+     * @see #setCrossTab(boolean)
+     */
+    public boolean isCrossTab() {
+        return crossTab;
+    }
 
+    /**
+     * Context path of the servlet serving the session.
+     *
+     * @param session Session to get the path for
+     * @return Context path, or empty string if not served by a servlet
+     */
+    private static String getContextPath(VaadinSession session) {
+        if (session.getService() instanceof VaadinServletService service && service.getServlet() != null) {
+            return service.getServlet().getServletContext().getContextPath();
+        }
+        return "";
     }
 
     /**
-     * User inactive event.
+     * Coordinate activity tracking between browser tabs.
+     * <p>
+     * When enabled, user activity in one browser tab counts as activity in
+     * all tabs of the same application that also have cross-tab mode
+     * enabled. Only one of the tabs reports state changes to the server,
+     * and the reported state is shared with the other UIs of the same
+     * session, whose listeners are invoked as well. Use
+     * {@link #isSessionUserActive(VaadinSession)} for the aggregated state.
+     * <p>
+     * Tabs communicate using a <code>BroadcastChannel</code>, or storage
+     * events where not supported. The channel is named after the servlet
+     * context path, so that applications deployed on the same origin do
+     * not coordinate with each other.
+     *
+     * @param crossTab true to enable cross-tab coordination.
+     */
+    public void setCrossTab(boolean crossTab) {
+        if (this.crossTab == crossTab) {
+            return;
+        }
+        if (scriptFree) {
+            throw new IllegalStateException("Not available in script-free mode");
+        }
+        UI ui = this.ui.get();
+        String scope = "";
+        if (ui != null && ui.getSession() != null) {
+            SessionActivity activity = SessionActivity.get(ui.getSession(), true);
+            if (crossTab) {
+                activity.join(this);
+            } else {
+                activity.leave(this);
+            }
+            scope = getContextPath(ui.getSession());
+        }
+        this.crossTab = crossTab;
+        callInstanceMethod("setCrossTab(%b, %s)".formatted(crossTab, Json.create(scope).toJson()));
+        updateDomListeners();
+    }
+
+    /**
+     * Is the user active in the session.
+     * <p>
+     * In cross-tab mode this is the state reported by the reporting tab.
+     * Otherwise, the user is active if any of the tracked UIs of the
+     * session is active. Must be called with the session locked.
+     *
+     * @param session Session to check
+     * @return true, if the user is active in the session.
+     */
+    public static boolean isSessionUserActive(VaadinSession session) {
+        Objects.requireNonNull(session, "Session must not be null");
+        SessionActivity activity = SessionActivity.get(session, false);
+        if (activity != null && activity.hasMembers()) {
+            return activity.isActive();
+        }
+        return session.getUIs().stream()
+                .map(Idle::get)
+                .anyMatch(idle -> idle != null && idle.isUserActive());
+    }
+
+    /**
+     * Is the user currently considered active.
+     * <p>
+     * The state is only known on the server if listeners are attached, or
+     * a server-side timeout is set.
+     *
+     * @return true, if user is active.
+     */
+    public boolean isUserActive() {
+        return userActive;
+    }
+
+    /**
+     * Idle level thresholds in milliseconds.
+     *
+     * @return Thresholds in ascending order, empty if levels are not used.
+     * @see #setIdleLevels(long...)
+     */
+    public long[] getIdleLevels() {
+        return levels.clone();
+    }
+
+    /**
+     * Sets thresholds for idle levels, for example to dim the screen after
+     * one minute, warn after 10 minutes and log out after 30 minutes.
+     * <p>
+     * The level is 0 while the user is active and increases by one each
+     * time the user has been idle for the next threshold. Any activity
+     * returns to level 0. Levels are independent of
+     * {@link #setTimeout(long)}. All levels are driven by the same client
+     * timer as the timeout, and only level changes are sent to the server.
+     * The current level is also set to the <code>idle-level</code>
+     * attribute of <code>BODY</code>.
+     *
+     * @param thresholdsMs Idle times in milliseconds in ascending order,
+     *                     none to disable levels.
+     * @see #addUserLevelListener(UserLevelListener)
+     */
+    public void setIdleLevels(long... thresholdsMs) {
+        if (scriptFree && thresholdsMs.length > 0) {
+            throw new IllegalStateException("Not available in script-free mode");
+        }
+        long previous = 0;
+        for (long threshold : thresholdsMs) {
+            if (threshold <= previous) {
+                throw new IllegalArgumentException("Thresholds must be positive and ascending");
+            }
+            previous = threshold;
+        }
+        this.levels = thresholdsMs.clone();
+        StringBuilder array = new StringBuilder("[");
+        for (int i = 0; i < levels.length; i++) {
+            array.append(i > 0 ? "," : "").append(levels[i]);
+        }
+        callInstanceMethod("setLevels(" + array.append("])"));
+        updateDomListeners();
+    }
+
+    /**
+     * Current idle level of the user.
+     * <p>
+     * The level is only known on the server if level listeners are
+     * attached.
+     *
+     * @return Idle level, 0 if the user is active.
+     * @see #setIdleLevels(long...)
+     */
+    public int getIdleLevel() {
+        return level;
+    }
+
+    /**
+     * Invoked when the client reports a new idle level.
+     *
+     * @param newLevel New level
+     */
+    private void clientLevel(int newLevel) {
+        newLevel = Math.max(0, Math.min(newLevel, levels.length));
+        if (newLevel == level) {
+            return;
+        }
+        UserLevelEvent event = new UserLevelEvent(this, newLevel, level);
+        level = newLevel;
+        invokeListeners(levelListeners, event, UserLevelListener::userLevelChanged);
+    }
+
+    /**
+     * Adds a listener for all idle level changes.
+     *
+     * @param listener The Listener to be added.
+     * @return A registration object for removing the listener.
+     * @see #setIdleLevels(long...)
+     */
+    public Registration addUserLevelListener(UserLevelListener listener) {
+        levelListeners.add(listener);
+        updateDomListeners();
+        return () -> {
+            levelListeners.remove(listener);
+            updateDomListeners();
+        };
+    }
+
+    /**
+     * Adds a listener invoked when the user reaches the given idle level.
+     *
+     * @param level    Idle level, 0 for becoming active again
+     * @param listener The Listener to be added.
+     * @return A registration object for removing the listener.
+     * @see #setIdleLevels(long...)
+     */
+    public Registration addUserLevelListener(int level, UserLevelListener listener) {
+        Objects.requireNonNull(listener, "Listener must not be null");
+        return addUserLevelListener(e -> {
+            if (e.getLevel() == level) {
+                listener.userLevelChanged(e);
+            }
+        });
+    }
+
+    /**
+     * Behavior of the inactivity timer while the browser tab is hidden.
+     *
+     * @return Current policy
+     */
+    public VisibilityPolicy getVisibilityPolicy() {
+        return visibilityPolicy;
+    }
+
+    /**
+     * Sets the behavior of the inactivity timer while the browser tab is
+     * hidden. The tab is hidden when the page is not visible, for example
+     * when minimized or in a background tab, and when the page is being
+     * unloaded. Default is {@link VisibilityPolicy#IGNORE}.
+     *
+     * @param policy New policy
+     * @see #setHideOnBlur(boolean)
+     */
+    public void setVisibilityPolicy(VisibilityPolicy policy) {
+        Objects.requireNonNull(policy, "Policy must not be null");
+        if (scriptFree && policy != VisibilityPolicy.IGNORE) {
+            throw new IllegalStateException("Not available in script-free mode");
+        }
+        this.visibilityPolicy = policy;
+        callInstanceMethod("setVisibilityPolicy(\"%s\")".formatted(policy.name().toLowerCase(Locale.ROOT)));
+    }
+
+    /**
+     * Is the tab also considered hidden when the browser window loses
+     * focus.
+     *
+     * @return true, if losing focus hides the tab.
+     */
+    public boolean isHideOnBlur() {
+        return hideOnBlur;
+    }
+
+    /**
+     * Consider the tab hidden also when the browser window loses focus,
+     * for example when the user switches to another application. Regaining
+     * focus counts as user activity.
+     *
+     * @param hideOnBlur true, if losing focus hides the tab.
+     */
+    public void setHideOnBlur(boolean hideOnBlur) {
+        this.hideOnBlur = hideOnBlur;
+        callInstanceMethod("setHideOnBlur(%b)".formatted(hideOnBlur));
+    }
+
+    /**
+     * Is the browser tab visible.
+     * <p>
+     * The visibility is only known on the server if visibility listeners
+     * are attached.
+     *
+     * @return true, if the tab is visible.
+     */
+    public boolean isPageVisible() {
+        return pageVisible;
+    }
+
+    /**
+     * Adds a listener invoked immediately when the browser tab is hidden or
+     * shown again.
+     *
+     * @param listener The Listener to be added.
+     * @return A registration object for removing the listener.
+     */
+    public Registration addVisibilityListener(VisibilityListener listener) {
+        visibilityListeners.add(listener);
+        callInstanceMethod("setReportVisibility(true)");
+        updateDomListeners();
+        return () -> {
+            visibilityListeners.remove(listener);
+            callInstanceMethod("setReportVisibility(%b)".formatted(!visibilityListeners.isEmpty()));
+            updateDomListeners();
+        };
+    }
+
+    /**
+     * Invoked when the client reports the tab hidden or visible.
+     *
+     * @param visible true, if the tab is visible
+     */
+    private void clientVisibility(boolean visible) {
+        if (pageVisible == visible) {
+            return;
+        }
+        pageVisible = visible;
+        invokeListeners(visibilityListeners, new VisibilityEvent(this, visible),
+                VisibilityListener::visibilityChanged);
+    }
+
+    /**
+     * Time the user must stay inactive before the registered
+     * {@link Hibernatable}s are hibernated.
+     *
+     * @return Threshold in milliseconds, or 0 if hibernation is disabled.
+     */
+    public long getHibernationThreshold() {
+        return hibernation.getThreshold();
+    }
+
+    /**
+     * Hibernate the registered {@link Hibernatable}s when the user has been
+     * inactive for the given time, counted from the user becoming
+     * inactive. Their state is serialized to the
+     * {@link #getHibernationStore() hibernation store} and restored when
+     * the user becomes active again, before the {@link UserActiveListener}s
+     * are invoked.
+     * <p>
+     * The threshold is enforced by the shared timing wheel and may be
+     * exceeded by up to one tick. Disabling hibernation restores any
+     * hibernated state immediately.
+     *
+     * @param thresholdMs Threshold in milliseconds, or 0 to disable.
+     */
+    public void setHibernationThreshold(long thresholdMs) {
+        hibernation.setThreshold(thresholdMs);
+        updateDomListeners();
+    }
+
+    /**
+     * Store for the hibernated state.
+     *
+     * @return Current store
+     */
+    public HibernationStore getHibernationStore() {
+        return hibernation.getStore();
+    }
+
+    /**
+     * Sets the store for the hibernated state. By default, the state is
+     * kept in direct buffers outside the Java heap.
+     *
+     * @param store New store
+     * @throws IllegalStateException If there is currently hibernated state
+     * @see HibernationStore#offHeap()
+     * @see HibernationStore#directory(java.nio.file.Path)
+     */
+    public void setHibernationStore(HibernationStore store) {
+        hibernation.setStore(store);
+    }
+
+    /**
+     * Is any registered {@link Hibernatable} currently hibernated.
+     *
+     * @return true, if hibernated
+     */
+    public boolean isHibernated() {
+        return hibernation.isHibernated();
+    }
+
+    /**
+     * Size of the state currently moved to the hibernation store. This is
+     * the serialized size, which is usually smaller than the heap released
+     * by the {@link Hibernatable}s.
+     *
+     * @return Number of bytes, or 0 if not hibernated
+     */
+    public long getReclaimedBytes() {
+        return hibernation.getReclaimedBytes();
+    }
+
+    /**
+     * Adds an object to hibernate while the user is inactive. Removing the
+     * registration restores the object first, if it is hibernated.
+     *
+     * @param hibernatable Object to hibernate
+     * @return A registration object for removing the hibernatable.
+     * @see #setHibernationThreshold(long)
+     */
+    public Registration addHibernatable(Hibernatable hibernatable) {
+        Objects.requireNonNull(hibernatable, "Hibernatable must not be null");
+        hibernation.add(hibernatable);
+        return () -> hibernation.remove(hibernatable);
+    }
+
+    /**
+     * Hibernates an object with the UI the component is attached to.
+     * <p>
+     * The object is added to the Idle instance of the UI whenever the
+     * component is attached, and restored and removed when it is detached.
+     * This keeps the registration working for views annotated with
+     * {@code @PreserveOnRefresh}, which are moved to a new UI on reload.
+     * The new UI must be tracked by the time the attach request is
+     * answered.
+     *
+     * @param component    Component whose UI to follow
+     * @param hibernatable Object to hibernate
+     * @return A registration object for removing the binding.
+     */
+    public static Registration bindHibernatable(Component component, Hibernatable hibernatable) {
+        Objects.requireNonNull(component, "Component must not be null");
+        Objects.requireNonNull(hibernatable, "Hibernatable must not be null");
+        return new HibernatableBinding(component, hibernatable);
+    }
+
+    /**
+     * Poll interval used while the user is inactive.
+     *
+     * @return Interval in milliseconds, negative if polling is stopped, or
+     * 0 if the poll interval is not changed.
+     */
+    public int getInactivePollInterval() {
+        return push.getInactivePollInterval();
+    }
+
+    /**
+     * Slow down or stop {@link UI#setPollInterval(int) polling} while the
+     * user is inactive. The original interval is restored when the user
+     * becomes active, unless the application has changed it in between.
+     * Polling is never made more frequent, and UIs that do not poll are
+     * not affected.
+     *
+     * @param intervalMs Interval in milliseconds, negative to stop polling,
+     *                   or 0 to keep the poll interval unchanged.
+     */
+    public void setInactivePollInterval(int intervalMs) {
+        push.setInactivePollInterval(intervalMs);
+        updateDomListeners();
+    }
+
+    /**
+     * Interval of pushing UI changes while the user is inactive.
+     *
+     * @return Interval in milliseconds, or 0 if push is not throttled.
+     */
+    public long getPushThrottleInterval() {
+        return push.getThrottleInterval();
+    }
+
+    /**
+     * Throttle server push while the user is inactive. Instead of pushing
+     * after every {@link UI#access}, the changes are collected and pushed
+     * in one batch per interval. Only applies to UIs using
+     * {@link PushMode#AUTOMATIC}, which are switched to
+     * {@link PushMode#MANUAL} while the user is inactive. Pending changes
+     * are pushed when the user becomes active.
+     *
+     * @param intervalMs Interval in milliseconds, or 0 to disable.
+     */
+    public void setPushThrottleInterval(long intervalMs) {
+        push.setThrottleInterval(intervalMs);
+        updateDomListeners();
+    }
+
+    /**
+     * Time the user must stay inactive before the push connection of the
+     * UI is released.
+     *
+     * @return Threshold in milliseconds, or 0 if push is never released.
+     */
+    public long getPushReleaseThreshold() {
+        return push.getReleaseThreshold();
+    }
+
+    /**
+     * Release the push connection when the user has been inactive for the
+     * given time, counted from the user becoming inactive. This frees the
+     * websocket and its server-side resources for UIs that are left open.
+     * <p>
+     * Push is disabled for the UI, and the browser closes the connection
+     * after receiving the pending changes. While released, changes are
+     * kept on the server. When the user becomes active, the original push
+     * mode is restored and the browser reconnects after receiving the
+     * changes in the response. Heartbeats continue as usual, so the UI is
+     * not closed.
+     *
+     * @param thresholdMs Threshold in milliseconds, or 0 to disable.
+     */
+    public void setPushReleaseThreshold(long thresholdMs) {
+        push.setReleaseThreshold(thresholdMs);
+        updateDomListeners();
+    }
+
+    /**
+     * Is the push connection currently released because the user is
+     * inactive.
+     *
+     * @return true, if released
+     */
+    public boolean isPushReleased() {
+        return push.isReleased();
+    }
+
+    /**
+     * Releases or restores the resources depending on the user state. Does
+     * nothing if they are already adapted to the state, so that the poll
+     * and push configuration is changed once per transition.
+     *
+     * @param active New user state
+     */
+    private void adaptToUserState(boolean active) {
+        if (active == adaptedActive) {
+            return;
+        }
+        adaptedActive = active;
+        hibernation.update(active);
+        push.update(active);
+    }
+
+    /**
+     * State the resources are currently adapted to. Differs from the user
+     * state while a return to the previous state is coalesced.
+     *
+     * @return true, if adapted to an active user
+     */
+    boolean isAdaptedActive() {
+        return adaptedActive;
+    }
+
+    /**
+     * Interval of sending activity telemetry from the browser.
+     *
+     * @return Interval in milliseconds, or 0 if telemetry is disabled.
+     */
+    public long getTelemetryInterval() {
+        return telemetryInterval;
+    }
+
+    /**
+     * Collect activity telemetry in the browser and send it to the server
+     * periodically.
+     * <p>
+     * The browser records active time and input counts per source in
+     * buckets of {@link #getTelemetryResolution()} milliseconds, and sends
+     * the collected buckets as one event at the given interval, or
+     * together with the next state change. Nothing is sent when there is
+     * nothing new to report. The history is available from
+     * {@link #getTelemetry()}.
+     *
+     * @param intervalMs Interval in milliseconds, or 0 to disable.
+     */
+    public void setTelemetryInterval(long intervalMs) {
+        this.telemetryInterval = intervalMs >= 0 ? intervalMs : 0;
+        if (telemetryInterval > 0 && telemetry == null) {
+            telemetry = new ActivityTelemetry(telemetryResolution, telemetryCapacity);
+        }
+        callInstanceMethod("setTelemetry(%d, %d)".formatted(telemetryInterval, telemetryResolution));
+        updateDomListeners();
+    }
+
+    /**
+     * Length of a telemetry bucket.
+     *
+     * @return Bucket length in milliseconds
+     */
+    public long getTelemetryResolution() {
+        return telemetryResolution;
+    }
+
+    /**
+     * Sets the length of a telemetry bucket. Default is one minute.
+     * Changing the resolution clears the collected history.
+     *
+     * @param resolutionMs Bucket length in milliseconds
+     */
+    public void setTelemetryResolution(long resolutionMs) {
+        if (resolutionMs < 1000) {
+            throw new IllegalArgumentException("Resolution must be at least one second");
+        }
+        this.telemetryResolution = resolutionMs;
+        resetTelemetry();
+    }
+
+    /**
+     * Number of telemetry buckets kept on the server.
+     *
+     * @return Maximum number of buckets
+     */
+    public int getTelemetryCapacity() {
+        return telemetryCapacity;
+    }
+
+    /**
+     * Sets the number of telemetry buckets kept on the server. When full,
+     * the oldest bucket is dropped. Default is 60, one hour with the
+     * default resolution. Changing the capacity clears the collected
+     * history.
+     *
+     * @param capacity Maximum number of buckets
+     */
+    public void setTelemetryCapacity(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.telemetryCapacity = capacity;
+        resetTelemetry();
+    }
+
+    /**
+     * Gets the activity history reported by the browser.
+     *
+     * @return Activity history, or {@code null} if telemetry has not been
+     * enabled.
+     * @see #setTelemetryInterval(long)
+     */
+    public ActivityTelemetry getTelemetry() {
+        return telemetry;
+    }
+
+    private void resetTelemetry() {
+        if (telemetry != null) {
+            telemetry = new ActivityTelemetry(telemetryResolution, telemetryCapacity);
+        }
+        callInstanceMethod("setTelemetry(%d, %d)".formatted(telemetryInterval, telemetryResolution));
+    }
+
+    /**
+     * Invoked when the client sends a batch of telemetry.
+     *
+     * @param batch Encoded batch
+     */
+    private void telemetryReceived(JsonValue batch) {
+        ActivityTelemetry telemetry = this.telemetry;
+        if (telemetry != null && batch instanceof JsonArray array) {
+            telemetry.add(array);
+        }
+    }
+
+    /**
+     * Gets the executor used for invoking the listeners.
+     *
+     * @return Listener executor, or {@code null} if listeners are invoked
+     * directly.
+     * @see #setListenerExecutor(Executor)
+     */
+    public Executor getListenerExecutor() {
+        return listenerExecutor;
+    }
+
+    /**
+     * Sets the executor used for invoking the user active and inactive
+     * listeners.
+     * <p>
+     * By default, listeners are invoked one after another on the request
+     * thread, with the session locked. With an executor, each listener is
+     * submitted as a separate task and the request thread returns
+     * immediately. An exception thrown by a listener is logged and does
+     * not affect the other listeners.
+     * <p>
+     * Asynchronous listeners run without the session lock. Use
+     * {@link IdleEvent#getUI()} and {@link UI#access(Command)} to update
+     * the UI.
+     *
+     * @param executor Executor for the listeners, or {@code null} to invoke
+     *                 listeners directly.
+     * @see #setAsyncDispatch(boolean)
+     */
+    public void setListenerExecutor(Executor executor) {
+        this.listenerExecutor = executor;
+    }
+
+    /**
+     * Is asynchronous listener dispatch enabled.
+     *
+     * @return true, if listeners are invoked using an executor.
+     */
+    public boolean isAsyncDispatch() {
+        return listenerExecutor != null;
+    }
+
+    /**
+     * Enables asynchronous listener dispatch with the default executor. On
+     * Java 21 and later each listener is run in a new virtual thread,
+     * otherwise in a shared pool of daemon threads.
+     *
+     * @param async true, to invoke listeners asynchronously.
+     * @see #setListenerExecutor(Executor)
+     */
+    public void setAsyncDispatch(boolean async) {
+        setListenerExecutor(async ? DefaultExecutor.INSTANCE : null);
+    }
+
+    /**
+     * Invoked when the client reports the user active.
+     */
+    private void clientActive() {
+        presence.extendServerTimeout();
+        if (isStateTracked() && isReportedActive()) {
+            // Already reported by an activity report or another tab
+            return;
+        }
+        userStateChanged(true);
+    }
+
+    /**
+     * Invoked when the client periodically reports user activity.
+     */
+    private void clientActivity() {
+        presence.extendServerTimeout();
+        SessionActivity activity = getSessionActivity();
+        if (activity != null) {
+            activity.forEachOther(this, other -> other.presence.extendServerTimeout());
+        }
+        if (!isReportedActive()) {
+            setTransitionDetails(null);
+            userStateChanged(true);
+        }
+    }
+
+    /**
+     * Invoked when the client reports the user inactive.
+     */
+    private void clientInactive() {
+        if (isStateTracked() && !isReportedActive()) {
+            // Already reported by server-side timeout or another tab
+            return;
+        }
+        userStateChanged(false);
+    }
+
+    /**
+     * Invoked with the session locked when the server decides that the
+     * user is inactive, on the server timeout or on the request timeout of
+     * the script-free mode.
+     */
+    void serverInactive() {
+        setTransitionDetails(null);
+        userStateChanged(false);
+    }
+
+    /**
+     * Invoked with the session locked when a request arrives from an
+     * inactive user in script-free mode.
+     */
+    void requestActivity() {
+        if (presence.extendRequestTimeout()) {
+            setTransitionDetails(null);
+            userStateChanged(true);
+        }
+    }
+
+    /**
+     * Stores the details sent by the client with a state change, or clears
+     * them for a change decided on the server.
+     *
+     * @param data Event data of the client event, or {@code null}
+     */
+    private void setTransitionDetails(JsonObject data) {
+        lastActivity = data != null && data.hasKey(LAST_ACTIVITY_DATA)
+                ? Instant.ofEpochMilli((long) data.getNumber(LAST_ACTIVITY_DATA)) : null;
+        idleDuration = data != null && data.hasKey(IDLE_TIME_DATA)
+                ? Duration.ofMillis((long) data.getNumber(IDLE_TIME_DATA)) : null;
+        int source = data != null && data.hasKey(SOURCE_DATA) ? (int) data.getNumber(SOURCE_DATA) : -1;
+        ActivitySource[] sources = ActivitySource.values();
+        activitySource = source >= 0 && source < sources.length ? sources[source] : null;
+    }
+
+    /**
+     * Invoked when the user state changes on the server, either reported
+     * by the client or decided by the server-side timeout.
+     *
+     * @param active New user state
+     */
+    private void userStateChanged(boolean active) {
+        if (eventCoalescing > 0) {
+            if (active) {
+                // Restore without waiting for the coalescing window
+                adaptToUserState(true);
+            }
+            coalescedActive = active;
+            if (coalescingTimer == null) {
+                scheduleCoalescing();
+            }
+            return;
+        }
+        applyUserState(active);
+    }
+
+    private void scheduleCoalescing() {
+        TimingWheel wheel = TimingWheel.shared();
+        coalescingTimer = wheel.schedule(wheel.now() + eventCoalescing,
+                () -> access(this::coalescingExpired));
+    }
+
+    /**
+     * Invoked when the coalescing window has passed.
+     */
+    private void coalescingExpired() {
+        coalescingTimer = null;
+        if (coalescedActive != userActive) {
+            applyUserState(coalescedActive);
+        } else if (adaptedActive != userActive) {
+            // Restored early, but the user returned to the reported state
+            adaptToUserState(userActive);
+        }
+    }
+
+    /**
+     * Last state received, including a change still waiting for the
+     * coalescing window.
+     *
+     * @return true, if the user was last reported active
+     */
+    boolean isReportedActive() {
+        return coalescingTimer != null ? coalescedActive : userActive;
+    }
+
+    /**
+     * Updates the user state and invokes the listeners. In cross-tab mode,
+     * the state is shared with the other UIs of the session.
+     *
+     * @param active New user state
+     */
+    private void applyUserState(boolean active) {
+        setUserActive(active);
+        adaptToUserState(active);
+        if (active) {
+            fireUserActive();
+        } else {
+            fireUserInactive();
+        }
+        SessionActivity activity = getSessionActivity();
+        if (activity != null) {
+            activity.setActive(active);
+            activity.forEachOther(this, other -> other.sharedUserState(active, this));
+        }
+    }
+
+    private void setUserActive(boolean active) {
+        userActive = active;
+        coalescedActive = active;
+        presence.update(active);
+    }
+
+    /**
+     * Invoked when the reporting tab of the session changes the user state.
+     *
+     * @param active   New user state
+     * @param reporter Instance of the reporting tab
+     */
+    private void sharedUserState(boolean active, Idle reporter) {
+        UI ui = this.ui.get();
+        if (ui == null) {
+            return;
+        }
+        ui.accessSynchronously(() -> {
+            presence.extendServerTimeout();
+            if (userActive != active) {
+                lastActivity = reporter.lastActivity;
+                idleDuration = reporter.idleDuration;
+                activitySource = reporter.activitySource;
+                setUserActive(active);
+                adaptToUserState(active);
+                if (active) {
+                    fireUserActive();
+                } else {
+                    fireUserInactive();
+                }
+            }
+        });
+    }
+
+    /**
+     * Gets the shared session state, if in cross-tab mode.
+     *
+     * @return Session state or {@code null}
+     */
+    private SessionActivity getSessionActivity() {
+        UI ui = this.ui.get();
+        if (!crossTab || ui == null || ui.getSession() == null) {
+            return null;
+        }
+        return SessionActivity.get(ui.getSession(), true);
+    }
+
+    /**
+     * Runs the command with the UI locked. Used for tasks invoked from the
+     * timing wheel thread.
+     *
+     * @param command Command to run
+     */
+    void access(Command command) {
+        UI ui = this.ui.get();
+        if (ui == null) {
+            return;
+        }
+        try {
+            ui.access(command);
+        } catch (UIDetachedException e) {
+            // UI was closed, and this instance is untracked on detach
+        }
+    }
+
+    /**
+     * Is the user state kept on the server regardless of listeners. This is
+     * needed for the server-side timeout, cross-tab mode and for adapting
+     * resources to the user state.
+     *
+     * @return true, if the state is always tracked.
+     */
+    private boolean isStateTracked() {
+        return presence.getServerTimeout() > 0 || crossTab || scriptFree
+                || hibernation.getThreshold() > 0 || push.isEnabled();
+    }
+
+    /**
+     * Attaches or removes the DOM event listeners depending on what is
+     * needed by the server-side listeners and the server-side timeout.
+     */
+    private void updateDomListeners() {
+        UI ui = this.ui.get();
+        boolean tracking = ui != null && !scriptFree;
+        boolean stateTracked = tracking && isStateTracked();
+
+        activeDomListener = updateDomListener(ui, activeDomListener,
+                stateTracked || (tracking && !activeListeners.isEmpty()),
+                "user-active", LAST_ACTIVITY_DATA, IDLE_TIME_DATA, SOURCE_DATA);
+        inactiveDomListener = updateDomListener(ui, inactiveDomListener,
+                stateTracked || (tracking && !inactiveListeners.isEmpty()),
+                "user-inactive", LAST_ACTIVITY_DATA, IDLE_TIME_DATA);
+        activityDomListener = updateDomListener(ui, activityDomListener,
+                tracking && presence.getServerTimeout() > 0,
+                "user-activity");
+        hiddenDomListener = updateDomListener(ui, hiddenDomListener,
+                tracking && !visibilityListeners.isEmpty(),
+                "user-hidden");
+        visibleDomListener = updateDomListener(ui, visibleDomListener,
+                tracking && !visibilityListeners.isEmpty(),
+                "user-visible");
+        levelDomListener = updateDomListener(ui, levelDomListener,
+                tracking && levels.length > 0 && !levelListeners.isEmpty(),
+                "user-level", LEVEL_DATA);
+        telemetryDomListener = updateDomListener(ui, telemetryDomListener,
+                tracking && telemetryInterval > 0,
+                "idle-telemetry", TELEMETRY_DATA);
+    }
+
+    private DomListenerRegistration updateDomListener(UI ui,
+            DomListenerRegistration registration, boolean needed,
+            String eventType, String... eventData) {
+        if (needed && registration == null) {
+            if (clientEvents == null) {
+                clientEvents = new ClientEventListener(this);
+            }
+            DomListenerRegistration added = ui.getElement().addEventListener(eventType, clientEvents);
+            for (String data : eventData) {
+                added.addEventData(data);
+            }
+            return added;
+        }
+        if (!needed && registration != null) {
+            registration.remove();
+            return null;
+        }
+        return registration;
+    }
+
+    /**
+     * Number of user active and inactive listeners in this instance.
+     *
+     * @return Number of listeners
+     */
+    public int getListenerCount() {
+        return activeListeners.size() + inactiveListeners.size() + levelListeners.size()
+                + visibilityListeners.size();
+    }
+
+    /**
+     * Fires an {@link UserActiveEvent}.
+     */
+    protected void fireUserActive() {
+        metrics.userActive();
+        dispatch(true, activeListeners,
+                new UserActiveEvent(this, lastActivity, idleDuration, activitySource),
+                UserActiveListener::userActive);
+    }
+
+    /**
+     * Adds the user active listener.
+     *
+     * @param listener the Listener to be added.
+     * @return A registration object for removing the listener.
+     * @see Registration
+     */
+    public Registration addUserActiveListener(UserActiveListener listener) {
+        activeListeners.add(listener);
+
+        // Attach DOM event listener
+        updateDomListeners();
+        return () -> {
+            activeListeners.remove(listener);
+            // Remove DOM event listener
+            updateDomListeners();
+        };
+    }
+
+    /**
+     * Fires an {@link UserInactiveEvent}.
+     */
+    protected void fireUserInactive() {
+        metrics.userInactive();
+        dispatch(false, inactiveListeners,
+                new UserInactiveEvent(this, lastActivity, idleDuration),
+                UserInactiveListener::userInactive);
+    }
+
+    /**
+     * Invokes the user active or inactive listeners and records metrics.
+     *
+     * @param active    true, for user active listeners
+     * @param listeners Listeners to invoke
+     * @param event     Event to deliver
+     * @param invoker   Invokes a single listener
+     */
+    private <L, E extends IdleEvent> void dispatch(boolean active, List<L> listeners,
+            E event, BiConsumer<L, E> invoker) {
+        IdleMetrics metrics = Idle.metrics;
+        if (metrics == IdleMetrics.NOOP) {
+            invokeListeners(listeners, event, invoker, null);
+            return;
+        }
+        List<L> snapshot = List.copyOf(listeners);
+        if (listenerExecutor == null || snapshot.isEmpty()) {
+            long start = System.nanoTime();
+            invokeListeners(snapshot, event, invoker, null);
+            metrics.listenersDispatched(active, snapshot.size(), System.nanoTime() - start);
+        } else {
+            // Timed in the tasks, as only submitting is done here
+            invokeListeners(snapshot, event, invoker, new DispatchTiming(metrics, active, snapshot.size()));
+        }
+    }
+
+    /**
+     * Invokes the listeners, either directly or using the listener
+     * executor.
+     *
+     * @param listeners Listeners to invoke
+     * @param event     Event to deliver
+     * @param invoker   Invokes a single listener
+     */
+    private <L, E extends IdleEvent> void invokeListeners(List<L> listeners,
+            E event, BiConsumer<L, E> invoker) {
+        invokeListeners(listeners, event, invoker, null);
+    }
+
+    /**
+     * Invokes the listeners, either directly or using the listener
+     * executor.
+     *
+     * @param listeners Listeners to invoke
+     * @param event     Event to deliver
+     * @param invoker   Invokes a single listener
+     * @param timing    Records the time spent in asynchronously invoked
+     *                  listeners, or null
+     */
+    private <L, E extends IdleEvent> void invokeListeners(List<L> listeners,
+            E event, BiConsumer<L, E> invoker, DispatchTiming timing) {
+        Executor executor = listenerExecutor;
+        if (executor == null) {
+            listeners.forEach(l -> invoker.accept(l, event));
+        } else {
+            for (L listener : listeners) {
+                try {
+                    executor.execute(() -> {
+                        long start = timing != null ? System.nanoTime() : 0;
+                        try {
+                            invoker.accept(listener, event);
+                        } catch (RuntimeException e) {
+                            LoggerFactory.getLogger(Idle.class)
+                                    .error("Idle listener failed", e);
+                        } finally {
+                            if (timing != null) {
+                                timing.completed(System.nanoTime() - start);
+                            }
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    LoggerFactory.getLogger(Idle.class)
+                            .warn("Idle listener was rejected by the executor", e);
+                    if (timing != null) {
+                        timing.completed(0);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the user inactive listener.
+     *
+     * @param listener The Listener to be added.
+     * @return A registration object for removing the listener.
+     * @see Registration
+     */
+    public Registration addUserInactiveListener(UserInactiveListener listener) {
+        inactiveListeners.add(listener);
+
+        // Attach DOM event listener
+        updateDomListeners();
+        return () -> {
+            inactiveListeners.remove(listener);
+            // Remove DOM event listener
+            updateDomListeners();
+        };
+
+    }
+
+    /** Stop tracking the UI.
+     * <p>
+     * This is done automatically when the UI is detached.
+     */
+    public void untrackUI() {
+        UI ui = this.ui.get();
+        if (ui == null) {
+            return;
+        }
+        callInstanceMethod("unregister()");
+        if (detachListener != null) {
+            detachListener.remove();
+            detachListener = null;
+        }
+        if (coalescingTimer != null) {
+            coalescingTimer.cancel();
+            coalescingTimer = null;
+        }
+        if (pollListener != null) {
+            pollListener.remove();
+            pollListener = null;
+            if (ui.getSession() != null) {
+                RequestActivity.unregister(ui.getSession(), ui.getUIId());
+            }
+        }
+        if (ui.getSession() != null) {
+            if (crossTab) {
+                SessionActivity.get(ui.getSession(), true).leave(this);
+            }
+            SessionBinding.leave(ui.getSession(), this);
+        }
+        // The UI and components may be reused
+        adaptToUserState(true);
+        hibernation.clear();
+        untrackCommands.forEach(Command::execute);
+        untrackCommands.clear();
+        // Drop everything that refers back to application code, so an
+        // instance that is still referenced elsewhere does not retain it
+        activeListeners.clear();
+        inactiveListeners.clear();
+        levelListeners.clear();
+        visibilityListeners.clear();
+        telemetry = null;
+        if (REGISTRY.remove(ui, this)) {
+            metrics.uiUntracked();
+        }
+        ComponentUtil.setData(ui, Idle.class, null);
+        presence.stop();
+        this.ui.clear();
+        updateDomListeners();
+    }
+
+    /**
+     * Stops tracking all UIs of a destroyed session.
+     *
+     * @param session Destroyed session
+     */
+    static void sessionDestroyed(VaadinSession session) {
+        for (UI ui : List.copyOf(session.getUIs())) {
+            Idle idle = REGISTRY.get(ui);
+            if (idle != null) {
+                idle.untrackUI();
+            }
+        }
+        RequestActivity.sessionDestroyed(session);
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeByte(SERIAL_FORMAT);
+        out.writeObject(ui.get());
+        out.writeBoolean(scriptFree);
+        out.writeBoolean(userActive);
+        out.writeBoolean(coalescedActive);
+        out.writeBoolean(adaptedActive);
+        out.writeLong(timeout);
+        out.writeBoolean(updateCssClass);
+        out.writeBoolean(workerTimer);
+        int sourceMask = 0;
+        for (ActivitySource source : activitySources) {
+            sourceMask |= 1 << source.ordinal();
+        }
+        out.writeInt(sourceMask);
+        out.writeLong(minimumDwellTime);
+        out.writeInt(reactivationEvents);
+        out.writeLong(reactivationTime);
+        out.writeLong(eventCoalescing);
+        out.writeBoolean(crossTab);
+        out.writeLong(telemetryInterval);
+        out.writeLong(telemetryResolution);
+        out.writeInt(telemetryCapacity);
+        out.writeObject(levels);
+        out.writeInt(level);
+        out.writeObject(visibilityPolicy);
+        out.writeBoolean(hideOnBlur);
+        out.writeBoolean(pageVisible);
+        presence.write(out);
+        hibernation.write(out);
+        push.write(out);
+        out.writeBoolean(listenerExecutor == DefaultExecutor.INSTANCE);
+        out.writeObject(listenerExecutor instanceof Serializable ? listenerExecutor : null);
+        out.writeObject(persistent(activeListeners));
+        out.writeObject(persistent(inactiveListeners));
+        out.writeObject(persistent(levelListeners));
+        out.writeObject(persistent(visibilityListeners));
+        // The DOM listeners stay registered with the UI, which is written too
+        out.writeObject(new Registration[]{activeDomListener, inactiveDomListener,
+                activityDomListener, telemetryDomListener, levelDomListener,
+                hiddenDomListener, visibleDomListener, detachListener, pollListener});
+        out.writeObject(flushScheduled ? new LinkedHashMap<>(pendingCalls) : null);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        int format = in.readByte();
+        if (format != SERIAL_FORMAT) {
+            throw new InvalidObjectException("Unsupported Idle format " + format);
+        }
+        ui = new WeakReference<>((UI) in.readObject());
+        scriptFree = in.readBoolean();
+        userActive = in.readBoolean();
+        coalescedActive = in.readBoolean();
+        adaptedActive = in.readBoolean();
+        timeout = in.readLong();
+        updateCssClass = in.readBoolean();
+        workerTimer = in.readBoolean();
+        int sourceMask = in.readInt();
+        activitySources = EnumSet.noneOf(ActivitySource.class);
+        for (ActivitySource source : ActivitySource.values()) {
+            if ((sourceMask & 1 << source.ordinal()) != 0) {
+                activitySources.add(source);
+            }
+        }
+        minimumDwellTime = in.readLong();
+        reactivationEvents = in.readInt();
+        reactivationTime = in.readLong();
+        eventCoalescing = in.readLong();
+        crossTab = in.readBoolean();
+        telemetryInterval = in.readLong();
+        telemetryResolution = in.readLong();
+        telemetryCapacity = in.readInt();
+        levels = (long[]) in.readObject();
+        level = in.readInt();
+        visibilityPolicy = (VisibilityPolicy) in.readObject();
+        hideOnBlur = in.readBoolean();
+        pageVisible = in.readBoolean();
+        presence = new PresenceTracker(this);
+        presence.read(in);
+        hibernation = new HibernationController(this);
+        hibernation.read(in);
+        push = new PushAdapter(this);
+        push.read(in);
+        boolean defaultExecutor = in.readBoolean();
+        listenerExecutor = (Executor) in.readObject();
+        if (defaultExecutor) {
+            listenerExecutor = DefaultExecutor.INSTANCE;
+        }
+        activeListeners = new CopyOnWriteArrayList<>((List<UserActiveListener>) readList(in));
+        inactiveListeners = new CopyOnWriteArrayList<>((List<UserInactiveListener>) readList(in));
+        levelListeners = new CopyOnWriteArrayList<>((List<UserLevelListener>) readList(in));
+        visibilityListeners = new CopyOnWriteArrayList<>((List<VisibilityListener>) readList(in));
+        Registration[] registrations = (Registration[]) in.readObject();
+        activeDomListener = (DomListenerRegistration) registrations[0];
+        inactiveDomListener = (DomListenerRegistration) registrations[1];
+        activityDomListener = (DomListenerRegistration) registrations[2];
+        telemetryDomListener = (DomListenerRegistration) registrations[3];
+        levelDomListener = (DomListenerRegistration) registrations[4];
+        hiddenDomListener = (DomListenerRegistration) registrations[5];
+        visibleDomListener = (DomListenerRegistration) registrations[6];
+        detachListener = registrations[7];
+        pollListener = registrations[8];
+        Map<String, String> pending = (Map<String, String>) in.readObject();
+        pendingCalls = pending != null ? pending : new LinkedHashMap<>();
+        flushScheduled = pending != null;
+        clientState = new HashMap<>();
+        untrackCommands = new CopyOnWriteArrayList<>();
+        if (telemetryInterval > 0) {
+            telemetry = new ActivityTelemetry(telemetryResolution, telemetryCapacity);
+        }
+        // Tracked again on first use, as a copy of the session may never
+        // serve a request on this node
+    }
+
+    private static List<?> readList(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        return Arrays.asList((Object[]) in.readObject());
+    }
+
+    /**
+     * Tracks the UI again when a deserialized session is first used on
+     * this node, or after the session has been activated again.
+     *
+     * @see #release()
+     * @see SessionBinding
+     */
+    void rebind() {
+        UI ui = this.ui.get();
+        if (ui == null || REGISTRY.putIfAbsent(ui, this) != null) {
+            return;
+        }
+        hibernation.load();
+        presence.resume(userActive);
+        VaadinSession session = ui.getSession();
+        if (session != null) {
+            SessionBinding.join(session, this);
+            if (scriptFree) {
+                RequestActivity.register(session, ui.getUIId());
+            }
+            if (crossTab) {
+                SessionActivity.get(session, true).join(this);
+            }
+        }
+        if (coalescedActive != userActive || adaptedActive != userActive) {
+            // Written during the coalescing window
+            scheduleCoalescing();
+        }
+        if (!adaptedActive) {
+            hibernation.schedule();
+            push.resume();
+        }
+        metrics.uiTracked();
+    }
+
+    /**
+     * Removes this instance from the static registries and cancels its
+     * timers, without changing the UI or the client. Used when the
+     * container writes the session out or drops it, so that nothing static
+     * keeps the session in memory. Hibernated state is moved out of the
+     * store, to be written with the session.
+     *
+     * @see #rebind()
+     * @see SessionBinding
+     */
+    void release() {
+        UI ui = this.ui.get();
+        if (ui == null || !REGISTRY.remove(ui, this)) {
+            return;
+        }
+        presence.stop();
+        if (coalescingTimer != null) {
+            coalescingTimer.cancel();
+            coalescingTimer = null;
+        }
+        hibernation.cancel();
+        hibernation.unload();
+        push.cancel();
+        VaadinSession session = ui.getSession();
+        if (session != null) {
+            if (scriptFree) {
+                RequestActivity.unregister(session, ui.getUIId());
+            }
+            if (crossTab) {
+                SessionActivity.get(session, true).leave(this);
+            }
+        }
+        metrics.uiUntracked();
+    }
+
+    /**
+     * Releases this instance for good, when its session is dropped without
+     * being destroyed. The UI no longer refers to this instance.
+     */
+    void discard() {
+        release();
+        UI ui = this.ui.get();
+        if (ui != null) {
+            ComponentUtil.setData(ui, Idle.class, null);
+        }
+    }
+
+    /**
+     * Listeners to write to the serialized form, leaving out the
+     * {@link NodeLocal} ones.
+     */
+    private static Object[] persistent(List<?> listeners) {
+        return listeners.stream().filter(listener -> !(listener instanceof NodeLocal)).toArray();
+    }
+
+    /**
+     * Adds a command to run when this instance stops tracking the UI.
+     *
+     * @param command Command to run
+     * @return A registration object for removing the command.
+     */
+    Registration addUntrackCommand(Command command) {
+        untrackCommands.add(command);
+        return () -> untrackCommands.remove(command);
+    }
+
+    /**
+     * Marks a listener that belongs to the objects of this server node,
+     * such as a {@link Presence}. It is left out of the serialized form,
+     * like the commands run on untrack.
+     */
+    interface NodeLocal {
+    }
+
+    /**
+     * Listener interface for user activity status changes to active.
+     */
+    @FunctionalInterface
+    public interface UserActiveListener extends Serializable {
+
+        /**
+         * Invoked when user becomes active.
+         *
+         * @param event Event
+         * @see Idle#setTimeout(long)
+         */
+        void userActive(UserActiveEvent event);
+
+    }
+
+
+    /**
+     * Listener interface for user activity status changes to inactive.
+     */
+    @FunctionalInterface
+    public interface UserInactiveListener extends Serializable {
+
+        /**
+         * Invoked when user goes inactive based on timeout period.
+         *
+         * @param event Event
+         * @see Idle#setTimeout(long)
+         */
+        void userInactive(UserInactiveEvent event);
+
+    }
+
+    /**
+     * Listener interface for idle level changes.
+     */
+    @FunctionalInterface
+    public interface UserLevelListener extends Serializable {
+
+        /**
+         * Invoked when the idle level of the user changes.
+         *
+         * @param event Event
+         * @see Idle#setIdleLevels(long...)
+         */
+        void userLevelChanged(UserLevelEvent event);
+
+    }
+
+    /**
+     * Listener interface for browser tab visibility changes.
+     */
+    @FunctionalInterface
+    public interface VisibilityListener extends Serializable {
+
+        /**
+         * Invoked when the browser tab is hidden or shown.
+         *
+         * @param event Event
+         * @see Idle#addVisibilityListener(VisibilityListener)
+         */
+        void visibilityChanged(VisibilityEvent event);
+
+    }
+
+    /**
+     * Basic Idle add-on event
+     */
+    public static class IdleEvent extends EventObject {
+
+        private final transient UI ui;
+
+        /**
+         * New instance of idle event.
+         *
+         * @param idle The source of the event.
+         */
+        public IdleEvent(Idle idle) {
+            super(idle);
+            this.ui = idle.ui.get();
+        }
+
+        /**
+         * Gets the UI where the user state changed. Asynchronous listeners
+         * can use this with {@link UI#access(Command)} to update the UI.
+         *
+         * @return The tracked UI, or {@code null} if no longer available.
+         */
+        public UI getUI() {
+            return ui;
+        }
+
+        /**
+         * Gets the Idle instance that triggered this event.
+         *
+         * @return Idle instance that triggered this event.
+         */
+        public Idle getIdle() {
+            return (Idle) getSource();
+        }
+
+    }
+
+    /**
+     * User active event.
+     * <p>
+     * This event is triggered when the user becomes active.
+     */
+    public static class UserActiveEvent extends IdleEvent {
+
+        private final Instant lastActivity;
+        private final Duration idleDuration;
+        private final ActivitySource activitySource;
+
+        /**
+         * New instance of user active event.
+         *
+         * @param idle The source of the event.
+         */
+        public UserActiveEvent(Idle idle) {
+            this(idle, null, null, null);
+        }
+
+        /**
+         * New instance of user active event.
+         *
+         * @param idle         The source of the event.
+         * @param lastActivity Time of the input that made the user active,
+         *                     or {@code null} if not known
+         * @param idleDuration How long the user was inactive, or
+         *                     {@code null} if not known
+         * @param activitySource Kind of the input that made the user
+         *                     active, or {@code null} if not known
+         */
+        public UserActiveEvent(Idle idle, Instant lastActivity, Duration idleDuration,
+                ActivitySource activitySource) {
+            super(idle);
+            this.lastActivity = lastActivity;
+            this.idleDuration = idleDuration;
+            this.activitySource = activitySource;
+        }
+
+        /**
+         * Gets the time of the input that made the user active, as measured
+         * by the browser clock.
+         *
+         * @return Time of the input, or empty if the state change was
+         * decided on the server.
+         */
+        public Optional<Instant> getLastActivity() {
+            return Optional.ofNullable(lastActivity);
+        }
+
+        /**
+         * Gets how long the user was inactive, measured from the last input
+         * before becoming inactive.
+         *
+         * @return Inactive time, or empty if the state change was decided
+         * on the server.
+         */
+        public Optional<Duration> getIdleDuration() {
+            return Optional.ofNullable(idleDuration);
+        }
+
+        /**
+         * Gets the kind of input that made the user active.
+         *
+         * @return Input source, or empty if the user became active in
+         * another tab, when the tab became visible again, or if the state
+         * change was decided on the server.
+         */
+        public Optional<ActivitySource> getActivitySource() {
+            return Optional.ofNullable(activitySource);
+        }
+
+    }
+
+    /**
+     * User inactive event.
      * <p>
      * This event is triggered when the user becomes inactive.
      */
     public static class UserInactiveEvent extends IdleEvent {
 
+        private final Instant lastActivity;
+        private final Duration idleDuration;
+
         /**
          * New instance of user inactive event.
          *
          * @param idle The source of the event.
          */
         public UserInactiveEvent(Idle idle) {
+            this(idle, null, null);
+        }
+
+        /**
+         * New instance of user inactive event.
+         *
+         * @param idle         The source of the event.
+         * @param lastActivity Time of the last input, or {@code null} if
+         *                     not known
+         * @param idleDuration Time since the last input, or {@code null}
+         *                     if not known
+         */
+        public UserInactiveEvent(Idle idle, Instant lastActivity, Duration idleDuration) {
+            super(idle);
+            this.lastActivity = lastActivity;
+            this.idleDuration = idleDuration;
+        }
+
+        /**
+         * Gets the time of the last input, as measured by the browser clock.
+         *
+         * @return Time of the last input, or empty if the state change was
+         * decided on the server.
+         */
+        public Optional<Instant> getLastActivity() {
+            return Optional.ofNullable(lastActivity);
+        }
+
+        /**
+         * Gets the time since the last input when the client reported the
+         * user inactive. This is at least the timeout, and longer if the
+         * report was delayed, for example by the minimum dwell time.
+         *
+         * @return Time since the last input, or empty if the state change
+         * was decided on the server.
+         */
+        public Optional<Duration> getIdleDuration() {
+            return Optional.ofNullable(idleDuration);
+        }
+
+    }
+
+    /**
+     * User idle level event.
+     * <p>
+     * This event is triggered when the user reaches the next idle level, or
+     * returns to level 0 by becoming active.
+     */
+    public static class UserLevelEvent extends IdleEvent {
+
+        private final int level;
+        private final int previousLevel;
+
+        /**
+         * New instance of user level event.
+         *
+         * @param idle          The source of the event.
+         * @param level         New idle level
+         * @param previousLevel Previous idle level
+         */
+        public UserLevelEvent(Idle idle, int level, int previousLevel) {
+            super(idle);
+            this.level = level;
+            this.previousLevel = previousLevel;
+        }
+
+        /**
+         * @return New idle level, 0 if the user is active.
+         */
+        public int getLevel() {
+            return level;
+        }
+
+        /**
+         * @return Previous idle level
+         */
+        public int getPreviousLevel() {
+            return previousLevel;
+        }
+
+        /**
+         * @return Idle time threshold of the new level in milliseconds, 0
+         * for level 0.
+         */
+        public long getThreshold() {
+            long[] levels = getIdle().levels;
+            return level > 0 && level <= levels.length ? levels[level - 1] : 0;
+        }
+    }
+
+    /**
+     * Browser tab visibility event.
+     * <p>
+     * This event is triggered when the browser tab is hidden or shown.
+     */
+    public static class VisibilityEvent extends IdleEvent {
+
+        private final boolean visible;
+
+        /**
+         * New instance of visibility event.
+         *
+         * @param idle    The source of the event.
+         * @param visible true, if the tab became visible
+         */
+        public VisibilityEvent(Idle idle, boolean visible) {
             super(idle);
+            this.visible = visible;
+        }
+
+        /**
+         * @return true, if the tab became visible, false if hidden.
+         */
+        public boolean isVisible() {
+            return visible;
+        }
+    }
+
+    /**
+     * Receives the events sent by the client script. A single named class
+     * keeps the serialized UI smaller than one lambda per event type.
+     */
+    private static final class ClientEventListener implements DomEventListener {
+
+        private final Idle idle;
+
+        private ClientEventListener(Idle idle) {
+            this.idle = idle;
+        }
+
+        @Override
+        public void handleEvent(DomEvent event) {
+            switch (event.getType()) {
+                case "user-active" -> {
+                    idle.setTransitionDetails(event.getEventData());
+                    idle.clientActive();
+                }
+                case "user-inactive" -> {
+                    idle.setTransitionDetails(event.getEventData());
+                    idle.clientInactive();
+                }
+                case "user-activity" -> idle.clientActivity();
+                case "user-hidden" -> idle.clientVisibility(false);
+                case "user-visible" -> idle.clientVisibility(true);
+                case "user-level" -> idle.clientLevel(
+                        (int) event.getEventData().getNumber(LEVEL_DATA));
+                case "idle-telemetry" -> idle.telemetryReceived(
+                        event.getEventData().get(TELEMETRY_DATA));
+                default -> {
+                    // Not sent by the client script
+                }
+            }
+        }
+    }
+
+    /**
+     * Sums the time spent in asynchronously invoked listeners and records
+     * it when the last of them has completed, so that the metric measures
+     * the listeners instead of submitting them.
+     */
+    private static final class DispatchTiming {
+
+        private final IdleMetrics metrics;
+        private final boolean active;
+        private final int listeners;
+        private final AtomicInteger remaining;
+        private final AtomicLong elapsedNanos = new AtomicLong();
+
+        DispatchTiming(IdleMetrics metrics, boolean active, int listeners) {
+            this.metrics = metrics;
+            this.active = active;
+            this.listeners = listeners;
+            this.remaining = new AtomicInteger(listeners);
+        }
+
+        void completed(long nanos) {
+            long elapsed = elapsedNanos.addAndGet(nanos);
+            if (remaining.decrementAndGet() == 0) {
+                metrics.listenersDispatched(active, listeners, elapsed);
+            }
+        }
+    }
+
+    /**
+     * Keeps a hibernatable registered with the UI of a component.
+     */
+    private static final class HibernatableBinding implements Registration {
+
+        private final Component component;
+        private final Hibernatable hibernatable;
+        private final Registration attachRegistration;
+        private final Registration detachRegistration;
+        private Registration registration;
+
+        private HibernatableBinding(Component component, Hibernatable hibernatable) {
+            this.component = component;
+            this.hibernatable = hibernatable;
+            attachRegistration = component.addAttachListener(e -> bindLater(e.getUI()));
+            detachRegistration = component.addDetachListener(e -> unbind());
+            component.getUI().ifPresent(this::bindLater);
+        }
+
+        private void bindLater(UI ui) {
+            // The view may track the UI in its own attach listener
+            ui.beforeClientResponse(component, context -> bind(context.getUI()));
+        }
+
+        private void bind(UI ui) {
+            unbind();
+            Idle idle = Idle.get(ui);
+            if (idle != null) {
+                registration = idle.addHibernatable(hibernatable);
+            }
+        }
+
+        private void unbind() {
+            if (registration != null) {
+                registration.remove();
+                registration = null;
+            }
+        }
+
+        @Override
+        public void remove() {
+            attachRegistration.remove();
+            detachRegistration.remove();
+            unbind();
         }
+    }
+
+    /**
+     * Default executor for asynchronous listeners, created on first use.
+     */
+    private static final class DefaultExecutor {
+
+        private static final Executor INSTANCE = create();
 
+        private static Executor create() {
+            try {
+                // Virtual threads are available on Java 21 and later
+                return (Executor) Executors.class
+                        .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                return Executors.newCachedThreadPool(r -> {
+                    Thread thread = new Thread(r, "idle-listener");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+        }
     }
 }
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2017 Sami Ekblad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.idle;
+
+import com.vaadin.flow.component.Component;
+import com.vaadin.flow.component.Tag;
+import com.vaadin.flow.component.dependency.CssImport;
+import com.vaadin.flow.component.dependency.JsModule;
+
+/**
+ * Includes the Idle client script and styles in the frontend bundle of the
+ * application.
+ * <p>
+ * By default, every new UI loads the client files separately. When they
+ * are bundled, they are minified and cached with the rest of the
+ * application, and loaded once per page. To use the bundle, reference this
+ * class from a route or layout of the application, and tell Idle not to
+ * load the files separately:
+ * <pre>
+ * &#64;Uses(IdleBundle.class)
+ * public class MainLayout extends AppLayout { ... }
+ *
+ * Idle.setClientBundled(true);
+ * </pre>
+ * Alternatively, set the deployment configuration property
+ * {@value #BUNDLED_PROPERTY} to <code>true</code>.
+ *
+ * @author Sami Ekblad
+ * @see Idle#setClientBundled(boolean)
+ */
+@Tag("idle-bundle")
+@JsModule("./idle/idle.js")
+@CssImport("./idle/idle.css")
+public final class IdleBundle extends Component {
+
+    /**
+     * Deployment configuration property that enables the bundled client
+     * files.
+     */
+    public static final String BUNDLED_PROPERTY = "idle.bundled";
+
+    private IdleBundle() {
+    }
+}
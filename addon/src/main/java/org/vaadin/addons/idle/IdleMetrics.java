@@ -0,0 +1,78 @@
+/*
+ * Copyright 2017 Sami Ekblad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.idle;
+
+/**
+ * Service provider interface for recording Idle metrics.
+ * <p>
+ * Install an implementation with {@link Idle#setMetrics(IdleMetrics)}. The
+ * methods are invoked on request threads while the session is locked, so
+ * implementations must be thread-safe, fast and should not allocate.
+ * Gauges, such as the number of tracked UIs, are available from the static
+ * methods of {@link Idle} and can be read when the metrics are collected.
+ * <p>
+ * All methods do nothing by default, and {@link #NOOP} is used until
+ * another implementation is installed.
+ *
+ * @author Sami Ekblad
+ * @see org.vaadin.addons.idle.metrics.JmxIdleMetrics
+ * @see org.vaadin.addons.idle.metrics.MicrometerIdleMetrics
+ */
+public interface IdleMetrics {
+
+    /**
+     * Metrics implementation that does not record anything.
+     */
+    IdleMetrics NOOP = new IdleMetrics() {
+    };
+
+    /**
+     * Invoked when a UI starts to be tracked.
+     */
+    default void uiTracked() {
+    }
+
+    /**
+     * Invoked when a UI is no longer tracked.
+     */
+    default void uiUntracked() {
+    }
+
+    /**
+     * Invoked when the user becomes active in a UI.
+     */
+    default void userActive() {
+    }
+
+    /**
+     * Invoked when the user becomes inactive in a UI.
+     */
+    default void userInactive() {
+    }
+
+    /**
+     * Invoked after the listeners of a state change have been invoked. With
+     * asynchronous dispatch, invoked from the executor when the last
+     * listener has completed, and the time is the sum of the time spent in
+     * each listener.
+     *
+     * @param active      true, if the user became active
+     * @param listeners   Number of listeners invoked
+     * @param elapsedNanos Time spent in the listeners in nanoseconds
+     */
+    default void listenersDispatched(boolean active, int listeners, long elapsedNanos) {
+    }
+}
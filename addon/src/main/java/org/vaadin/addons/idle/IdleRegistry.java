@@ -0,0 +1,104 @@
+/*
+ * Copyright 2017 Sami Ekblad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.idle;
+
+import com.vaadin.flow.component.UI;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Thread-safe registry of the tracked UIs.
+ * <p>
+ * UIs are keyed by identity and held strongly, so every registration must
+ * be removed explicitly. This happens when the UI is untracked, detached,
+ * or when its session is destroyed, passivated or unbound from the HTTP
+ * session, see {@link SessionBinding}. Weak keys would not help, as the
+ * registered Idle instance reaches its UI through the DOM listeners. The
+ * backing {@link ConcurrentHashMap} allows lookups from request threads
+ * of different sessions without a global lock.
+ *
+ * @author Sami Ekblad
+ */
+final class IdleRegistry {
+
+    // UI does not override equals, so the keys are compared by identity
+    private final ConcurrentHashMap<UI, Idle> registrations = new ConcurrentHashMap<>();
+
+    /**
+     * Gets the Idle instance registered for the UI.
+     *
+     * @param ui UI instance
+     * @return Registered Idle instance or {@code null}
+     */
+    Idle get(UI ui) {
+        return registrations.get(ui);
+    }
+
+    /**
+     * Checks if the UI has a registered Idle instance.
+     *
+     * @param ui UI instance
+     * @return true, if the UI is registered
+     */
+    boolean contains(UI ui) {
+        return registrations.containsKey(ui);
+    }
+
+    /**
+     * Registers the Idle instance for the UI, unless the UI is already
+     * registered.
+     *
+     * @param ui   UI instance
+     * @param idle Idle instance to register
+     * @return The previously registered Idle instance, or {@code null} if
+     * the given instance was registered
+     */
+    Idle putIfAbsent(UI ui, Idle idle) {
+        return registrations.putIfAbsent(ui, idle);
+    }
+
+    /**
+     * Removes the registration of the UI, if it is registered to the given
+     * Idle instance.
+     *
+     * @param ui   UI instance
+     * @param idle Idle instance to unregister
+     * @return true, if the registration was removed
+     */
+    boolean remove(UI ui, Idle idle) {
+        return registrations.remove(ui, idle);
+    }
+
+    /**
+     * Number of registered UIs.
+     *
+     * @return Number of registered UIs
+     */
+    int size() {
+        return registrations.size();
+    }
+
+    /**
+     * Iterates the registered Idle instances. The iteration is weakly
+     * consistent and never throws {@link java.util.ConcurrentModificationException}.
+     *
+     * @param action Action to run for each registered Idle instance
+     */
+    void forEach(Consumer<Idle> action) {
+        registrations.values().forEach(action);
+    }
+}
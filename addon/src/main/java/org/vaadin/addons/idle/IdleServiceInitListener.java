@@ -0,0 +1,51 @@
+/*
+ * Copyright 2017 Sami Ekblad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.idle;
+
+import com.vaadin.flow.server.ServiceInitEvent;
+import com.vaadin.flow.server.VaadinServiceInitListener;
+
+/**
+ * Installs the request interceptor used by the script-free mode and the
+ * handler tracking the UIs of restored sessions again, and enables the
+ * bundled client files if {@value IdleBundle#BUNDLED_PROPERTY} is set.
+ * The shared timer thread is shut down when the last service is
+ * destroyed.
+ * <p>
+ * Registered automatically using
+ * <code>META-INF/services/com.vaadin.flow.server.VaadinServiceInitListener</code>.
+ * The interceptor does nothing for sessions without UIs tracked in
+ * script-free mode.
+ *
+ * @author Sami Ekblad
+ * @see Idle#trackRequests(com.vaadin.flow.component.UI, long)
+ */
+public class IdleServiceInitListener implements VaadinServiceInitListener {
+
+    @Override
+    public void serviceInit(ServiceInitEvent event) {
+        if (event.getSource().getDeploymentConfiguration()
+                .getBooleanProperty(IdleBundle.BUNDLED_PROPERTY, false)) {
+            Idle.setClientBundled(true);
+        }
+        event.addVaadinRequestInterceptor(new RequestActivity.Interceptor());
+        event.addRequestHandler(new SessionBinding.Handler());
+        event.getSource().addSessionDestroyListener(
+                e -> Idle.sessionDestroyed(e.getSession()));
+        TimingWheel.acquireShared();
+        event.getSource().addServiceDestroyListener(e -> TimingWheel.releaseShared());
+    }
+}
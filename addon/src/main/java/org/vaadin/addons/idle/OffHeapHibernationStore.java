@@ -0,0 +1,62 @@
+/*
+ * Copyright 2017 Sami Ekblad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.idle;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps hibernated state in direct buffers outside the Java heap.
+ *
+ * @author Sami Ekblad
+ */
+final class OffHeapHibernationStore implements HibernationStore {
+
+    static final OffHeapHibernationStore INSTANCE = new OffHeapHibernationStore();
+
+    private final Map<String, ByteBuffer> buffers = new ConcurrentHashMap<>();
+
+    private OffHeapHibernationStore() {
+    }
+
+    @Override
+    public void put(String key, byte[] data) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+        buffer.put(data).flip();
+        buffers.put(key, buffer);
+    }
+
+    @Override
+    public byte[] get(String key) {
+        return read(buffers.get(key));
+    }
+
+    @Override
+    public byte[] take(String key) {
+        return read(buffers.remove(key));
+    }
+
+    private static byte[] read(ByteBuffer buffer) {
+        if (buffer == null) {
+            return null;
+        }
+        byte[] data = new byte[buffer.remaining()];
+        // Absolute read, the buffer may be read concurrently
+        buffer.get(0, data);
+        return data;
+    }
+}
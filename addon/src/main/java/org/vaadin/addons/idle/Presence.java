@@ -0,0 +1,265 @@
+/*
+ * Copyright 2017 Sami Ekblad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.idle;
+
+import com.vaadin.flow.shared.Registration;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Aggregates the user state of Idle instances per user, across UIs,
+ * sessions and server nodes.
+ * <p>
+ * Each node creates one instance with a shared {@link PresenceStore}, and
+ * tracks the Idle instance of every UI with the id of the user:
+ * <pre>
+ * presence.track(Idle.track(ui), username);
+ * ...
+ * boolean online = presence.isUserActive(username);
+ * </pre>
+ * Transitions are counted locally and the changed users are published to
+ * the store in one batch per flush interval, so a burst of transitions
+ * causes at most one write per interval. The merged state may therefore
+ * lag by up to the flush interval.
+ *
+ * @author Sami Ekblad
+ */
+public class Presence implements AutoCloseable {
+
+    /**
+     * Default interval of publishing changes in milliseconds.
+     */
+    public static final long DEFAULT_FLUSH_INTERVAL = 1000;
+
+    private final PresenceStore store;
+    private final String nodeId;
+    private final Map<String, UserPresence> users = new ConcurrentHashMap<>();
+    private final Set<String> dirty = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Creates a new instance with a random node id, publishing changes
+     * every {@value #DEFAULT_FLUSH_INTERVAL} milliseconds.
+     *
+     * @param store Store shared by all nodes
+     */
+    public Presence(PresenceStore store) {
+        this(store, UUID.randomUUID().toString(), DEFAULT_FLUSH_INTERVAL);
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param store           Store shared by all nodes
+     * @param nodeId          Unique id of this node
+     * @param flushIntervalMs Interval of publishing changes, or 0 to
+     *                        publish only when {@link #flush()} is called
+     */
+    public Presence(PresenceStore store, String nodeId, long flushIntervalMs) {
+        this.store = Objects.requireNonNull(store, "Store must not be null");
+        this.nodeId = Objects.requireNonNull(nodeId, "Node id must not be null");
+        if (flushIntervalMs > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "idle-presence");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::scheduledFlush,
+                    flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+        } else {
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Id of this node in the store.
+     *
+     * @return Node id
+     */
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Counts the UI of an Idle instance for a user. The UI is no longer
+     * counted when the Idle instance stops tracking it.
+     *
+     * @param idle   Idle instance of the UI
+     * @param userId Id of the user
+     * @return A registration object for no longer counting the UI.
+     */
+    public Registration track(Idle idle, String userId) {
+        Objects.requireNonNull(idle, "Idle must not be null");
+        Objects.requireNonNull(userId, "User id must not be null");
+        return new Tracked(idle, userId);
+    }
+
+    /**
+     * Gets the state of a user on this node, including changes not yet
+     * published.
+     *
+     * @param userId Id of the user
+     * @return State of the user on this node
+     */
+    public UserPresence getLocal(String userId) {
+        UserPresence local = users.get(userId);
+        return local != null ? local : new UserPresence(userId, 0, 0);
+    }
+
+    /**
+     * Gets the state of a user on all nodes from the store.
+     *
+     * @param userId Id of the user
+     * @return Merged state of the user
+     * @throws UncheckedIOException If the store could not be read
+     */
+    public UserPresence get(String userId) {
+        try {
+            return store.get(userId);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Is the user active in any UI on any node.
+     *
+     * @param userId Id of the user
+     * @return true, if the user is active somewhere
+     * @throws UncheckedIOException If the store could not be read
+     */
+    public boolean isUserActive(String userId) {
+        return get(userId).isActive();
+    }
+
+    /**
+     * Publishes the users changed since the previous flush. Users that
+     * could not be published are retried on the next flush.
+     *
+     * @throws UncheckedIOException If the store could not be updated
+     */
+    public synchronized void flush() {
+        List<UserPresence> batch = new ArrayList<>(dirty.size());
+        for (String userId : dirty) {
+            // Removed before reading, so a concurrent change is not lost
+            dirty.remove(userId);
+            batch.add(getLocal(userId));
+        }
+        try {
+            store.update(nodeId, batch);
+        } catch (IOException e) {
+            batch.forEach(user -> dirty.add(user.getUserId()));
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Stops publishing, and publishes that this node no longer has any
+     * UIs.
+     */
+    @Override
+    public void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        dirty.addAll(users.keySet());
+        users.clear();
+        try {
+            flush();
+        } catch (UncheckedIOException e) {
+            LoggerFactory.getLogger(Presence.class).warn("Could not publish presence on close", e);
+        }
+    }
+
+    private void scheduledFlush() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            // Must not throw, or the flush is not scheduled again
+            LoggerFactory.getLogger(Presence.class).warn("Could not publish presence", e);
+        }
+    }
+
+    private void change(String userId, int active, int tracked) {
+        users.compute(userId, (id, old) -> {
+            int newActive = (old != null ? old.getActiveUIs() : 0) + active;
+            int newTracked = (old != null ? old.getTrackedUIs() : 0) + tracked;
+            return newTracked > 0 ? new UserPresence(id, newActive, newTracked) : null;
+        });
+        dirty.add(userId);
+    }
+
+    /**
+     * A UI counted for a user. It listens to the Idle instance, but is not
+     * serialized with it, as the counts are kept on this node.
+     */
+    private final class Tracked implements Registration, Idle.UserActiveListener,
+            Idle.UserInactiveListener, Idle.NodeLocal {
+
+        private final String userId;
+        private final List<Registration> registrations = new ArrayList<>();
+        private boolean active;
+        private boolean removed;
+
+        private Tracked(Idle idle, String userId) {
+            this.userId = userId;
+            this.active = idle.isUserActive();
+            change(userId, active ? 1 : 0, 1);
+            registrations.add(idle.addUserActiveListener(this));
+            registrations.add(idle.addUserInactiveListener(this));
+            registrations.add(idle.addUntrackCommand(this::remove));
+        }
+
+        @Override
+        public void userActive(Idle.UserActiveEvent event) {
+            setActive(true);
+        }
+
+        @Override
+        public void userInactive(Idle.UserInactiveEvent event) {
+            setActive(false);
+        }
+
+        private synchronized void setActive(boolean active) {
+            if (!removed && this.active != active) {
+                this.active = active;
+                change(userId, active ? 1 : -1, 0);
+            }
+        }
+
+        @Override
+        public synchronized void remove() {
+            if (removed) {
+                return;
+            }
+            removed = true;
+            registrations.forEach(Registration::remove);
+            change(userId, active ? -1 : 0, -1);
+        }
+    }
+}
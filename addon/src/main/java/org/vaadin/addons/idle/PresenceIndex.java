@@ -0,0 +1,306 @@
+/*
+ * Copyright 2017 Sami Ekblad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.idle;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Index of the tracked UIs ordered by the time of their last state
+ * change.
+ * <p>
+ * Entries are kept in an append-only log sorted by time. A state change
+ * marks the old log entry dead and appends a new one, as the new time is
+ * always the latest. Live entries are counted per state in Fenwick trees
+ * over the log positions, which gives counts of entries changed before a
+ * given time in O(log n). The log is compacted when it fills up with dead
+ * entries. All storage is in primitive arrays, except for the references
+ * to the indexed values.
+ * <p>
+ * Updates are synchronized. Iteration does not copy and is weakly
+ * consistent: the arrays are replaced, not modified in place, when they
+ * are compacted or grown.
+ *
+ * @param <T> Type of the indexed values
+ * @author Sami Ekblad
+ */
+final class PresenceIndex<T> {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    // Per value, indexed by slot
+    private Object[] values = new Object[INITIAL_CAPACITY];
+    private boolean[] states = new boolean[INITIAL_CAPACITY];
+    private int[] positions = new int[INITIAL_CAPACITY];
+    private int[] freeSlots = new int[INITIAL_CAPACITY];
+    private int freeCount;
+    private int slotCount;
+
+    // Log of state changes, indexed by position
+    private long[] times = new long[INITIAL_CAPACITY];
+    private int[] logSlots = new int[INITIAL_CAPACITY];
+    private int[] activeTree = new int[INITIAL_CAPACITY + 1];
+    private int[] inactiveTree = new int[INITIAL_CAPACITY + 1];
+    private int logSize;
+    private long lastTime = Long.MIN_VALUE;
+    private int activeCount;
+    private int inactiveCount;
+
+    /**
+     * Adds a value.
+     *
+     * @param value  Value to add
+     * @param active Current state of the value
+     * @param now    Current time
+     * @return Slot of the value, used to update and remove it
+     */
+    synchronized int add(T value, boolean active, long now) {
+        int slot;
+        if (freeCount > 0) {
+            slot = freeSlots[--freeCount];
+        } else {
+            if (slotCount == values.length) {
+                growSlots();
+            }
+            slot = slotCount++;
+        }
+        values[slot] = value;
+        append(slot, active, now);
+        return slot;
+    }
+
+    /**
+     * Records a state change, if the value is still in the given slot.
+     *
+     * @param slot   Slot of the value
+     * @param value  Value that changed
+     * @param active New state
+     * @param now    Current time
+     */
+    synchronized void update(int slot, T value, boolean active, long now) {
+        if (!owns(slot, value) || states[slot] == active) {
+            return;
+        }
+        unlink(slot);
+        append(slot, active, now);
+    }
+
+    /**
+     * Removes a value, if it is still in the given slot.
+     *
+     * @param slot  Slot of the value
+     * @param value Value to remove
+     */
+    synchronized void remove(int slot, T value) {
+        if (!owns(slot, value)) {
+            return;
+        }
+        unlink(slot);
+        values[slot] = null;
+        freeSlots[freeCount++] = slot;
+    }
+
+    /**
+     * Time of the last state change of a value.
+     *
+     * @param slot  Slot of the value
+     * @param value Value in the slot
+     * @return Time of the change, or {@link Long#MIN_VALUE} if the value
+     * is not in the slot
+     */
+    synchronized long getTime(int slot, T value) {
+        return owns(slot, value) ? times[positions[slot]] : Long.MIN_VALUE;
+    }
+
+    /**
+     * Number of values in a state.
+     *
+     * @param active State to count
+     * @return Number of values
+     */
+    synchronized int count(boolean active) {
+        return active ? activeCount : inactiveCount;
+    }
+
+    /**
+     * Number of values in a state, changed to the state at or before the
+     * given time.
+     *
+     * @param active State to count
+     * @param time   Latest time of change
+     * @return Number of values
+     */
+    synchronized int count(boolean active, long time) {
+        int end = upperBound(times, logSize, time);
+        int[] tree = active ? activeTree : inactiveTree;
+        int count = 0;
+        for (int i = end; i > 0; i -= i & -i) {
+            count += tree[i];
+        }
+        return count;
+    }
+
+    /**
+     * Iterates the values in a state, changed to the state at or before
+     * the given time, in the order of the change. Changes during the
+     * iteration may or may not be seen.
+     *
+     * @param active State to iterate
+     * @param time   Latest time of change
+     * @param action Action to run for each value
+     */
+    @SuppressWarnings("unchecked")
+    void forEach(boolean active, long time, Consumer<? super T> action) {
+        long[] times;
+        int[] logSlots;
+        int[] positions;
+        boolean[] states;
+        Object[] values;
+        int end;
+        synchronized (this) {
+            times = this.times;
+            logSlots = this.logSlots;
+            positions = this.positions;
+            states = this.states;
+            values = this.values;
+            end = upperBound(times, logSize, time);
+        }
+        for (int i = 0; i < end; i++) {
+            int slot = logSlots[i];
+            if (slot >= 0 && slot < positions.length && positions[slot] == i
+                    && states[slot] == active) {
+                Object value = values[slot];
+                if (value != null) {
+                    action.accept((T) value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks that the value is indexed in the slot. A slot is reused once
+     * its value is removed, so a stale slot may hold another value.
+     */
+    private boolean owns(int slot, T value) {
+        return slot >= 0 && slot < slotCount && values[slot] == value && positions[slot] >= 0;
+    }
+
+    private void append(int slot, boolean active, long now) {
+        if (logSize == times.length) {
+            compact();
+        }
+        // Keeps the log sorted even if the clock is read out of order
+        long time = Math.max(lastTime, now);
+        lastTime = time;
+        int position = logSize++;
+        times[position] = time;
+        logSlots[position] = slot;
+        positions[slot] = position;
+        states[slot] = active;
+        add(active ? activeTree : inactiveTree, position, 1);
+        if (active) {
+            activeCount++;
+        } else {
+            inactiveCount++;
+        }
+    }
+
+    private void unlink(int slot) {
+        int position = positions[slot];
+        boolean active = states[slot];
+        add(active ? activeTree : inactiveTree, position, -1);
+        if (active) {
+            activeCount--;
+        } else {
+            inactiveCount--;
+        }
+        logSlots[position] = -1;
+        positions[slot] = -1;
+    }
+
+    /**
+     * Moves the live entries to new arrays, which are twice as large if
+     * more than half of the entries are live.
+     */
+    private void compact() {
+        int live = activeCount + inactiveCount;
+        int capacity = live * 2 > times.length ? times.length * 2 : times.length;
+        long[] newTimes = new long[capacity];
+        int[] newLogSlots = new int[capacity];
+        int[] newPositions = positions.clone();
+        int[] newActiveTree = new int[capacity + 1];
+        int[] newInactiveTree = new int[capacity + 1];
+        int size = 0;
+        for (int i = 0; i < logSize; i++) {
+            int slot = logSlots[i];
+            if (slot >= 0) {
+                newTimes[size] = times[i];
+                newLogSlots[size] = slot;
+                newPositions[slot] = size;
+                (states[slot] ? newActiveTree : newInactiveTree)[size + 1] = 1;
+                size++;
+            }
+        }
+        build(newActiveTree);
+        build(newInactiveTree);
+        times = newTimes;
+        logSlots = newLogSlots;
+        positions = newPositions;
+        activeTree = newActiveTree;
+        inactiveTree = newInactiveTree;
+        logSize = size;
+    }
+
+    private void growSlots() {
+        int capacity = values.length * 2;
+        values = Arrays.copyOf(values, capacity);
+        states = Arrays.copyOf(states, capacity);
+        positions = Arrays.copyOf(positions, capacity);
+        freeSlots = Arrays.copyOf(freeSlots, capacity);
+    }
+
+    private static void add(int[] tree, int position, int delta) {
+        for (int i = position + 1; i < tree.length; i += i & -i) {
+            tree[i] += delta;
+        }
+    }
+
+    private static void build(int[] tree) {
+        for (int i = 1; i < tree.length; i++) {
+            int parent = i + (i & -i);
+            if (parent < tree.length) {
+                tree[parent] += tree[i];
+            }
+        }
+    }
+
+    /**
+     * Finds the first position with a time after the given time.
+     */
+    private static int upperBound(long[] times, int size, long time) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (times[mid] <= time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2017 Sami Ekblad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.idle;
+
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * Service provider interface for sharing user presence between server
+ * nodes.
+ * <p>
+ * Each node publishes the state of its own UIs with
+ * {@link #update(String, Collection)}. The state of a user on a node
+ * replaces the previous state of that user on the same node, so updates
+ * can be retried safely. The store merges the state of all nodes in
+ * {@link #get(String)}.
+ * <p>
+ * Every update, even an empty one, tells that the node is alive. Stores
+ * should ignore nodes that have not sent an update within an expiry
+ * time, so that the users of a crashed node do not stay present forever.
+ * <p>
+ * Implementations must be thread-safe. The methods are invoked from the
+ * background thread of {@link Presence} or by the application, never
+ * while a session is locked by Idle.
+ *
+ * @author Sami Ekblad
+ * @see org.vaadin.addons.idle.presence.InMemoryPresenceStore
+ * @see org.vaadin.addons.idle.presence.HttpPresenceStore
+ */
+public interface PresenceStore {
+
+    /**
+     * Publishes the state of users on a node.
+     *
+     * @param nodeId Id of the publishing node
+     * @param users  Current state of the changed users on the node. A user
+     *               with no tracked UIs can be forgotten for the node.
+     * @throws IOException If the update could not be stored
+     */
+    void update(String nodeId, Collection<UserPresence> users) throws IOException;
+
+    /**
+     * Gets the merged state of a user on all live nodes.
+     *
+     * @param userId Id of the user
+     * @return Merged state, with no UIs if the user is unknown
+     * @throws IOException If the state could not be read
+     */
+    UserPresence get(String userId) throws IOException;
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2017 Sami Ekblad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.idle;
+
+import com.vaadin.flow.component.UI;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.time.Duration;
+
+/**
+ * Presence of the user of a tracked UI as seen by the server: the entry of
+ * the UI in the shared {@link PresenceIndex}, the server-enforced timeout
+ * and the request timeout of the script-free mode.
+ * <p>
+ * Owned by an {@link Idle} instance, which is notified when the server
+ * decides that the user is inactive. The timers run on the shared
+ * {@link TimingWheel}, and their tasks lock the session before acting.
+ *
+ * @author Sami Ekblad
+ * @see Idle#setServerTimeout(long)
+ * @see Idle#trackRequests(UI, long)
+ */
+final class PresenceTracker {
+
+    private final Idle owner;
+    private int indexSlot = -1;
+    private long serverTimeout;
+    private long activityReportInterval;
+    private TimingWheel.Timeout serverTimer;
+    private TimingWheel.Timeout requestTimer;
+
+    PresenceTracker(Idle owner) {
+        this.owner = owner;
+    }
+
+    /**
+     * Adds the UI to the presence index.
+     *
+     * @param active Current user state
+     */
+    void index(boolean active) {
+        indexSlot = Idle.INDEX.add(owner, active, TimingWheel.shared().now());
+    }
+
+    /**
+     * Moves the UI in the presence index after a state change.
+     *
+     * @param active New user state
+     */
+    void update(boolean active) {
+        Idle.INDEX.update(indexSlot, owner, active, TimingWheel.shared().now());
+    }
+
+    /**
+     * Time since the state last changed in the presence index.
+     *
+     * @return Time in the current state, or {@link Duration#ZERO} if not
+     * indexed
+     */
+    Duration getTimeInState() {
+        long time = Idle.INDEX.getTime(indexSlot, owner);
+        return time == Long.MIN_VALUE ? Duration.ZERO
+                : Duration.ofMillis(Math.max(0, TimingWheel.shared().now() - time));
+    }
+
+    long getServerTimeout() {
+        return serverTimeout;
+    }
+
+    /**
+     * Interval of the activity reports the client sends for the server
+     * timeout.
+     *
+     * @return Interval in milliseconds, or 0 if the server timeout is
+     * disabled
+     */
+    long getActivityReportInterval() {
+        return activityReportInterval;
+    }
+
+    /**
+     * Sets the server timeout and moves the deadline accordingly.
+     *
+     * @param timeoutMs Timeout in milliseconds, or 0 to disable
+     */
+    void setServerTimeout(long timeoutMs) {
+        serverTimeout = timeoutMs >= 0 ? timeoutMs : 0;
+        if (serverTimeout > 0) {
+            activityReportInterval = Math.max(1000, serverTimeout / 4);
+            TimingWheel wheel = TimingWheel.shared();
+            long deadline = wheel.now() + serverTimeout + activityReportInterval;
+            if (serverTimer == null) {
+                serverTimer = wheel.schedule(deadline, this::serverTimeoutExpired);
+            } else {
+                serverTimer.extend(deadline);
+            }
+        } else {
+            activityReportInterval = 0;
+            if (serverTimer != null) {
+                serverTimer.cancel();
+                serverTimer = null;
+            }
+        }
+    }
+
+    /**
+     * Moves the server deadline after activity reported by the client.
+     */
+    void extendServerTimeout() {
+        TimingWheel.Timeout timer = serverTimer;
+        if (timer != null) {
+            timer.extend(TimingWheel.shared().now() + serverTimeout + activityReportInterval);
+        }
+    }
+
+    /**
+     * Invoked from the timing wheel thread when the server-side deadline
+     * has passed.
+     */
+    private void serverTimeoutExpired() {
+        owner.access(() -> {
+            TimingWheel.Timeout timer = serverTimer;
+            if (timer == null) {
+                return;
+            }
+            if (!timer.isExpired()) {
+                // Activity arrived while waiting for the session lock
+                timer.extend(timer.getDeadline());
+            } else if (owner.isReportedActive()) {
+                owner.serverInactive();
+            }
+        });
+    }
+
+    /**
+     * Starts the request timeout of the script-free mode.
+     */
+    void startRequestTimeout() {
+        TimingWheel wheel = TimingWheel.shared();
+        requestTimer = wheel.schedule(wheel.now() + owner.getTimeout(), this::requestTimeoutExpired);
+    }
+
+    /**
+     * Moves the request deadline after a request, or after the timeout has
+     * been changed.
+     *
+     * @return true, if the request timeout is running
+     */
+    boolean extendRequestTimeout() {
+        TimingWheel.Timeout timer = requestTimer;
+        if (timer == null) {
+            return false;
+        }
+        timer.extend(TimingWheel.shared().now() + owner.getTimeout());
+        return true;
+    }
+
+    /**
+     * Invoked from the timing wheel thread when there may have been no
+     * requests within the timeout in script-free mode.
+     */
+    private void requestTimeoutExpired() {
+        owner.access(() -> {
+            UI ui = owner.getUI().orElse(null);
+            TimingWheel.Timeout timer = requestTimer;
+            if (ui == null || timer == null) {
+                return;
+            }
+            long last = RequestActivity.get(ui.getSession(), ui.getUIId());
+            if (last <= 0) {
+                // Already inactive, rescheduled on the next request
+                return;
+            }
+            long deadline = last - 1 + owner.getTimeout();
+            if (deadline > TimingWheel.shared().now()) {
+                timer.extend(deadline);
+            } else if (RequestActivity.markInactive(ui.getSession(), ui.getUIId(), last)) {
+                owner.serverInactive();
+            }
+        });
+    }
+
+    /**
+     * Starts the timers again and adds the UI back to the index, after
+     * {@link #stop()}.
+     *
+     * @param active Current user state
+     */
+    void resume(boolean active) {
+        index(active);
+        if (serverTimeout > 0) {
+            TimingWheel wheel = TimingWheel.shared();
+            serverTimer = wheel.schedule(wheel.now() + serverTimeout + activityReportInterval,
+                    this::serverTimeoutExpired);
+        }
+        if (owner.isScriptFree()) {
+            startRequestTimeout();
+        }
+    }
+
+    /**
+     * Cancels the timers and removes the UI from the index.
+     */
+    void stop() {
+        if (serverTimer != null) {
+            serverTimer.cancel();
+            serverTimer = null;
+        }
+        if (requestTimer != null) {
+            requestTimer.cancel();
+            requestTimer = null;
+        }
+        Idle.INDEX.remove(indexSlot, owner);
+        indexSlot = -1;
+    }
+
+    /**
+     * Writes the configuration.
+     *
+     * @param out Stream of the owner
+     * @throws IOException If writing fails
+     */
+    void write(ObjectOutputStream out) throws IOException {
+        out.writeLong(serverTimeout);
+    }
+
+    /**
+     * Reads what {@link #write(ObjectOutputStream)} wrote. Nothing is
+     * scheduled until {@link #resume(boolean)}.
+     *
+     * @param in Stream of the owner
+     * @throws IOException If reading fails
+     */
+    void read(ObjectInputStream in) throws IOException {
+        serverTimeout = in.readLong();
+        activityReportInterval = serverTimeout > 0 ? Math.max(1000, serverTimeout / 4) : 0;
+    }
+}
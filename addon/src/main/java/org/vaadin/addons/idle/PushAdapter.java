@@ -0,0 +1,283 @@
+/*
+ * Copyright 2017 Sami Ekblad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.idle;
+
+import com.vaadin.flow.component.PushConfiguration;
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.server.communication.PushConnection;
+import com.vaadin.flow.shared.communication.PushMode;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * Adapts polling and server push of a tracked UI to the user state: slows
+ * down polling, throttles push and releases the push connection while the
+ * user is inactive, and restores them when the user returns.
+ * <p>
+ * Owned by an {@link Idle} instance, which passes on the user state and
+ * writes the state of this adapter with its own serialized form. Only
+ * accessed with the session locked.
+ *
+ * @author Sami Ekblad
+ * @see Idle#setInactivePollInterval(int)
+ * @see Idle#setPushThrottleInterval(long)
+ * @see Idle#setPushReleaseThreshold(long)
+ */
+final class PushAdapter {
+
+    private final Idle owner;
+    private int inactivePollInterval;
+    private int activePollInterval;
+    private int appliedPollInterval;
+    private long throttleInterval;
+    private TimingWheel.Timeout throttleTimer;
+    private boolean throttled;
+    private long releaseThreshold;
+    private TimingWheel.Timeout releaseTimer;
+    private PushMode releasedMode;
+
+    PushAdapter(Idle owner) {
+        this.owner = owner;
+    }
+
+    int getInactivePollInterval() {
+        return inactivePollInterval;
+    }
+
+    void setInactivePollInterval(int intervalMs) {
+        updatePolling(true);
+        inactivePollInterval = intervalMs;
+        updatePolling(owner.isAdaptedActive());
+    }
+
+    long getThrottleInterval() {
+        return throttleInterval;
+    }
+
+    void setThrottleInterval(long intervalMs) {
+        updateThrottling(true);
+        throttleInterval = intervalMs > 0 ? intervalMs : 0;
+        updateThrottling(owner.isAdaptedActive());
+    }
+
+    long getReleaseThreshold() {
+        return releaseThreshold;
+    }
+
+    void setReleaseThreshold(long thresholdMs) {
+        updateRelease(true);
+        releaseThreshold = thresholdMs > 0 ? thresholdMs : 0;
+        updateRelease(owner.isAdaptedActive());
+    }
+
+    boolean isReleased() {
+        return releasedMode != null;
+    }
+
+    /**
+     * Is any of the adaptations enabled.
+     *
+     * @return true, if polling or push is changed while the user is
+     * inactive
+     */
+    boolean isEnabled() {
+        return inactivePollInterval != 0 || throttleInterval > 0 || releaseThreshold > 0;
+    }
+
+    /**
+     * Adapts polling and push to the user state.
+     *
+     * @param active New user state
+     */
+    void update(boolean active) {
+        updatePolling(active);
+        // Restore the released mode before the throttled one
+        updateRelease(active);
+        updateThrottling(active);
+    }
+
+    /**
+     * Starts the timers again for an inactive user, after
+     * {@link #cancel()}.
+     */
+    void resume() {
+        updateRelease(false);
+        if (throttled) {
+            TimingWheel wheel = TimingWheel.shared();
+            throttleTimer = wheel.schedule(wheel.now() + throttleInterval,
+                    () -> owner.access(this::throttleExpired));
+        }
+    }
+
+    /**
+     * Cancels the timers, without changing polling or push.
+     */
+    void cancel() {
+        if (throttleTimer != null) {
+            throttleTimer.cancel();
+            throttleTimer = null;
+        }
+        if (releaseTimer != null) {
+            releaseTimer.cancel();
+            releaseTimer = null;
+        }
+    }
+
+    private void updateRelease(boolean active) {
+        if (active || releaseThreshold == 0) {
+            if (releaseTimer != null) {
+                releaseTimer.cancel();
+                releaseTimer = null;
+            }
+            PushMode mode = releasedMode;
+            UI ui = owner.getUI().orElse(null);
+            releasedMode = null;
+            if (mode != null && ui != null
+                    && ui.getPushConfiguration().getPushMode() == PushMode.DISABLED) {
+                // The browser reconnects when it receives the new mode
+                ui.getPushConfiguration().setPushMode(mode);
+            }
+        } else if (releasedMode == null && releaseTimer == null) {
+            TimingWheel wheel = TimingWheel.shared();
+            releaseTimer = wheel.schedule(wheel.now() + releaseThreshold,
+                    () -> owner.access(this::releaseExpired));
+        }
+    }
+
+    /**
+     * Invoked when the user has been inactive for the release threshold.
+     */
+    private void releaseExpired() {
+        UI ui = owner.getUI().orElse(null);
+        TimingWheel.Timeout timer = releaseTimer;
+        if (ui == null || timer == null || !timer.isExpired()) {
+            return;
+        }
+        releaseTimer = null;
+        PushConfiguration push = ui.getPushConfiguration();
+        PushConnection connection = ui.getInternals().getPushConnection();
+        if (owner.isAdaptedActive() || !push.getPushMode().isEnabled() || connection == null) {
+            return;
+        }
+        releasedMode = push.getPushMode();
+        push.setPushMode(PushMode.DISABLED);
+        if (connection.isConnected()) {
+            // Sends the new mode, after which the browser disconnects
+            connection.push();
+        }
+    }
+
+    private void updatePolling(boolean active) {
+        UI ui = owner.getUI().orElse(null);
+        if (ui == null) {
+            return;
+        }
+        if (active || inactivePollInterval == 0) {
+            if (activePollInterval != 0) {
+                if (ui.getPollInterval() == appliedPollInterval) {
+                    ui.setPollInterval(activePollInterval);
+                }
+                activePollInterval = 0;
+            }
+        } else if (activePollInterval == 0) {
+            int current = ui.getPollInterval();
+            int interval = inactivePollInterval > 0 ? Math.max(current, inactivePollInterval) : -1;
+            if (current > 0 && interval != current) {
+                activePollInterval = current;
+                appliedPollInterval = interval;
+                ui.setPollInterval(interval);
+            }
+        }
+    }
+
+    private void updateThrottling(boolean active) {
+        UI ui = owner.getUI().orElse(null);
+        if (ui == null) {
+            return;
+        }
+        PushConfiguration push = ui.getPushConfiguration();
+        if (active || throttleInterval == 0) {
+            if (throttleTimer != null) {
+                throttleTimer.cancel();
+                throttleTimer = null;
+            }
+            if (throttled) {
+                throttled = false;
+                if (push.getPushMode() == PushMode.MANUAL) {
+                    // Pending changes are pushed when the session is unlocked
+                    push.setPushMode(PushMode.AUTOMATIC);
+                }
+            }
+        } else if (!throttled && push.getPushMode() == PushMode.AUTOMATIC) {
+            throttled = true;
+            push.setPushMode(PushMode.MANUAL);
+            TimingWheel wheel = TimingWheel.shared();
+            throttleTimer = wheel.schedule(wheel.now() + throttleInterval,
+                    () -> owner.access(this::throttleExpired));
+        }
+    }
+
+    /**
+     * Invoked once per throttle interval while the user is inactive.
+     */
+    private void throttleExpired() {
+        UI ui = owner.getUI().orElse(null);
+        TimingWheel.Timeout timer = throttleTimer;
+        if (ui == null || timer == null || !timer.isExpired()) {
+            return;
+        }
+        if (ui.getPushConfiguration().getPushMode().isEnabled()
+                && ui.getInternals().isDirty() && ui.getInternals().getPushConnection() != null) {
+            ui.push();
+        }
+        timer.extend(TimingWheel.shared().now() + throttleInterval);
+    }
+
+    /**
+     * Writes the configuration and the adapted state.
+     *
+     * @param out Stream of the owner
+     * @throws IOException If writing fails
+     */
+    void write(ObjectOutputStream out) throws IOException {
+        out.writeInt(inactivePollInterval);
+        out.writeInt(activePollInterval);
+        out.writeInt(appliedPollInterval);
+        out.writeLong(throttleInterval);
+        out.writeBoolean(throttled);
+        out.writeLong(releaseThreshold);
+        out.writeObject(releasedMode);
+    }
+
+    /**
+     * Reads what {@link #write(ObjectOutputStream)} wrote.
+     *
+     * @param in Stream of the owner
+     * @throws IOException            If reading fails
+     * @throws ClassNotFoundException If a class is not found
+     */
+    void read(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        inactivePollInterval = in.readInt();
+        activePollInterval = in.readInt();
+        appliedPollInterval = in.readInt();
+        throttleInterval = in.readLong();
+        throttled = in.readBoolean();
+        releaseThreshold = in.readLong();
+        releasedMode = (PushMode) in.readObject();
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2017 Sami Ekblad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.idle;
+
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.server.HandlerHelper;
+import com.vaadin.flow.server.VaadinRequest;
+import com.vaadin.flow.server.VaadinRequestInterceptor;
+import com.vaadin.flow.server.VaadinResponse;
+import com.vaadin.flow.server.VaadinSession;
+import com.vaadin.flow.shared.ApplicationConstants;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Last interaction times of UIs tracked in script-free mode.
+ * <p>
+ * Times are kept per session in a primitive array indexed by UI id, and
+ * are updated by {@link Interceptor} without locking the session. A
+ * positive value is the time of the last interaction of an active user. A
+ * negative value marks the user inactive since the negated time. Zero
+ * means that the UI is not tracked. Times are in the time base of the
+ * shared {@link TimingWheel}, offset by one to keep them positive.
+ *
+ * @author Sami Ekblad
+ */
+final class RequestActivity {
+
+    /**
+     * Request attribute set when the request contains a poll event.
+     */
+    static final String POLL_ATTRIBUTE = RequestActivity.class.getName() + ".poll";
+
+    private static final Map<VaadinSession, Slots> SESSIONS = new ConcurrentHashMap<>();
+
+    private RequestActivity() {
+    }
+
+    /**
+     * Current time in the time base of the stored times.
+     *
+     * @return Current time, always positive
+     */
+    static long now() {
+        return TimingWheel.shared().now() + 1;
+    }
+
+    /**
+     * Starts tracking a UI. Must be called with the session locked.
+     *
+     * @param session Session of the UI
+     * @param uiId    Id of the UI
+     */
+    static void register(VaadinSession session, int uiId) {
+        SESSIONS.computeIfAbsent(session, s -> new Slots()).register(uiId, now());
+    }
+
+    /**
+     * Stops tracking a UI. Must be called with the session locked.
+     *
+     * @param session Session of the UI
+     * @param uiId    Id of the UI
+     */
+    static void unregister(VaadinSession session, int uiId) {
+        Slots slots = SESSIONS.get(session);
+        if (slots != null && slots.unregister(uiId)) {
+            SESSIONS.remove(session, slots);
+        }
+    }
+
+    /**
+     * Forgets all UIs of a destroyed session.
+     *
+     * @param session Destroyed session
+     */
+    static void sessionDestroyed(VaadinSession session) {
+        SESSIONS.remove(session);
+    }
+
+    /**
+     * Gets the stored time of a UI.
+     *
+     * @param session Session of the UI
+     * @param uiId    Id of the UI
+     * @return Last interaction time if active, negated time if inactive, or
+     * 0 if not tracked.
+     */
+    static long get(VaadinSession session, int uiId) {
+        Slots slots = SESSIONS.get(session);
+        return slots != null ? slots.get(uiId) : 0;
+    }
+
+    /**
+     * Records an interaction in a UI.
+     *
+     * @param session Session of the UI
+     * @param uiId    Id of the UI
+     * @param now     Time of the interaction
+     * @return The previous stored time, negative if the user was inactive
+     */
+    static long record(VaadinSession session, int uiId, long now) {
+        Slots slots = SESSIONS.get(session);
+        return slots != null ? slots.record(uiId, now) : 0;
+    }
+
+    /**
+     * Marks the user inactive, unless there has been an interaction after
+     * the given time.
+     *
+     * @param session Session of the UI
+     * @param uiId    Id of the UI
+     * @param last    Last interaction time the decision was based on
+     * @return true, if the user was marked inactive
+     */
+    static boolean markInactive(VaadinSession session, int uiId, long last) {
+        Slots slots = SESSIONS.get(session);
+        return slots != null && slots.compareAndSet(uiId, last, -last);
+    }
+
+    /**
+     * Times of the UIs of one session.
+     */
+    private static final class Slots {
+
+        private volatile AtomicLongArray times = new AtomicLongArray(8);
+        private int registered;
+
+        synchronized void register(int uiId, long now) {
+            AtomicLongArray current = times;
+            if (uiId >= current.length()) {
+                // An interaction recorded during the copy may be lost,
+                // which at most delays it to the next request
+                AtomicLongArray grown = new AtomicLongArray(Math.max(uiId + 1, current.length() * 2));
+                for (int i = 0; i < current.length(); i++) {
+                    grown.set(i, current.get(i));
+                }
+                times = grown;
+                current = grown;
+            }
+            if (current.getAndSet(uiId, now) == 0) {
+                registered++;
+            }
+        }
+
+        synchronized boolean unregister(int uiId) {
+            AtomicLongArray current = times;
+            if (uiId < current.length() && current.getAndSet(uiId, 0) != 0) {
+                registered--;
+            }
+            return registered == 0;
+        }
+
+        long get(int uiId) {
+            AtomicLongArray current = times;
+            return uiId >= 0 && uiId < current.length() ? current.get(uiId) : 0;
+        }
+
+        long record(int uiId, long now) {
+            AtomicLongArray current = times;
+            if (uiId < 0 || uiId >= current.length()) {
+                return 0;
+            }
+            while (true) {
+                long previous = current.get(uiId);
+                if (previous == 0 || current.compareAndSet(uiId, previous, now)) {
+                    return previous;
+                }
+            }
+        }
+
+        boolean compareAndSet(int uiId, long expected, long value) {
+            AtomicLongArray current = times;
+            return uiId >= 0 && uiId < current.length()
+                    && current.compareAndSet(uiId, expected, value);
+        }
+    }
+
+    /**
+     * Records UIDL requests as user interaction. Heartbeats, polls and
+     * other request types are ignored.
+     */
+    static final class Interceptor implements VaadinRequestInterceptor {
+
+        @Override
+        public void requestStart(VaadinRequest request, VaadinResponse response) {
+        }
+
+        @Override
+        public void handleException(VaadinRequest request, VaadinResponse response,
+                VaadinSession session, Exception exception) {
+        }
+
+        @Override
+        public void requestEnd(VaadinRequest request, VaadinResponse response,
+                VaadinSession session) {
+            if (session == null || SESSIONS.isEmpty()
+                    || !HandlerHelper.isRequestType(request, HandlerHelper.RequestType.UIDL)
+                    || request.getAttribute(POLL_ATTRIBUTE) != null) {
+                return;
+            }
+            int uiId;
+            try {
+                uiId = Integer.parseInt(request.getParameter(ApplicationConstants.UI_ID_PARAMETER));
+            } catch (NumberFormatException e) {
+                return;
+            }
+            if (record(session, uiId, now()) < 0) {
+                // User returns after being inactive
+                session.access(() -> {
+                    UI ui = session.getUIById(uiId);
+                    Idle idle = ui != null ? Idle.get(ui) : null;
+                    if (idle != null) {
+                        idle.requestActivity();
+                    }
+                });
+            }
+        }
+    }
+}
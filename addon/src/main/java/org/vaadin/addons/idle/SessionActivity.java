@@ -0,0 +1,99 @@
+/*
+ * Copyright 2017 Sami Ekblad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.idle;
+
+import com.vaadin.flow.server.VaadinSession;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Aggregated user activity of all cross-tab tracked UIs in a session.
+ * <p>
+ * In cross-tab mode only one browser tab reports state changes. The state
+ * is stored here and shared with the Idle instances of the other UIs of
+ * the same session. Stored as a session attribute and only accessed with
+ * the session locked.
+ *
+ * @author Sami Ekblad
+ */
+final class SessionActivity implements Serializable {
+
+    private transient List<Idle> members = new ArrayList<>();
+    private boolean active = true;
+
+    /**
+     * Gets the activity state of the session.
+     *
+     * @param session Session
+     * @param create  Create the state if it does not exist yet
+     * @return Activity state, or {@code null} if not created
+     */
+    static SessionActivity get(VaadinSession session, boolean create) {
+        SessionActivity activity = session.getAttribute(SessionActivity.class);
+        if (activity == null && create) {
+            activity = new SessionActivity();
+            session.setAttribute(SessionActivity.class, activity);
+        }
+        return activity;
+    }
+
+    boolean isActive() {
+        return active;
+    }
+
+    void setActive(boolean active) {
+        this.active = active;
+    }
+
+    boolean hasMembers() {
+        return members != null && !members.isEmpty();
+    }
+
+    void join(Idle idle) {
+        if (members == null) {
+            members = new ArrayList<>();
+        }
+        if (!members.contains(idle)) {
+            members.add(idle);
+        }
+    }
+
+    void leave(Idle idle) {
+        if (members != null) {
+            members.remove(idle);
+        }
+    }
+
+    /**
+     * Runs the action for all members except the given one.
+     *
+     * @param except Idle instance to skip
+     * @param action Action to run
+     */
+    void forEachOther(Idle except, Consumer<Idle> action) {
+        if (members == null) {
+            return;
+        }
+        for (Idle idle : new ArrayList<>(members)) {
+            if (idle != except) {
+                action.accept(idle);
+            }
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2017 Sami Ekblad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.idle;
+
+import com.vaadin.flow.component.ComponentUtil;
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.server.RequestHandler;
+import com.vaadin.flow.server.VaadinRequest;
+import com.vaadin.flow.server.VaadinResponse;
+import com.vaadin.flow.server.VaadinSession;
+import com.vaadin.flow.server.WrappedSession;
+import jakarta.servlet.http.HttpSessionActivationListener;
+import jakarta.servlet.http.HttpSessionBindingEvent;
+import jakarta.servlet.http.HttpSessionBindingListener;
+import jakarta.servlet.http.HttpSessionEvent;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Releases the tracked UIs of a session from the static registries when
+ * the container writes the session out or drops it.
+ * <p>
+ * The {@link IdleRegistry} holds UIs strongly and is cleared on detach
+ * and on session destroy. A passivated session fires neither, so without
+ * this the UIs, their session and their timers would stay in memory for
+ * the life of the JVM. Stored as an attribute of the HTTP session, which
+ * is where the container delivers the passivation and unbinding events.
+ * <p>
+ * The members are not serialized. A restored session tracks its UIs
+ * again on the first request it serves on this node, see {@link Handler},
+ * so that copies replicated to other nodes stay out of the registries.
+ *
+ * @author Sami Ekblad
+ */
+final class SessionBinding implements HttpSessionActivationListener,
+        HttpSessionBindingListener, Serializable {
+
+    static final String ATTRIBUTE = SessionBinding.class.getName();
+
+    private transient Set<Idle> members = ConcurrentHashMap.newKeySet();
+    // False after deserialization, until the UIs are tracked again
+    private transient volatile boolean bound = true;
+
+    /**
+     * Adds a tracked UI to the binding of its session. Does nothing for
+     * sessions that are not stored in an HTTP session.
+     *
+     * @param session Session of the UI
+     * @param idle    Idle instance of the UI
+     */
+    static void join(VaadinSession session, Idle idle) {
+        WrappedSession wrapped = session.getSession();
+        if (wrapped == null) {
+            return;
+        }
+        SessionBinding binding = (SessionBinding) wrapped.getAttribute(ATTRIBUTE);
+        if (binding == null) {
+            binding = new SessionBinding();
+            wrapped.setAttribute(ATTRIBUTE, binding);
+        }
+        binding.members().add(idle);
+    }
+
+    /**
+     * Removes an untracked UI from the binding of its session.
+     *
+     * @param session Session of the UI
+     * @param idle    Idle instance of the UI
+     */
+    static void leave(VaadinSession session, Idle idle) {
+        WrappedSession wrapped = session.getSession();
+        SessionBinding binding = wrapped != null ? (SessionBinding) wrapped.getAttribute(ATTRIBUTE) : null;
+        if (binding != null) {
+            binding.members().remove(idle);
+        }
+    }
+
+    /**
+     * Tracks the UIs of a restored session again. Must be called with the
+     * session locked.
+     *
+     * @param session Restored session
+     */
+    void bind(VaadinSession session) {
+        bound = true;
+        for (UI ui : session.getUIs()) {
+            Idle idle = ComponentUtil.getData(ui, Idle.class);
+            if (idle != null) {
+                idle.rebind();
+            }
+        }
+    }
+
+    private Set<Idle> members() {
+        if (members == null) {
+            members = ConcurrentHashMap.newKeySet();
+        }
+        return members;
+    }
+
+    @Override
+    public void sessionWillPassivate(HttpSessionEvent event) {
+        // The session may be kept in memory and activated again
+        List.copyOf(members()).forEach(Idle::release);
+    }
+
+    @Override
+    public void sessionDidActivate(HttpSessionEvent event) {
+        // Only an instance kept in memory has members, a restored session
+        // is bound on its first request
+        List.copyOf(members()).forEach(Idle::rebind);
+    }
+
+    @Override
+    public void valueUnbound(HttpSessionBindingEvent event) {
+        List.copyOf(members()).forEach(Idle::discard);
+        members().clear();
+    }
+
+    /**
+     * Tracks the UIs of a restored session on the first request to it.
+     * Does not handle the request, and locks the session only once after
+     * it has been restored.
+     */
+    static final class Handler implements RequestHandler {
+
+        @Override
+        public boolean handleRequest(VaadinSession session, VaadinRequest request,
+                VaadinResponse response) {
+            WrappedSession wrapped = session != null ? session.getSession() : null;
+            SessionBinding binding = wrapped != null ? (SessionBinding) wrapped.getAttribute(ATTRIBUTE) : null;
+            if (binding != null && !binding.bound) {
+                session.lock();
+                try {
+                    binding.bind(session);
+                } finally {
+                    session.unlock();
+                }
+            }
+            return false;
+        }
+    }
+}
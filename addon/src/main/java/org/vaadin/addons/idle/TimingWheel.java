@@ -0,0 +1,415 @@
+/*
+ * Copyright 2017 Sami Ekblad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.idle;
+
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Hierarchical timing wheel for server-side deadlines.
+ * <p>
+ * All deadlines share one wheel driven by a single scheduler thread, so
+ * tracking a large number of UIs does not need a scheduled task per UI.
+ * The wheel has {@value #LEVELS} levels of {@value #WHEEL_SIZE} slots each.
+ * Timeouts far in the future are placed on the coarser levels and cascaded
+ * down as the wheel turns.
+ * <p>
+ * Extending a deadline is O(1) and lock-free: only the deadline field is
+ * updated, and the timeout is moved when the wheel reaches its old slot.
+ * Expiry callbacks are run on the scheduler thread and must be short. As
+ * extensions may race with expiry, callbacks should re-check
+ * {@link Timeout#isExpired()} before acting.
+ *
+ * @author Sami Ekblad
+ */
+final class TimingWheel {
+
+    static final long DEFAULT_TICK_MS = 100;
+    private static final int WHEEL_BITS = 6;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final int LEVELS = 4;
+    private static final long MAX_TICKS = 1L << (WHEEL_BITS * LEVELS);
+
+    // One time base for all shared wheels, so that times stored by a
+    // previous wheel stay comparable
+    private static final LongSupplier SHARED_CLOCK = monotonicClock();
+
+    private static volatile TimingWheel replacement;
+    private static volatile TimingWheel sharedWheel;
+    private static int sharedUsers;
+
+    private final long tickMs;
+    private final LongSupplier clock;
+    private final Timeout[] slots = new Timeout[LEVELS * WHEEL_SIZE];
+    private final List<Timeout> expired = new ArrayList<>();
+    private long currentTick;
+    private int size;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Creates a new wheel. The wheel does not turn until {@link #start()}
+     * is called.
+     *
+     * @param tickMs Resolution of the wheel in milliseconds
+     */
+    TimingWheel(long tickMs) {
+        this(tickMs, monotonicClock());
+    }
+
+    /**
+     * Creates a new wheel reading the time from the given clock. The wheel
+     * does not turn until {@link #start()} is called, or it is advanced
+     * with {@link #advanceTo(long)}.
+     *
+     * @param tickMs Resolution of the wheel in milliseconds
+     * @param clock  Monotonic time in milliseconds
+     */
+    TimingWheel(long tickMs, LongSupplier clock) {
+        if (tickMs <= 0) {
+            throw new IllegalArgumentException("Tick must be positive");
+        }
+        this.tickMs = tickMs;
+        this.clock = clock;
+    }
+
+    /**
+     * Gets the wheel shared by all Idle instances. The scheduler thread is
+     * started on first use, and again after {@link #releaseShared()} has
+     * shut it down.
+     *
+     * @return Shared timing wheel
+     */
+    static TimingWheel shared() {
+        TimingWheel wheel = replacement;
+        if (wheel == null) {
+            wheel = sharedWheel;
+        }
+        if (wheel == null) {
+            synchronized (TimingWheel.class) {
+                if (sharedWheel == null) {
+                    sharedWheel = new TimingWheel(DEFAULT_TICK_MS, SHARED_CLOCK).start();
+                }
+                wheel = sharedWheel;
+            }
+        }
+        return wheel;
+    }
+
+    /**
+     * Registers a service using the shared wheel.
+     *
+     * @see #releaseShared()
+     */
+    static synchronized void acquireShared() {
+        sharedUsers++;
+    }
+
+    /**
+     * Unregisters a service using the shared wheel. When the last service
+     * is destroyed, the scheduler thread is shut down, so that it does not
+     * keep the class loader of an undeployed application.
+     */
+    static synchronized void releaseShared() {
+        if (sharedUsers > 0 && --sharedUsers == 0 && sharedWheel != null) {
+            sharedWheel.stop();
+            sharedWheel = null;
+        }
+    }
+
+    /**
+     * Replaces the shared wheel, so that tests can turn it by hand.
+     * Timeouts already scheduled stay in the wheel they were scheduled in.
+     *
+     * @param wheel Wheel to use, or {@code null} to use the default wheel
+     */
+    static void setShared(TimingWheel wheel) {
+        replacement = wheel;
+    }
+
+    /**
+     * Current time of the wheel in milliseconds. Deadlines are expressed
+     * in this time base.
+     *
+     * @return Monotonic time in milliseconds
+     */
+    long now() {
+        return clock.getAsLong();
+    }
+
+    private static LongSupplier monotonicClock() {
+        long origin = System.nanoTime();
+        return () -> (System.nanoTime() - origin) / 1_000_000L;
+    }
+
+    /**
+     * Starts the scheduler thread that turns the wheel. An empty wheel
+     * starts from the current time.
+     *
+     * @return This wheel
+     */
+    synchronized TimingWheel start() {
+        if (size == 0) {
+            currentTick = Math.max(currentTick, now() / tickMs);
+        }
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "idle-timing-wheel");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleAtFixedRate(() -> advanceTo(now()),
+                    tickMs, tickMs, TimeUnit.MILLISECONDS);
+        }
+        return this;
+    }
+
+    /**
+     * Stops the scheduler thread. Pending timeouts are kept.
+     */
+    synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Schedules a new timeout.
+     *
+     * @param deadline Deadline in the time base of {@link #now()}
+     * @param task     Task to run on the scheduler thread on expiry
+     * @return The scheduled timeout
+     */
+    Timeout schedule(long deadline, Runnable task) {
+        Timeout timeout = new Timeout(this, task);
+        timeout.deadline = deadline;
+        synchronized (this) {
+            insert(timeout, currentTick + 1);
+        }
+        return timeout;
+    }
+
+    /**
+     * Is the scheduler thread running.
+     *
+     * @return true, if started and not stopped
+     */
+    synchronized boolean isStarted() {
+        return scheduler != null;
+    }
+
+    /**
+     * Number of pending timeouts.
+     *
+     * @return Number of timeouts in the wheel
+     */
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Turns the wheel up to the given time and runs the expired tasks.
+     *
+     * @param nowMs Current time in the time base of {@link #now()}
+     */
+    void advanceTo(long nowMs) {
+        synchronized (this) {
+            long targetTick = nowMs / tickMs;
+            while (currentTick < targetTick) {
+                currentTick++;
+                cascade();
+                expireSlot((int) (currentTick & WHEEL_MASK));
+            }
+        }
+        // Run the tasks outside the lock. Only one thread advances the
+        // wheel, so the expired list is not shared.
+        for (Timeout timeout : expired) {
+            try {
+                timeout.task.run();
+            } catch (RuntimeException e) {
+                LoggerFactory.getLogger(TimingWheel.class)
+                        .warn("Idle timeout task failed", e);
+            }
+        }
+        expired.clear();
+    }
+
+    private void cascade() {
+        for (int level = 1; level < LEVELS; level++) {
+            int shift = WHEEL_BITS * level;
+            if ((currentTick & ((1L << shift) - 1)) != 0) {
+                return;
+            }
+            int bucket = level * WHEEL_SIZE + (int) ((currentTick >>> shift) & WHEEL_MASK);
+            Timeout timeout = detach(bucket);
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                timeout.next = null;
+                // Timeouts due now go to the slot expired right after this
+                insert(timeout, currentTick);
+                timeout = next;
+            }
+        }
+    }
+
+    private void expireSlot(int bucket) {
+        Timeout timeout = detach(bucket);
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            timeout.next = null;
+            if (tickOf(timeout.deadline) > currentTick) {
+                // Deadline was extended after the timeout was placed
+                insert(timeout, currentTick + 1);
+            } else {
+                timeout.scheduled = false;
+                expired.add(timeout);
+            }
+            timeout = next;
+        }
+    }
+
+    private Timeout detach(int bucket) {
+        Timeout head = slots[bucket];
+        slots[bucket] = null;
+        for (Timeout t = head; t != null; t = t.next) {
+            t.prev = null;
+            t.bucket = -1;
+            size--;
+        }
+        return head;
+    }
+
+    private void insert(Timeout timeout, long minTick) {
+        long tick = Math.max(tickOf(timeout.deadline), minTick);
+        long delta = tick - currentTick;
+        if (delta >= MAX_TICKS) {
+            // Beyond the range of the wheel, re-evaluated when cascaded
+            tick = currentTick + MAX_TICKS - 1;
+            delta = MAX_TICKS - 1;
+        }
+        int level = 0;
+        while (delta >= 1L << (WHEEL_BITS * (level + 1))) {
+            level++;
+        }
+        int bucket = level * WHEEL_SIZE + (int) ((tick >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+        Timeout head = slots[bucket];
+        timeout.next = head;
+        timeout.prev = null;
+        if (head != null) {
+            head.prev = timeout;
+        }
+        slots[bucket] = timeout;
+        timeout.bucket = bucket;
+        timeout.scheduled = true;
+        size++;
+    }
+
+    /** First tick at or after the deadline. */
+    private long tickOf(long deadline) {
+        return Math.floorDiv(deadline + tickMs - 1, tickMs);
+    }
+
+    private void remove(Timeout timeout) {
+        if (timeout.bucket < 0) {
+            return;
+        }
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            slots[timeout.bucket] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.bucket = -1;
+        timeout.scheduled = false;
+        size--;
+    }
+
+    /**
+     * A deadline in the wheel.
+     */
+    static final class Timeout {
+
+        private final TimingWheel wheel;
+        private final Runnable task;
+        private volatile long deadline;
+        private volatile boolean scheduled;
+        private Timeout prev;
+        private Timeout next;
+        private int bucket = -1;
+
+        private Timeout(TimingWheel wheel, Runnable task) {
+            this.wheel = wheel;
+            this.task = task;
+        }
+
+        /**
+         * Current deadline of this timeout.
+         *
+         * @return Deadline in the time base of the wheel
+         */
+        long getDeadline() {
+            return deadline;
+        }
+
+        /**
+         * Checks if the deadline has passed.
+         *
+         * @return true, if the deadline has passed
+         */
+        boolean isExpired() {
+            return deadline <= wheel.now();
+        }
+
+        /**
+         * Moves the deadline. Moving a pending deadline later is O(1) and
+         * does not take the wheel lock. An expired or cancelled timeout is
+         * scheduled again.
+         *
+         * @param newDeadline New deadline in the time base of the wheel
+         */
+        void extend(long newDeadline) {
+            long old = deadline;
+            deadline = newDeadline;
+            if (scheduled && newDeadline >= old) {
+                return;
+            }
+            synchronized (wheel) {
+                wheel.remove(this);
+                wheel.insert(this, wheel.currentTick + 1);
+            }
+        }
+
+        /**
+         * Removes this timeout from the wheel.
+         */
+        void cancel() {
+            synchronized (wheel) {
+                wheel.remove(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2017 Sami Ekblad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.idle;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * Number of UIs of a user, and how many of them have an active user.
+ * <p>
+ * Describes either the UIs of one server node, when published to a
+ * {@link PresenceStore}, or all UIs of the user, when read from it.
+ *
+ * @author Sami Ekblad
+ * @see Presence
+ */
+public final class UserPresence implements Serializable {
+
+    private final String userId;
+    private final int activeUIs;
+    private final int trackedUIs;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param userId     Id of the user
+     * @param activeUIs  Number of UIs where the user is active
+     * @param trackedUIs Number of tracked UIs of the user
+     */
+    public UserPresence(String userId, int activeUIs, int trackedUIs) {
+        this.userId = Objects.requireNonNull(userId, "User id must not be null");
+        this.activeUIs = activeUIs;
+        this.trackedUIs = trackedUIs;
+    }
+
+    /**
+     * Id of the user.
+     *
+     * @return User id
+     */
+    public String getUserId() {
+        return userId;
+    }
+
+    /**
+     * Number of UIs where the user is active.
+     *
+     * @return Number of active UIs
+     */
+    public int getActiveUIs() {
+        return activeUIs;
+    }
+
+    /**
+     * Number of tracked UIs of the user.
+     *
+     * @return Number of UIs
+     */
+    public int getTrackedUIs() {
+        return trackedUIs;
+    }
+
+    /**
+     * Is the user active in any UI.
+     *
+     * @return true, if active somewhere
+     */
+    public boolean isActive() {
+        return activeUIs > 0;
+    }
+
+    /**
+     * Does the user have any tracked UIs.
+     *
+     * @return true, if the user has UIs open
+     */
+    public boolean isPresent() {
+        return trackedUIs > 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof UserPresence other)) {
+            return false;
+        }
+        return activeUIs == other.activeUIs && trackedUIs == other.trackedUIs
+                && userId.equals(other.userId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(userId, activeUIs, trackedUIs);
+    }
+
+    @Override
+    public String toString() {
+        return "UserPresence[" + userId + ", active " + activeUIs + "/" + trackedUIs + "]";
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2017 Sami Ekblad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.idle;
+
+/**
+ * How the inactivity timer behaves while the browser tab is hidden.
+ *
+ * @author Sami Ekblad
+ * @see Idle#setVisibilityPolicy(VisibilityPolicy)
+ */
+public enum VisibilityPolicy {
+
+    /**
+     * The timer keeps running. Browsers throttle timers in hidden tabs, so
+     * the user may be reported inactive late.
+     */
+    IGNORE,
+
+    /**
+     * The timer is paused while hidden, and the hidden time does not count
+     * as idle time. When the tab is shown again, the timer continues from
+     * where it was.
+     */
+    PAUSE,
+
+    /**
+     * The user becomes inactive as soon as the tab is hidden, and active
+     * again when it is shown.
+     */
+    INACTIVE
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2017 Sami Ekblad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.idle.metrics;
+
+/**
+ * JMX management interface for Idle metrics.
+ *
+ * @author Sami Ekblad
+ * @see JmxIdleMetrics
+ */
+public interface IdleMetricsMXBean {
+
+    /**
+     * @return Number of currently tracked UIs
+     */
+    int getTrackedUIs();
+
+    /**
+     * @return Number of tracked UIs with an active user
+     */
+    int getActiveUIs();
+
+    /**
+     * @return Number of tracked UIs with an inactive user
+     */
+    int getInactiveUIs();
+
+    /**
+     * @return Number of listeners in all tracked UIs
+     */
+    int getListeners();
+
+    /**
+     * @return Total number of UIs that started to be tracked
+     */
+    long getTrackedTotal();
+
+    /**
+     * @return Total number of UIs that are no longer tracked
+     */
+    long getUntrackedTotal();
+
+    /**
+     * @return Total number of transitions to active
+     */
+    long getActiveTransitions();
+
+    /**
+     * @return Total number of transitions to inactive
+     */
+    long getInactiveTransitions();
+
+    /**
+     * @return Total number of listener dispatches
+     */
+    long getDispatches();
+
+    /**
+     * @return Total time spent in listeners in nanoseconds
+     */
+    long getDispatchTimeTotalNanos();
+
+    /**
+     * @return Longest time spent in listeners of a single dispatch in
+     * nanoseconds
+     */
+    long getDispatchTimeMaxNanos();
+
+    /**
+     * @return Upper bounds of the dispatch time histogram buckets in
+     * microseconds. The last bucket has no upper bound.
+     */
+    long[] getDispatchTimeBucketsMicros();
+
+    /**
+     * @return Number of dispatches in each histogram bucket
+     */
+    long[] getDispatchTimeHistogram();
+
+    /**
+     * Resets all counters and the histogram.
+     */
+    void reset();
+}
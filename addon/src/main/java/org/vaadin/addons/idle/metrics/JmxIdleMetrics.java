@@ -0,0 +1,222 @@
+/*
+ * Copyright 2017 Sami Ekblad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.idle.metrics;
+
+import org.vaadin.addons.idle.Idle;
+import org.vaadin.addons.idle.IdleMetrics;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Idle metrics exposed as a JMX MXBean.
+ * <p>
+ * Counters are kept in {@link LongAdder}s and the dispatch time histogram
+ * in a fixed array of power-of-two buckets, so recording does not allocate.
+ * <pre>
+ * JmxIdleMetrics.install();
+ * </pre>
+ *
+ * @author Sami Ekblad
+ */
+public class JmxIdleMetrics implements IdleMetrics, IdleMetricsMXBean {
+
+    /**
+     * Default JMX object name.
+     */
+    public static final String OBJECT_NAME = "org.vaadin.addons.idle:type=IdleMetrics";
+
+    // Buckets from 1 us to about 1 s, and one for everything above
+    private static final int BUCKETS = 22;
+
+    private final LongAdder trackedTotal = new LongAdder();
+    private final LongAdder untrackedTotal = new LongAdder();
+    private final LongAdder activeTransitions = new LongAdder();
+    private final LongAdder inactiveTransitions = new LongAdder();
+    private final LongAdder dispatches = new LongAdder();
+    private final LongAdder dispatchTime = new LongAdder();
+    private final AtomicLong dispatchTimeMax = new AtomicLong();
+    private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+    /**
+     * Creates a new instance, registers it to the platform MBean server and
+     * installs it using {@link Idle#setMetrics(IdleMetrics)}.
+     *
+     * @return The installed metrics
+     * @throws IllegalStateException If the MBean cannot be registered
+     */
+    public static JmxIdleMetrics install() {
+        JmxIdleMetrics metrics = new JmxIdleMetrics();
+        metrics.register();
+        Idle.setMetrics(metrics);
+        return metrics;
+    }
+
+    /**
+     * Registers this instance to the platform MBean server with the name
+     * {@value #OBJECT_NAME}.
+     *
+     * @throws IllegalStateException If the MBean cannot be registered
+     */
+    public void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (InstanceAlreadyExistsException e) {
+            throw new IllegalStateException("Idle metrics MBean is already registered", e);
+        } catch (JMException e) {
+            throw new IllegalStateException("Failed to register Idle metrics MBean", e);
+        }
+    }
+
+    /**
+     * Unregisters this instance from the platform MBean server.
+     */
+    public void unregister() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(OBJECT_NAME));
+        } catch (InstanceNotFoundException e) {
+            // Not registered
+        } catch (JMException e) {
+            throw new IllegalStateException("Failed to unregister Idle metrics MBean", e);
+        }
+    }
+
+    @Override
+    public void uiTracked() {
+        trackedTotal.increment();
+    }
+
+    @Override
+    public void uiUntracked() {
+        untrackedTotal.increment();
+    }
+
+    @Override
+    public void userActive() {
+        activeTransitions.increment();
+    }
+
+    @Override
+    public void userInactive() {
+        inactiveTransitions.increment();
+    }
+
+    @Override
+    public void listenersDispatched(boolean active, int listeners, long elapsedNanos) {
+        dispatches.increment();
+        dispatchTime.add(elapsedNanos);
+        dispatchTimeMax.accumulateAndGet(elapsedNanos, Math::max);
+        long micros = elapsedNanos / 1000;
+        int bucket = micros <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(micros - 1);
+        histogram.incrementAndGet(Math.min(bucket, BUCKETS - 1));
+    }
+
+    @Override
+    public int getTrackedUIs() {
+        return Idle.getTrackedUICount();
+    }
+
+    @Override
+    public int getActiveUIs() {
+        return Idle.getActiveUICount();
+    }
+
+    @Override
+    public int getInactiveUIs() {
+        return Idle.getInactiveUICount();
+    }
+
+    @Override
+    public int getListeners() {
+        return Idle.getTotalListenerCount();
+    }
+
+    @Override
+    public long getTrackedTotal() {
+        return trackedTotal.sum();
+    }
+
+    @Override
+    public long getUntrackedTotal() {
+        return untrackedTotal.sum();
+    }
+
+    @Override
+    public long getActiveTransitions() {
+        return activeTransitions.sum();
+    }
+
+    @Override
+    public long getInactiveTransitions() {
+        return inactiveTransitions.sum();
+    }
+
+    @Override
+    public long getDispatches() {
+        return dispatches.sum();
+    }
+
+    @Override
+    public long getDispatchTimeTotalNanos() {
+        return dispatchTime.sum();
+    }
+
+    @Override
+    public long getDispatchTimeMaxNanos() {
+        return dispatchTimeMax.get();
+    }
+
+    @Override
+    public long[] getDispatchTimeBucketsMicros() {
+        long[] bounds = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS - 1; i++) {
+            bounds[i] = 1L << i;
+        }
+        bounds[BUCKETS - 1] = Long.MAX_VALUE;
+        return bounds;
+    }
+
+    @Override
+    public long[] getDispatchTimeHistogram() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = histogram.get(i);
+        }
+        return counts;
+    }
+
+    @Override
+    public void reset() {
+        trackedTotal.reset();
+        untrackedTotal.reset();
+        activeTransitions.reset();
+        inactiveTransitions.reset();
+        dispatches.reset();
+        dispatchTime.reset();
+        dispatchTimeMax.set(0);
+        for (int i = 0; i < BUCKETS; i++) {
+            histogram.set(i, 0);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2017 Sami Ekblad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.idle.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.vaadin.addons.idle.Idle;
+import org.vaadin.addons.idle.IdleMetrics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Idle metrics recorded to a Micrometer {@link MeterRegistry}.
+ * <p>
+ * Requires <code>io.micrometer:micrometer-core</code> on the classpath.
+ * Records nothing until bound to a registry. In Spring Boot, declaring an
+ * instance as a bean binds it to the application registry automatically.
+ * <pre>
+ * MicrometerIdleMetrics metrics = new MicrometerIdleMetrics();
+ * metrics.bindTo(registry);
+ * Idle.setMetrics(metrics);
+ * </pre>
+ * <p>
+ * Meters: <code>idle.uis</code> gauge with tag <code>state</code>
+ * (tracked, active, inactive), <code>idle.listeners</code> gauge,
+ * <code>idle.tracking</code> counter with tag <code>event</code>
+ * (tracked, untracked), <code>idle.transitions</code> counter and
+ * <code>idle.dispatch</code> timer, both with tag <code>state</code>
+ * (active, inactive).
+ *
+ * @author Sami Ekblad
+ */
+public class MicrometerIdleMetrics implements IdleMetrics, MeterBinder {
+
+    private volatile Counter tracked;
+    private volatile Counter untracked;
+    private volatile Counter activeTransitions;
+    private volatile Counter inactiveTransitions;
+    private volatile Timer activeDispatch;
+    private volatile Timer inactiveDispatch;
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("idle.uis", Idle::getTrackedUICount)
+                .tag("state", "tracked")
+                .description("Number of tracked UIs")
+                .register(registry);
+        Gauge.builder("idle.uis", Idle::getActiveUICount)
+                .tag("state", "active")
+                .description("Number of tracked UIs with an active user")
+                .register(registry);
+        Gauge.builder("idle.uis", Idle::getInactiveUICount)
+                .tag("state", "inactive")
+                .description("Number of tracked UIs with an inactive user")
+                .register(registry);
+        Gauge.builder("idle.listeners", Idle::getTotalListenerCount)
+                .description("Number of listeners in all tracked UIs")
+                .register(registry);
+        tracked = Counter.builder("idle.tracking").tag("event", "tracked").register(registry);
+        untracked = Counter.builder("idle.tracking").tag("event", "untracked").register(registry);
+        activeTransitions = Counter.builder("idle.transitions").tag("state", "active").register(registry);
+        inactiveTransitions = Counter.builder("idle.transitions").tag("state", "inactive").register(registry);
+        activeDispatch = Timer.builder("idle.dispatch").tag("state", "active")
+                .description("Time spent in user active listeners")
+                .publishPercentileHistogram()
+                .register(registry);
+        inactiveDispatch = Timer.builder("idle.dispatch").tag("state", "inactive")
+                .description("Time spent in user inactive listeners")
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    @Override
+    public void uiTracked() {
+        Counter counter = tracked;
+        if (counter != null) {
+            counter.increment();
+        }
+    }
+
+    @Override
+    public void uiUntracked() {
+        Counter counter = untracked;
+        if (counter != null) {
+            counter.increment();
+        }
+    }
+
+    @Override
+    public void userActive() {
+        Counter counter = activeTransitions;
+        if (counter != null) {
+            counter.increment();
+        }
+    }
+
+    @Override
+    public void userInactive() {
+        Counter counter = inactiveTransitions;
+        if (counter != null) {
+            counter.increment();
+        }
+    }
+
+    @Override
+    public void listenersDispatched(boolean active, int listeners, long elapsedNanos) {
+        Timer timer = active ? activeDispatch : inactiveDispatch;
+        if (timer != null) {
+            timer.record(elapsedNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+}
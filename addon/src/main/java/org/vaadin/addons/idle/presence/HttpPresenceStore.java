@@ -0,0 +1,132 @@
+/*
+ * Copyright 2017 Sami Ekblad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.idle.presence;
+
+import elemental.json.Json;
+import elemental.json.JsonArray;
+import elemental.json.JsonObject;
+import org.vaadin.addons.idle.PresenceStore;
+import org.vaadin.addons.idle.UserPresence;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Objects;
+
+/**
+ * Reference presence store for a presence service over HTTP.
+ * <p>
+ * The service is expected to merge the state of the nodes like
+ * {@link InMemoryPresenceStore}, and to implement two resources relative
+ * to the base URI. Ids are URL encoded path segments.
+ * <ul>
+ * <li><code>PUT nodes/{nodeId}</code> with a JSON array of
+ * <code>[userId, activeUIs, trackedUIs]</code> arrays replaces the state
+ * of the listed users on the node. An empty array only tells that the
+ * node is alive.</li>
+ * <li><code>GET users/{userId}</code> returns the merged state as
+ * <code>{"active": activeUIs, "tracked": trackedUIs}</code>.</li>
+ * </ul>
+ *
+ * @author Sami Ekblad
+ */
+public class HttpPresenceStore implements PresenceStore {
+
+    /**
+     * Default timeout of a single request.
+     */
+    public static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(5);
+
+    private final URI baseUri;
+    private final HttpClient client;
+    private final Duration timeout;
+
+    /**
+     * Creates a new store with a default client.
+     *
+     * @param baseUri Base URI of the presence service, ending with a slash
+     */
+    public HttpPresenceStore(URI baseUri) {
+        this(baseUri, HttpClient.newHttpClient(), DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Creates a new store.
+     *
+     * @param baseUri Base URI of the presence service, ending with a slash
+     * @param client  Client used for the requests
+     * @param timeout Timeout of a single request
+     */
+    public HttpPresenceStore(URI baseUri, HttpClient client, Duration timeout) {
+        this.baseUri = Objects.requireNonNull(baseUri, "Base URI must not be null");
+        this.client = Objects.requireNonNull(client, "Client must not be null");
+        this.timeout = Objects.requireNonNull(timeout, "Timeout must not be null");
+    }
+
+    @Override
+    public void update(String nodeId, Collection<UserPresence> users) throws IOException {
+        JsonArray body = Json.createArray();
+        for (UserPresence user : users) {
+            JsonArray state = Json.createArray();
+            state.set(0, user.getUserId());
+            state.set(1, user.getActiveUIs());
+            state.set(2, user.getTrackedUIs());
+            body.set(body.length(), state);
+        }
+        send(HttpRequest.newBuilder(resolve("nodes/", nodeId))
+                .header("Content-Type", "application/json")
+                .PUT(HttpRequest.BodyPublishers.ofString(body.toJson())));
+    }
+
+    @Override
+    public UserPresence get(String userId) throws IOException {
+        String body = send(HttpRequest.newBuilder(resolve("users/", userId)).GET());
+        try {
+            JsonObject state = Json.parse(body);
+            return new UserPresence(userId, (int) state.getNumber("active"),
+                    (int) state.getNumber("tracked"));
+        } catch (RuntimeException e) {
+            throw new IOException("Invalid presence response: " + body, e);
+        }
+    }
+
+    private URI resolve(String resource, String id) {
+        return baseUri.resolve(resource
+                + URLEncoder.encode(id, StandardCharsets.UTF_8).replace("+", "%20"));
+    }
+
+    private String send(HttpRequest.Builder request) throws IOException {
+        HttpResponse<String> response;
+        try {
+            response = client.send(request.timeout(timeout).build(),
+                    HttpResponse.BodyHandlers.ofString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while calling the presence store");
+        }
+        if (response.statusCode() / 100 != 2) {
+            throw new IOException("Presence store returned status " + response.statusCode());
+        }
+        return response.body();
+    }
+}
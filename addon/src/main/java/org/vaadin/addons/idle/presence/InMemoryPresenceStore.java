@@ -0,0 +1,131 @@
+/*
+ * Copyright 2017 Sami Ekblad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.idle.presence;
+
+import org.vaadin.addons.idle.PresenceStore;
+import org.vaadin.addons.idle.UserPresence;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Presence store kept in memory.
+ * <p>
+ * Shares the presence between the {@link org.vaadin.addons.idle.Presence}
+ * instances of a single JVM, or backs a presence service for a cluster.
+ * The state of nodes that have not sent an update within the expiry time
+ * is ignored and eventually removed.
+ *
+ * @author Sami Ekblad
+ */
+public class InMemoryPresenceStore implements PresenceStore {
+
+    /**
+     * Default time after which a silent node is considered gone.
+     */
+    public static final Duration DEFAULT_EXPIRY = Duration.ofSeconds(30);
+
+    private final long expiryNanos;
+    private final Map<String, Map<String, UserPresence>> users = new HashMap<>();
+    private final Map<String, Set<String>> nodeUsers = new HashMap<>();
+    private final Map<String, Long> nodeSeen = new HashMap<>();
+
+    /**
+     * Creates a new store with the {@link #DEFAULT_EXPIRY default expiry}.
+     */
+    public InMemoryPresenceStore() {
+        this(DEFAULT_EXPIRY);
+    }
+
+    /**
+     * Creates a new store.
+     *
+     * @param expiry Time after which a node that has not sent updates is
+     *               considered gone
+     */
+    public InMemoryPresenceStore(Duration expiry) {
+        this.expiryNanos = Objects.requireNonNull(expiry, "Expiry must not be null").toNanos();
+    }
+
+    @Override
+    public synchronized void update(String nodeId, Collection<UserPresence> states) {
+        long now = System.nanoTime();
+        removeExpiredNodes(now);
+        nodeSeen.put(nodeId, now);
+        Set<String> present = nodeUsers.computeIfAbsent(nodeId, id -> new HashSet<>());
+        for (UserPresence state : states) {
+            String userId = state.getUserId();
+            if (state.isPresent()) {
+                users.computeIfAbsent(userId, id -> new HashMap<>()).put(nodeId, state);
+                present.add(userId);
+            } else if (present.remove(userId)) {
+                removeUser(userId, nodeId);
+            }
+        }
+    }
+
+    @Override
+    public synchronized UserPresence get(String userId) {
+        Map<String, UserPresence> nodes = users.get(userId);
+        int active = 0;
+        int tracked = 0;
+        if (nodes != null) {
+            long now = System.nanoTime();
+            for (Map.Entry<String, UserPresence> entry : nodes.entrySet()) {
+                if (!isExpired(entry.getKey(), now)) {
+                    active += entry.getValue().getActiveUIs();
+                    tracked += entry.getValue().getTrackedUIs();
+                }
+            }
+        }
+        return new UserPresence(userId, active, tracked);
+    }
+
+    private boolean isExpired(String nodeId, long now) {
+        Long seen = nodeSeen.get(nodeId);
+        return seen == null || now - seen > expiryNanos;
+    }
+
+    private void removeExpiredNodes(long now) {
+        Iterator<Map.Entry<String, Long>> nodes = nodeSeen.entrySet().iterator();
+        while (nodes.hasNext()) {
+            Map.Entry<String, Long> node = nodes.next();
+            if (now - node.getValue() > expiryNanos) {
+                nodes.remove();
+                Set<String> nodeUserIds = nodeUsers.remove(node.getKey());
+                if (nodeUserIds != null) {
+                    nodeUserIds.forEach(userId -> removeUser(userId, node.getKey()));
+                }
+            }
+        }
+    }
+
+    private void removeUser(String userId, String nodeId) {
+        Map<String, UserPresence> nodes = users.get(userId);
+        if (nodes != null) {
+            nodes.remove(nodeId);
+            if (nodes.isEmpty()) {
+                users.remove(userId);
+            }
+        }
+    }
+}
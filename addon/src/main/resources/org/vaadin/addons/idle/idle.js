@@ -14,91 +14,815 @@
  * limitations under the License.
  */
 
- /** JavaScript class to track user activity and send events to server. */
+ /**
+  * JavaScript class to track user activity and send events to server.
+  *
+  * Input handlers only record the timestamp of the last activity. A single
+  * checker timer decides when the user becomes inactive, and it is only
+  * rescheduled when it expires or when the activity state changes.
+  */
 class org_vaadin_addons_idle_Idle {
 
   tracking = false;
   timerId = null;
-  timeout = 5000;
-  updateCssClass = true;
+  timerDeadline = 0;
+  worker = null;
+  workerUrl = null;
+  workerTimerCount = 0;
+  active = true;
+  lastActivity = 0;
+  lastActivityReport = -Infinity;
+  stateSince = 0;
+  idleStart = 0;
+  idleTime = 0;
+  activitySource = -1;
+  listening = new Set();
+  moveX = -Infinity;
+  moveY = -Infinity;
+  reportedActive = true;
+  reportTimerId = null;
+  streakStart = 0;
+  streakEvents = 0;
+  channel = null;
+  tabId = Date.now().toString(36) + Math.random().toString(36).slice(2);
+  leader = true;
+  leaderSeen = 0;
+  heartbeatId = null;
+  lastShared = -Infinity;
+  shareTimerId = null;
+  telemetryId = null;
+  telemetry = [];
+  accruedUntil = 0;
+  level = 0;
+  hidden = false;
+  hiddenSince = 0;
+
+  /** Configuration set by the server. Restored on unregister, as the server only sends the changed values. */
+  static DEFAULTS = {
+    timeout: 5000,
+    updateCssClass: true,
+    workerTimer: false,
+    activityReportInterval: 0,
+    minimumDwellTime: 0,
+    sourceMask: 0b111,
+    reactivationEvents: 1,
+    reactivationTime: 0,
+    crossTab: false,
+    crossTabScope: "",
+    telemetryInterval: 0,
+    telemetryResolution: 60000,
+    levels: [],
+    visibilityPolicy: "ignore",
+    hideOnBlur: false,
+    reportVisibility: false
+  };
+  static CHANNEL = "org_vaadin_addons_idle";
+  static HEARTBEAT = 2000;
+  /** Indexes of the telemetry input counters and event sources, in the order of ActivitySource. */
+  static SOURCES = { MOUSE: 0, KEYBOARD: 1, TOUCH: 2, WHEEL: 3, SCROLL: 4, INPUT: 5, FOCUS: 6 };
+  static SOURCE_COUNT = 7;
+  /** Events listened to for each source. Pointer events are split by pointer type. */
+  static SOURCE_EVENTS = {
+    MOUSE: ["pointerdown", "pointermove"],
+    KEYBOARD: ["keydown"],
+    TOUCH: ["pointerdown", "pointermove"],
+    WHEEL: ["wheel"],
+    SCROLL: ["scroll"],
+    INPUT: ["input"],
+    FOCUS: ["focusin"]
+  };
+  static EVENT_SOURCES = { keydown: 1, wheel: 3, scroll: 4, input: 5, focusin: 6 };
+  /** Capture phase sees the events stopped by the application, passive never delays scrolling. */
+  static LISTENER_OPTIONS = { capture: true, passive: true };
+  /** Pointer movement in CSS pixels that counts as activity, to ignore jitter. */
+  static MOVE_THRESHOLD = 3;
+  /** Maximum number of telemetry buckets kept between flushes. */
+  static MAX_BUCKETS = 64;
+  /** Checker timer run in a worker. A new message replaces the pending timer, a negative delay cancels it. */
+  static WORKER_SCRIPT = "let t = null; onmessage = e => { clearTimeout(t);"
+      + " t = e.data.delay < 0 ? null : setTimeout(() => postMessage(e.data.id), e.data.delay); };";
 
   constructor() {
+    this.resetConfig();
+    // Bind once, so that the very same handlers can be removed later
+    this.onActivity = this.onActivity.bind(this);
+    this.check = this.check.bind(this);
+    this.report = this.report.bind(this);
+    this.heartbeat = this.heartbeat.bind(this);
+    this.onStorage = this.onStorage.bind(this);
+    this.onPageHide = this.onPageHide.bind(this);
+    this.flushTelemetry = this.flushTelemetry.bind(this);
+    this.onVisibility = this.onVisibility.bind(this);
+    this.onWorkerTimer = this.onWorkerTimer.bind(this);
+    this.onWorkerError = this.onWorkerError.bind(this);
+  }
+
+  /** Input handler. Ignores unselected sources and pointer jitter. */
+  onActivity(e) {
+    const source = this.sourceOf(e);
+    if (source < 0 || (this.sourceMask & (1 << source)) === 0) return;
+    if (e.type === "pointermove") {
+      if (!this.moved(e)) return;
+    } else if (e.type === "pointerdown") {
+      // Presses always count, and movement is measured from here
+      this.moveX = e.clientX;
+      this.moveY = e.clientY;
+    }
+    this.activity(source);
+  }
+
+  /** Records activity from the given source, or -1 if not from an input. Only records the timestamp while active. */
+  activity(source) {
+    const previous = this.lastActivity;
+    const now = this.lastActivity = performance.now();
+    if (!this.tracking) return;
+    if (this.telemetryInterval > 0 && source >= 0) {
+      this.countInput(source);
+    }
+    if (!this.active) {
+      if (!this.reactivated(now, previous)) return;
+      this.activitySource = source;
+      this.setActive(true);
+      this.schedule(this.nextCheck(0));
+    }
+    if (this.level !== 0) {
+      this.setLevel(0);
+      this.schedule(this.nextCheck(0));
+    }
+    // Periodic activity report for server-enforced timeout
+    if (this.activityReportInterval > 0 && now - this.lastActivityReport >= this.activityReportInterval
+        && this.isReporter()) {
+      this.lastActivityReport = now;
+      document.body.dispatchEvent(new Event("user-activity"));
+    }
+    if (this.crossTab) {
+      this.shareActivity(now);
+    }
+  }
+
+  /** Index of the source of an input event, or -1 if unknown. */
+  sourceOf(e) {
+    if (e.type === "pointerdown" || e.type === "pointermove") {
+      return e.pointerType === "touch" ? org_vaadin_addons_idle_Idle.SOURCES.TOUCH
+          : org_vaadin_addons_idle_Idle.SOURCES.MOUSE;
+    }
+    return org_vaadin_addons_idle_Idle.EVENT_SOURCES[e.type] ?? -1;
+  }
+
+  /**
+   * Has the pointer moved at least the threshold since the last counted position.
+   * Each pointermove already coalesces the movement of a frame, so only its final position is compared.
+   */
+  moved(e) {
+    const dx = e.clientX - this.moveX;
+    const dy = e.clientY - this.moveY;
+    const threshold = org_vaadin_addons_idle_Idle.MOVE_THRESHOLD;
+    if (dx * dx + dy * dy < threshold * threshold) return false;
+    this.moveX = e.clientX;
+    this.moveY = e.clientY;
+    return true;
+  }
+
+  /** Is there enough activity for an inactive user to become active. */
+  reactivated(now, previous) {
+    if (this.reactivationEvents <= 1) return true;
+    if (this.streakEvents === 0 || now - previous > Math.max(this.reactivationTime, 1000)) {
+      // Pause in activity, start a new streak
+      this.streakStart = now;
+      this.streakEvents = 0;
+    }
+    this.streakEvents++;
+    if (this.streakEvents >= this.reactivationEvents
+        || (this.reactivationTime > 0 && now - this.streakStart >= this.reactivationTime)) {
+      this.streakEvents = 0;
+      return true;
+    }
+    return false;
+  }
+
+  /** Checker timer. Goes inactive, updates the idle level and sleeps until the next threshold. */
+  check() {
+    this.timerId = null;
+    if (!this.tracking || this.isPaused()) return;
+
+    const idleFor = performance.now() - this.lastActivity;
+    if (this.active && idleFor >= this.timeout) {
+      this.setActive(false);
+    }
+    let level = this.level;
+    while (level < this.levels.length && idleFor >= this.levels[level]) {
+      level++;
+    }
+    if (level !== this.level) {
+      this.setLevel(level);
+    }
+    const delay = this.nextCheck(idleFor);
+    if (delay !== null) {
+      this.schedule(delay);
+    }
+  }
+
+  /** Time until the timeout or the next level threshold, or null if there is nothing to wait for. */
+  nextCheck(idleFor) {
+    let next = this.active ? this.timeout : Infinity;
+    if (this.level < this.levels.length) {
+      next = Math.min(next, this.levels[this.level]);
+    }
+    return next === Infinity ? null : Math.max(0, next - idleFor);
+  }
+
+  /** (Re)schedule the checker timer. */
+  schedule(delay) {
+    this.timerDeadline = performance.now() + delay;
+    if (this.worker !== null) {
+      // The worker replaces its pending timer
+      this.timerId = ++this.workerTimerCount;
+      this.worker.postMessage({ id: this.timerId, delay });
+      return;
+    }
+    if (this.timerId !== null) {
+      clearTimeout(this.timerId);
+    }
+    this.timerId = setTimeout(this.check, delay);
+  }
+
+  /** Stop the checker timer. */
+  stopTimer() {
+    if (this.timerId === null) return;
+    if (this.worker !== null) {
+      this.worker.postMessage({ id: this.timerId, delay: -1 });
+    } else {
+      clearTimeout(this.timerId);
+    }
+    this.timerId = null;
+  }
+
+  /** Run the checker timer in a dedicated worker, as worker timers are not throttled in background tabs. */
+  setWorkerTimer(workerTimer) {
+    if (workerTimer === this.workerTimer) return;
+    this.workerTimer = workerTimer;
+    if (this.tracking) {
+      this.switchTimer(workerTimer);
+    }
+  }
+
+  /** Move a pending checker timer to a worker or back to the window. */
+  switchTimer(useWorker) {
+    const pending = this.timerId !== null;
+    this.stopTimer();
+    useWorker ? this.startWorker() : this.stopWorker();
+    if (pending) {
+      this.schedule(Math.max(0, this.timerDeadline - performance.now()));
+    }
+  }
+
+  /** Start the worker, unless Workers are not available. */
+  startWorker() {
+    if (this.worker !== null || typeof Worker === "undefined") return;
+    try {
+      this.workerUrl = URL.createObjectURL(
+          new Blob([org_vaadin_addons_idle_Idle.WORKER_SCRIPT], { type: "text/javascript" }));
+      this.worker = new Worker(this.workerUrl);
+      this.worker.onmessage = this.onWorkerTimer;
+      this.worker.onerror = this.onWorkerError;
+    } catch (e) {
+      // For example blocked by the Content Security Policy, use window timers
+      this.stopWorker();
+    }
+  }
+
+  /** Terminate the worker, if any. */
+  stopWorker() {
+    if (this.worker !== null) {
+      this.worker.terminate();
+      this.worker = null;
+    }
+    if (this.workerUrl !== null) {
+      URL.revokeObjectURL(this.workerUrl);
+      this.workerUrl = null;
+    }
+  }
+
+  /** Expiry posted by the worker. Replaced and cancelled timers are ignored. */
+  onWorkerTimer(e) {
+    if (e.data === this.timerId) {
+      this.check();
+    }
+  }
+
+  /** The worker failed to load, fall back to window timers. */
+  onWorkerError() {
+    this.switchTimer(false);
   }
 
   /** Restart timer */
   timerReset() {
     if (!this.tracking) return;
+    this.lastActivity = performance.now();
+    if (!this.active) {
+      this.activitySource = -1;
+      this.setActive(true);
+    }
+    if (this.level !== 0) {
+      this.setLevel(0);
+    }
+    this.schedule(this.nextCheck(0));
+  }
 
-    // Clear previous timer
-    if (typeof this.timerId === "number") {
-      clearTimeout(this.timerId);
+  /** Re-evaluate the state and the level after the thresholds changed. Not counted as activity. */
+  reschedule() {
+    if (!this.tracking || this.isPaused()) return;
+    const idleFor = performance.now() - this.lastActivity;
+    const level = this.levels.filter(threshold => idleFor >= threshold).length;
+    if (level !== this.level) {
+      this.setLevel(level);
+    }
+    this.stopTimer();
+    this.check();
+  }
+
+  /** Change the idle level and report it to server. */
+  setLevel(level) {
+    this.level = level;
+    document.body.setAttribute("idle-level", level);
+    if (this.isReporter()) {
+      document.body.dispatchEvent(new CustomEvent("user-level", { detail: level }));
+    }
+  }
+
+  /** Change state, update CSS classes and report to server. */
+  setActive(active) {
+    if (this.telemetryInterval > 0) {
+      this.accrue(Date.now());
+    }
+    this.active = active;
+    this.stateSince = performance.now();
+    if (active) {
+      this.idleTime = this.stateSince - this.idleStart;
+    } else {
+      this.idleStart = this.lastActivity;
+    }
+    this.streakEvents = 0;
+    const state = active ? "useractive" : "userinactive";
+    document.body.setAttribute("idle", state);
+    if (this.updateCssClass) {
+      document.body.classList.remove(active ? "userinactive" : "useractive");
+      document.body.classList.add(state);
+    }
+    this.report();
+  }
+
+  /** Send the current state to server, once it has lasted for the minimum dwell time. */
+  report() {
+    if (this.reportTimerId !== null) {
+      clearTimeout(this.reportTimerId);
+      this.reportTimerId = null;
+    }
+    if (!this.tracking || this.active === this.reportedActive || !this.isReporter()) return;
+
+    const wait = this.stateSince + this.minimumDwellTime - performance.now();
+    if (wait > 0) {
+      this.reportTimerId = setTimeout(this.report, wait);
+      return;
+    }
+    this.reportedActive = this.active;
+    if (this.telemetryInterval > 0) {
+      // Piggy-back the telemetry on the state change
+      this.flushTelemetry();
+    }
+    // Wall-clock time of the last input, and how long the user was or has been idle
+    const detail = {
+      lastActivity: Math.round(performance.timeOrigin + this.lastActivity),
+      idleTime: Math.round(this.active ? this.idleTime : performance.now() - this.lastActivity),
+      source: this.active ? this.activitySource : -1
+    };
+    document.body.dispatchEvent(new CustomEvent(this.active ? "user-active" : "user-inactive", { detail }));
+  }
+
+  /** Telemetry bucket for the given wall-clock time. Buckets are kept in time order. */
+  telemetryBucket(time) {
+    const number = Math.floor(time / this.telemetryResolution);
+    let bucket = this.telemetry[this.telemetry.length - 1];
+    if (bucket === undefined || bucket[0] < number) {
+      bucket = new Array(2 + org_vaadin_addons_idle_Idle.SOURCE_COUNT).fill(0);
+      bucket[0] = number;
+      this.telemetry.push(bucket);
+      if (this.telemetry.length > org_vaadin_addons_idle_Idle.MAX_BUCKETS) {
+        this.telemetry.shift();
+      }
+    }
+    return bucket;
+  }
+
+  /** Count an input event for telemetry. */
+  countInput(source) {
+    const now = Date.now();
+    this.accrue(now);
+    this.telemetryBucket(now)[2 + source]++;
+  }
+
+  /** Add the active time up to now to the telemetry, split at bucket boundaries. */
+  accrue(now) {
+    if (this.active && this.tracking && !this.isPaused()) {
+      const resolution = this.telemetryResolution;
+      for (let from = Math.max(this.accruedUntil, now - resolution * org_vaadin_addons_idle_Idle.MAX_BUCKETS);
+           from < now;) {
+        const end = Math.min(now, (Math.floor(from / resolution) + 1) * resolution);
+        this.telemetryBucket(from)[1] += end - from;
+        from = end;
+      }
+    }
+    this.accruedUntil = now;
+  }
+
+  /** Send the collected telemetry to server as one event. */
+  flushTelemetry() {
+    if (!this.tracking) return;
+    this.accrue(Date.now());
+    if (this.telemetry.length === 0) return;
+    // Number of values per bucket, followed by the buckets
+    const detail = [2 + org_vaadin_addons_idle_Idle.SOURCE_COUNT];
+    for (const bucket of this.telemetry) {
+      detail.push(...bucket);
+    }
+    this.telemetry = [];
+    document.body.dispatchEvent(new CustomEvent("idle-telemetry", { detail }));
+  }
+
+  /** Collect telemetry and send it at the given interval, 0 disables. */
+  setTelemetry(interval, resolution) {
+    if (this.telemetryId !== null) {
+      clearInterval(this.telemetryId);
+      this.telemetryId = null;
+    }
+    this.telemetryInterval = interval;
+    this.telemetryResolution = resolution;
+    this.telemetry = [];
+    this.accruedUntil = Date.now();
+    if (interval > 0 && this.tracking) {
+      this.telemetryId = setInterval(this.flushTelemetry, interval);
     }
+  }
+
+  /** Visibility, page lifecycle and focus handler. */
+  onVisibility(e) {
+    switch (e.type) {
+      case "pagehide":
+        this.setHidden(true);
+        break;
+      case "blur":
+        if (this.hideOnBlur) this.setHidden(true);
+        break;
+      case "focus":
+        this.setHidden(document.hidden);
+        // Returning to the window is user activity
+        if (!this.hidden && this.visibilityPolicy !== "ignore") this.activity(-1);
+        break;
+      default:
+        this.setHidden(document.hidden);
+    }
+  }
+
+  /** Is the inactivity timer paused because the tab is hidden. */
+  isPaused() {
+    return this.hidden && this.visibilityPolicy === "pause";
+  }
 
-    // Send 'active' event and change CSS class (only if inactive)
-    if (document.body.getAttribute("idle") == "userinactive" && this.tracking) {
-          document.body.setAttribute("idle","useractive");
-          if (this.updateCssClass) {
-            document.body.classList.remove("userinactive")
-            document.body.classList.add("useractive");
-          }
-          const event = new Event("user-active");
-          document.body.dispatchEvent(event);
-    }
-
-
-    this.timerId = setTimeout(() => {
-      // Timer expired. Send 'inactive' event and change CSS class
-      if (document.body.getAttribute("idle") == "useractive" && this.tracking) {
-          document.body.setAttribute("idle","userinactive");
-          if (this.updateCssClass) {
-            document.body.classList.remove("useractive")
-            document.body.classList.add("userinactive");
-          }
-          const event = new Event("user-inactive");
-          document.body.dispatchEvent(event);
+  /** Tab was hidden or shown. */
+  setHidden(hidden) {
+    if (hidden === this.hidden || !this.tracking) return;
+    const now = performance.now();
+    if (this.telemetryInterval > 0) {
+      this.accrue(Date.now());
+    }
+    this.hidden = hidden;
+    if (this.reportVisibility) {
+      document.body.dispatchEvent(new Event(hidden ? "user-hidden" : "user-visible"));
+    }
+    if (this.visibilityPolicy === "pause") {
+      if (hidden) {
+        this.hiddenSince = now;
+        this.stopTimer();
+      } else {
+        // Hidden time does not count as idle time
+        this.lastActivity += now - this.hiddenSince;
+        const delay = this.nextCheck(now - this.lastActivity);
+        if (delay !== null) this.schedule(delay);
+      }
+    } else if (this.visibilityPolicy === "inactive") {
+      if (hidden) {
+        this.stopTimer();
+        if (this.active) this.setActive(false);
+      } else {
+        this.timerReset();
       }
-    }, this.timeout);
+    }
+  }
+
+  /** Only one tab reports to server in cross-tab mode. */
+  isReporter() {
+    return !this.crossTab || this.leader;
   }
 
+  /** Start coordinating with other tabs. */
+  openChannel() {
+    if (typeof BroadcastChannel === "function") {
+      this.channel = new BroadcastChannel(this.channelName());
+      this.channel.onmessage = e => this.onMessage(e.data);
+    } else if (window.localStorage) {
+      window.addEventListener("storage", this.onStorage, false);
+    } else {
+      // No way to coordinate, this tab reports alone
+      return;
+    }
+    window.addEventListener("pagehide", this.onPageHide, false);
+    this.leader = false;
+    this.leaderSeen = 0;
+    this.heartbeatId = setInterval(this.heartbeat, org_vaadin_addons_idle_Idle.HEARTBEAT);
+    this.heartbeat();
+  }
+
+  /** Stop coordinating with other tabs. */
+  closeChannel() {
+    if (this.leader && this.heartbeatId !== null) {
+      this.post({ type: "resign" });
+    }
+    if (this.channel !== null) {
+      this.channel.close();
+      this.channel = null;
+    }
+    window.removeEventListener("storage", this.onStorage, false);
+    window.removeEventListener("pagehide", this.onPageHide, false);
+    if (this.heartbeatId !== null) {
+      clearInterval(this.heartbeatId);
+      this.heartbeatId = null;
+    }
+    if (this.shareTimerId !== null) {
+      clearTimeout(this.shareTimerId);
+      this.shareTimerId = null;
+    }
+    this.leader = true;
+  }
+
+  /** Send message to other tabs. */
+  post(message) {
+    message.from = this.tabId;
+    message.sent = Date.now();
+    if (this.channel !== null) {
+      this.channel.postMessage(message);
+    } else {
+      try {
+        window.localStorage.setItem(this.channelName(), JSON.stringify(message));
+      } catch (e) {
+        // Storage full or disabled
+      }
+    }
+  }
+
+  onStorage(e) {
+    if (e.key === this.channelName() && e.newValue) {
+      this.onMessage(JSON.parse(e.newValue));
+    }
+  }
+
+  onPageHide() {
+    if (this.leader) {
+      this.post({ type: "resign" });
+      this.leader = false;
+    }
+  }
+
+  /** Message from another tab. */
+  onMessage(message) {
+    if (!this.tracking || !message || message.from === this.tabId) return;
+    switch (message.type) {
+      case "leader":
+        if (this.leader && message.from < this.tabId) {
+          // Two leaders, the one with smaller id wins
+          this.leader = false;
+        } else if (this.leader) {
+          this.post({ type: "leader" });
+          return;
+        }
+        this.leaderSeen = Date.now();
+        break;
+      case "resign":
+        this.leaderSeen = 0;
+        this.heartbeat();
+        break;
+      case "activity":
+        this.remoteActivity(performance.now() - (Date.now() - message.time));
+        break;
+    }
+  }
+
+  /** Announce leadership, or claim it if the leader has disappeared. */
+  heartbeat() {
+    if (this.leader) {
+      this.post({ type: "leader" });
+    } else if (Date.now() - this.leaderSeen > 2.5 * org_vaadin_addons_idle_Idle.HEARTBEAT) {
+      this.leader = true;
+      this.post({ type: "leader" });
+      // Report the shared state, the previous leader may not have
+      this.report();
+    }
+  }
+
+  /** Share local activity with other tabs, at most once per interval. */
+  shareActivity(now) {
+    const interval = Math.min(1000, this.timeout / 4);
+    if (now - this.lastShared >= interval) {
+      this.lastShared = now;
+      this.post({ type: "activity", time: Date.now() });
+    } else if (this.shareTimerId === null) {
+      // Make sure the last activity of a burst is shared too
+      this.shareTimerId = setTimeout(() => {
+        this.shareTimerId = null;
+        this.lastShared = performance.now();
+        this.post({ type: "activity", time: Date.now() - (performance.now() - this.lastActivity) });
+      }, this.lastShared + interval - now);
+    }
+  }
 
-  /** Register event listeners */
+  /** Activity in another tab counts as activity in this tab. */
+  remoteActivity(time) {
+    if (time <= this.lastActivity) return;
+    this.lastActivity = time;
+    if (!this.active || this.level !== 0) {
+      if (!this.active) {
+        this.activitySource = -1;
+        this.setActive(true);
+      }
+      if (this.level !== 0) {
+        this.setLevel(0);
+      }
+      this.schedule(this.nextCheck(0));
+    }
+  }
+
+  /** Channel and storage key, separate for each application on the origin. */
+  channelName() {
+    const scope = this.crossTabScope;
+    return scope ? org_vaadin_addons_idle_Idle.CHANNEL + ":" + scope : org_vaadin_addons_idle_Idle.CHANNEL;
+  }
+
+  /** Share activity and elect a single reporting tab among the tabs of the same scope. */
+  setCrossTab(crossTab, scope = "") {
+    if (crossTab === this.crossTab && scope === this.crossTabScope) return;
+    if (this.tracking && this.crossTab) {
+      this.closeChannel();
+    }
+    this.crossTab = crossTab;
+    this.crossTabScope = scope;
+    if (this.tracking && crossTab) {
+      this.openChannel();
+    }
+  }
+
+  /** Register event listeners. Starts from the default configuration, the server sends its changes after this. */
   register() {
     if (this.tracking) return; // Avoid registering twice
+    this.resetConfig();
+    this.active = true;
+    this.reportedActive = true;
     document.body.setAttribute("idle","useractive");
     if (this.updateCssClass) {
         document.body.classList.toggle("useractive", true);
     }
-    window.addEventListener('mousedown', this.timerReset.bind(this), false);
-    window.addEventListener('mousemove', this.timerReset.bind(this), false);
-    window.addEventListener('keydown', this.timerReset.bind(this), false);
+    document.addEventListener('visibilitychange', this.onVisibility, false);
+    window.addEventListener('pagehide', this.onVisibility, false);
+    window.addEventListener('pageshow', this.onVisibility, false);
+    window.addEventListener('blur', this.onVisibility, false);
+    window.addEventListener('focus', this.onVisibility, false);
+    this.hidden = false;
     this.tracking = true;
+    this.updateActivityListeners();
+    if (this.crossTab) {
+      this.openChannel();
+    }
+    this.setTelemetry(this.telemetryInterval, this.telemetryResolution);
+    if (this.workerTimer) {
+      this.startWorker();
+    }
     this.timerReset();
   }
 
-  /** Unregister event listeners */
+  /** Unregister event listeners and reset the configuration */
   unregister() {
+    if (!this.tracking) {
+      // Nothing to remove, but drop any configuration sent before
+      this.resetConfig();
+      return;
+    }
+    if (this.crossTab) {
+      this.closeChannel();
+    }
     this.tracking = false;
+    this.stopTimer();
+    this.stopWorker();
+    if (this.reportTimerId !== null) {
+      clearTimeout(this.reportTimerId);
+      this.reportTimerId = null;
+    }
+    if (this.telemetryId !== null) {
+      clearInterval(this.telemetryId);
+      this.telemetryId = null;
+    }
     document.body.removeAttribute("idle");
-    window.removeEventListener('mousedown', this.timerReset, false);
-    window.removeEventListener('mousemove', this.timerReset, false);
-    window.removeEventListener('keydown', this.timerReset, false);
+    document.body.removeAttribute("idle-level");
+    this.level = 0;
+    this.updateActivityListeners();
+    document.removeEventListener('visibilitychange', this.onVisibility, false);
+    window.removeEventListener('pagehide', this.onVisibility, false);
+    window.removeEventListener('pageshow', this.onVisibility, false);
+    window.removeEventListener('blur', this.onVisibility, false);
+    window.removeEventListener('focus', this.onVisibility, false);
     document.body.classList.remove("useractive");
     document.body.classList.remove("userinactive");
+    // A later register starts from the defaults, like a new page
+    this.resetConfig();
   }
 
-  /** Reset timer if timeout has changed. */
-  setTimeout(newTimeout) {
-    document.body.setAttribute("idle","useractive");
-    if (this.updateCssClass) {
-      document.body.classList.add("useractive");
+  /** Restore the configuration defaults. Only called while not tracking. */
+  resetConfig() {
+    Object.assign(this, org_vaadin_addons_idle_Idle.DEFAULTS);
+    this.lastActivityReport = -Infinity;
+    this.streakEvents = 0;
+  }
+
+  /** Select the activity sources by ActivitySource name. */
+  setActivitySources(sources) {
+    this.sourceMask = sources.reduce((mask, name) => mask | (1 << org_vaadin_addons_idle_Idle.SOURCES[name]), 0);
+    this.updateActivityListeners();
+  }
+
+  /** Listen to each event needed by the selected sources once, and to nothing when not tracking. */
+  updateActivityListeners() {
+    const types = new Set();
+    if (this.tracking) {
+      for (const [name, index] of Object.entries(org_vaadin_addons_idle_Idle.SOURCES)) {
+        if (this.sourceMask & (1 << index)) {
+          org_vaadin_addons_idle_Idle.SOURCE_EVENTS[name].forEach(type => types.add(type));
+        }
+      }
     }
+    const options = org_vaadin_addons_idle_Idle.LISTENER_OPTIONS;
+    for (const type of this.listening) {
+      if (!types.has(type)) window.removeEventListener(type, this.onActivity, options);
+    }
+    for (const type of types) {
+      if (!this.listening.has(type)) window.addEventListener(type, this.onActivity, options);
+    }
+    this.listening = types;
+  }
 
+  /** Reschedule the checker if the timeout has changed. */
+  setTimeout(newTimeout) {
     if (newTimeout !== this.timeout) {
       this.timeout = newTimeout;
-      this.timerReset();
+      this.reschedule();
     }
   }
 
+  /** Report activity to server at most once per interval, 0 disables. */
+  setActivityReportInterval(interval) {
+    this.activityReportInterval = interval;
+    this.lastActivityReport = -Infinity;
+  }
+
+  /** Idle level thresholds in milliseconds, in ascending order. */
+  setLevels(levels) {
+    this.levels = levels;
+    this.reschedule();
+  }
+
+  /** Timer behavior while hidden: "ignore", "pause" or "inactive". */
+  setVisibilityPolicy(policy) {
+    this.visibilityPolicy = policy;
+  }
+
+  /** Is the tab also hidden when the window loses focus. */
+  setHideOnBlur(hideOnBlur) {
+    this.hideOnBlur = hideOnBlur;
+  }
+
+  /** Send visibility changes to server. */
+  setReportVisibility(reportVisibility) {
+    this.reportVisibility = reportVisibility;
+  }
+
+  /** Minimum time in a state before it is reported to server. */
+  setMinimumDwellTime(minimumDwellTime) {
+    this.minimumDwellTime = minimumDwellTime;
+  }
+
+  /** Number of events or duration of activity needed to become active again. */
+  setReactivationThreshold(events, time) {
+    this.reactivationEvents = events;
+    this.reactivationTime = time;
+    this.streakEvents = 0;
+  }
+
   isUpdateCssClass() {
     return this.updateCssClass;
   }
@@ -108,9 +832,14 @@ class org_vaadin_addons_idle_Idle {
     if (!updateCssClass) {
       document.body.classList.remove("useractive");
       document.body.classList.remove("userinactive");
+    } else if (this.tracking) {
+      document.body.classList.add(this.active ? "useractive" : "userinactive");
     }
   }
 }
 
-// Create instance and register it to window
-window.org_vaadin_addons_idle_Idle_instance = new org_vaadin_addons_idle_Idle();
+// Create instance and register it to window, once even if the script is
+// both bundled and injected
+if (!window.org_vaadin_addons_idle_Idle_instance) {
+  window.org_vaadin_addons_idle_Idle_instance = new org_vaadin_addons_idle_Idle();
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2017 Sami Ekblad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.idle;
+
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.component.button.Button;
+import com.vaadin.flow.component.html.Paragraph;
+import com.vaadin.flow.component.orderedlayout.VerticalLayout;
+import com.vaadin.flow.router.Route;
+
+/**
+ * Micro-benchmark page for the client-side activity detector.
+ * <p>
+ * Simulates continuous mouse movement by dispatching synthetic
+ * <code>pointermove</code> events and reports the main-thread time spent per
+ * second of movement. The legacy detector (clearTimeout, getAttribute and
+ * setTimeout on every event) is compared to the current timestamp-sampling
+ * detector.
+ */
+@Route("benchmark")
+public class BenchmarkView extends VerticalLayout {
+
+    private static final String BENCHMARK_JS = """
+            const idle = window.org_vaadin_addons_idle_Idle_instance;
+            const eventsPerSecond = $0;
+            const seconds = $1;
+
+            // Re-implementation of the previous handler for comparison
+            let legacyTimer = null;
+            const legacy = () => {
+              if (typeof legacyTimer === "number") clearTimeout(legacyTimer);
+              if (document.body.getAttribute("idle") == "userinactive") {
+                document.body.setAttribute("idle", "useractive");
+              }
+              legacyTimer = setTimeout(() => {}, idle.timeout);
+            };
+
+            const run = () => {
+              const start = performance.now();
+              for (let s = 0; s < seconds; s++) {
+                for (let i = 0; i < eventsPerSecond; i++) {
+                  window.dispatchEvent(new PointerEvent("pointermove", { pointerType: "mouse", clientX: i, clientY: s }));
+                }
+              }
+              return (performance.now() - start) / seconds;
+            };
+
+            idle.unregister();
+            const baseline = run();
+
+            window.addEventListener("pointermove", legacy, false);
+            const legacyMs = run() - baseline;
+            window.removeEventListener("pointermove", legacy, false);
+            clearTimeout(legacyTimer);
+
+            idle.register();
+            const samplingMs = run() - baseline;
+
+            return "Main-thread time per second of movement at " + eventsPerSecond
+                + " events/s: legacy " + legacyMs.toFixed(3) + " ms, sampling "
+                + samplingMs.toFixed(3) + " ms";
+            """;
+
+    private final Paragraph result = new Paragraph("Not run yet");
+
+    public BenchmarkView() {
+        Idle.track(UI.getCurrent(), 60000);
+
+        Button run = new Button("Run benchmark", e -> UI.getCurrent().getPage()
+                .executeJs(BENCHMARK_JS, 1000, 20)
+                .then(String.class, result::setText));
+
+        // For testing purposes
+        result.setTitle("result");
+
+        add(result, run);
+    }
+}
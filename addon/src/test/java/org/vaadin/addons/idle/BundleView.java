@@ -0,0 +1,36 @@
+/*
+ * Copyright 2017 Sami Ekblad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.idle;
+
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.component.dependency.Uses;
+import com.vaadin.flow.component.html.Span;
+import com.vaadin.flow.component.orderedlayout.VerticalLayout;
+import com.vaadin.flow.router.Route;
+
+/**
+ * Test view with the client files in the frontend bundle. The files are
+ * only skipped per UI when {@link Idle#setClientBundled(boolean)} is set.
+ */
+@Route("bundle")
+@Uses(IdleBundle.class)
+public class BundleView extends VerticalLayout {
+
+    public BundleView() {
+        Idle.track(UI.getCurrent(), TimerView.TIMEOUT);
+        add(new Span("Inactive after " + TimerView.TIMEOUT + " ms"));
+    }
+}
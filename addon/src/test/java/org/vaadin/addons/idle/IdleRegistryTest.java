@@ -0,0 +1,301 @@
+/*
+ * Copyright 2017 Sami Ekblad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vaadin.addons.idle;
+
+import com.vaadin.flow.component.ComponentUtil;
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.component.html.Div;
+import com.vaadin.flow.server.RequestHandler;
+import com.vaadin.flow.server.WrappedSession;
+import jakarta.servlet.http.HttpSession;
+import jakarta.servlet.http.HttpSessionBindingEvent;
+import jakarta.servlet.http.HttpSessionEvent;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class IdleRegistryTest {
+
+    private static final int SESSIONS = 5000;
+    private static final int THREADS = 16;
+    private static final int CYCLES = 10000;
+
+    @Test
+    public void testConcurrentTrackAndUntrack() throws Exception {
+        int before = Idle.REGISTRY.size();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> results = new ArrayList<>();
+        try {
+            for (int i = 0; i < SESSIONS; i++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    UI ui = new UI();
+                    Idle idle = Idle.track(ui, 1000);
+                    Assertions.assertSame(idle, Idle.get(ui));
+                    idle.untrackUI();
+                    Assertions.assertNull(Idle.get(ui));
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> result : results) {
+                result.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Assertions.assertEquals(before, Idle.REGISTRY.size());
+    }
+
+    @Test
+    public void testConcurrentDoubleTracking() throws Exception {
+        UI ui = new UI();
+        AtomicInteger tracked = new AtomicInteger();
+        AtomicInteger rejected = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> results = new ArrayList<>();
+        try {
+            for (int i = 0; i < THREADS; i++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    try {
+                        Idle.track(ui);
+                        tracked.incrementAndGet();
+                    } catch (IllegalArgumentException e) {
+                        rejected.incrementAndGet();
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> result : results) {
+                result.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Assertions.assertEquals(1, tracked.get());
+        Assertions.assertEquals(THREADS - 1, rejected.get());
+        Idle.get(ui).untrackUI();
+    }
+
+    @Test
+    public void testUntrackOnDetach() {
+        UI ui = new UI();
+        Idle.track(ui);
+        ComponentUtil.onComponentDetach(ui);
+        Assertions.assertNull(Idle.get(ui));
+
+        // UI can be tracked again after being detached
+        Assertions.assertNotNull(Idle.track(ui));
+    }
+
+    @Test
+    public void testNoRetentionAfterUntrack() throws Exception {
+        int tracked = Idle.getTrackedUICount();
+        int inactive = Idle.getInactiveUICount();
+        TestSession session = new TestSession();
+        List<WeakReference<Object>> refs = new ArrayList<>();
+        for (int i = 0; i < CYCLES; i++) {
+            UI ui = new UI();
+            ui.getInternals().setSession(session);
+            // Half of the UIs are left attached until the session is destroyed
+            boolean detach = i % 2 == 0;
+            if (!detach) {
+                ui.doInit(null, i, "ROOT");
+                session.addUI(ui);
+            }
+            Idle idle = Idle.track(ui, 1000);
+            idle.setServerTimeout(60000);
+            idle.setCrossTab(true);
+            idle.setEventCoalescing(1000);
+            idle.setHibernationThreshold(60000);
+            idle.setTelemetryInterval(10000);
+            Div view = new Div();
+            idle.addUserActiveListener(e -> view.setText("active"));
+            idle.addUserInactiveListener(e -> view.setText("inactive"));
+            idle.addUserLevelListener(e -> view.setText("level"));
+            idle.addHibernatable(Hibernatable.of(view::removeAll, view::removeAll));
+            TestSession.fireClientEvent(ui, "user-inactive");
+            refs.add(new WeakReference<>(ui));
+            refs.add(new WeakReference<>(idle));
+            refs.add(new WeakReference<>(view));
+            if (detach) {
+                ComponentUtil.onComponentDetach(ui);
+            }
+        }
+        Assertions.assertEquals(tracked + CYCLES / 2, Idle.getTrackedUICount());
+        Idle.sessionDestroyed(session);
+        Assertions.assertEquals(tracked, Idle.getTrackedUICount());
+        Assertions.assertEquals(inactive, Idle.getInactiveUICount());
+        session = null;
+
+        // Nothing static may keep the UIs, the instances or the listener
+        // state alive
+        long deadline = System.currentTimeMillis() + 10000;
+        while (refs.stream().anyMatch(ref -> ref.get() != null)
+                && System.currentTimeMillis() < deadline) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        Assertions.assertEquals(0, refs.stream().filter(ref -> ref.get() != null).count());
+    }
+
+    @Test
+    public void testReleaseOnPassivation() throws Exception {
+        int tracked = Idle.getTrackedUICount();
+        TestSession session = new TestSession();
+        WrappedSession httpSession = session.storeInHttpSession();
+        UI ui = new UI();
+        ui.getInternals().setSession(session);
+        ui.doInit(null, 0, "ROOT");
+        session.addUI(ui);
+        Idle idle = Idle.track(ui, 1000);
+        idle.setServerTimeout(60000);
+        idle.setCrossTab(true);
+        idle.addUserInactiveListener(e -> { });
+        SessionBinding binding = (SessionBinding) httpSession.getAttribute(SessionBinding.ATTRIBUTE);
+        HttpSessionEvent event = new HttpSessionEvent(Mockito.mock(HttpSession.class));
+
+        // Released without changing the UI
+        binding.sessionWillPassivate(event);
+        Assertions.assertEquals(tracked, Idle.getTrackedUICount());
+        Assertions.assertEquals(60000, idle.getServerTimeout());
+
+        // Tracked again when activated in memory
+        binding.sessionDidActivate(event);
+        Assertions.assertEquals(tracked + 1, Idle.getTrackedUICount());
+        Assertions.assertSame(idle, Idle.get(ui));
+
+        // Written out and dropped, nothing static keeps the session
+        binding.sessionWillPassivate(event);
+        List<WeakReference<Object>> refs = List.of(new WeakReference<>(session),
+                new WeakReference<>(ui), new WeakReference<>(idle));
+        session = null;
+        httpSession = null;
+        ui = null;
+        idle = null;
+        binding = null;
+        long deadline = System.currentTimeMillis() + 10000;
+        while (refs.stream().anyMatch(ref -> ref.get() != null)
+                && System.currentTimeMillis() < deadline) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        Assertions.assertEquals(0, refs.stream().filter(ref -> ref.get() != null).count());
+    }
+
+    @Test
+    public void testReleaseOnUnbind() {
+        TestSession session = new TestSession();
+        WrappedSession httpSession = session.storeInHttpSession();
+        UI ui = new UI();
+        ui.getInternals().setSession(session);
+        ui.doInit(null, 0, "ROOT");
+        session.addUI(ui);
+        Idle idle = Idle.trackRequests(ui, 1000);
+        SessionBinding binding = (SessionBinding) httpSession.getAttribute(SessionBinding.ATTRIBUTE);
+
+        // For example a restored session that expires before it is used
+        binding.valueUnbound(new HttpSessionBindingEvent(Mockito.mock(HttpSession.class), SessionBinding.ATTRIBUTE));
+        Assertions.assertNull(Idle.get(ui));
+        Assertions.assertEquals(0, RequestActivity.get(session, ui.getUIId()));
+        binding.sessionDidActivate(new HttpSessionEvent(Mockito.mock(HttpSession.class)));
+        Assertions.assertNull(Idle.get(ui));
+        Assertions.assertTrue(idle.isScriptFree());
+    }
+
+    @Test
+    public void testTrackRestoredSessionOnFirstRequest() throws Exception {
+        int tracked = Idle.getTrackedUICount();
+        TestSession session = new TestSession();
+        session.storeInHttpSession();
+        UI ui = new UI();
+        ui.getInternals().setSession(session);
+        ui.doInit(null, 0, "ROOT");
+        session.addUI(ui);
+        Idle idle = Idle.track(ui, 1000);
+        idle.setServerTimeout(60000);
+
+        // A replicated copy stays out of the registry
+        UI copy = (UI) deserialize(serialize(ui));
+        Assertions.assertEquals(tracked + 1, Idle.getTrackedUICount());
+
+        // Tracked on the first request the copy serves
+        RequestHandler handler = new SessionBinding.Handler();
+        Assertions.assertFalse(handler.handleRequest(copy.getSession(), null, null));
+        Assertions.assertEquals(tracked + 2, Idle.getTrackedUICount());
+        Idle restored = Idle.get(copy);
+        Assertions.assertNotSame(idle, restored);
+        Assertions.assertEquals(60000, restored.getServerTimeout());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> Idle.track(copy));
+
+        restored.untrackUI();
+        idle.untrackUI();
+        Assertions.assertEquals(tracked, Idle.getTrackedUICount());
+    }
+
+    @Test
+    public void testUntrackOnSessionDestroy() {
+        TestSession session = new TestSession();
+        List<UI> uis = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            UI ui = new UI();
+            ui.getInternals().setSession(session);
+            ui.doInit(null, i, "ROOT");
+            session.addUI(ui);
+            Idle.trackRequests(ui, 1000).addUserActiveListener(e -> { });
+            uis.add(ui);
+        }
+        Idle.sessionDestroyed(session);
+        for (UI ui : uis) {
+            Assertions.assertNull(Idle.get(ui));
+        }
+        Assertions.assertEquals(0, RequestActivity.get(session, 0));
+    }
+
+    private static byte[] serialize(Object object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Object deserialize(byte[] data) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data))) {
+            return in.readObject();
+        }
+    }
+}
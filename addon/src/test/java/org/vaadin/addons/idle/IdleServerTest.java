@@ -17,20 +17,63 @@
 package org.vaadin.addons.idle;
 
 import com.vaadin.flow.component.UI;
+import com.vaadin.flow.component.html.Div;
+import com.vaadin.flow.component.internal.PendingJavaScriptInvocation;
+import com.vaadin.flow.internal.nodefeature.ElementListenerMap;
+import com.vaadin.flow.server.VaadinRequest;
+import com.vaadin.flow.server.WrappedSession;
+import com.vaadin.flow.shared.ApplicationConstants;
+import com.vaadin.flow.shared.communication.PushMode;
+import elemental.json.Json;
+import elemental.json.JsonArray;
+import elemental.json.JsonObject;
+import jakarta.servlet.http.HttpSession;
+import jakarta.servlet.http.HttpSessionEvent;
 import org.junit.Assert;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class IdleServerTest {
     
+    private static long manualTime;
+
     private UI testUI;
+    private TimingWheel wheel;
+    private long now;
     
     @BeforeEach
     public void before() {
         testUI = new UI();
     }
 
+    @AfterEach
+    public void after() {
+        TimingWheel.setShared(null);
+    }
+
     @Test
     public void testTrack() {
         Assert.assertNotNull(Idle.track(testUI));
@@ -49,5 +92,794 @@ public class IdleServerTest {
             Idle.track(testUI);
         });
     }
-    
+
+    @Test
+    public void testServerTimeout() {
+        Idle idle = Idle.track(testUI);
+        Assertions.assertEquals(0, idle.getServerTimeout());
+        idle.setServerTimeout(30000);
+        Assertions.assertEquals(30000, idle.getServerTimeout());
+        Assertions.assertTrue(idle.isUserActive());
+        idle.setServerTimeout(0);
+        Assertions.assertEquals(0, idle.getServerTimeout());
+    }
+
+    @Test
+    public void testServerTimeoutExpiry() {
+        useManualWheel();
+        testUI = TestSession.createUI();
+        Idle idle = Idle.track(testUI);
+        List<UI> inactive = new ArrayList<>();
+        idle.addUserInactiveListener(e -> inactive.add(UI.getCurrent()));
+        // Reported late by at most the activity report interval of 1000 ms
+        idle.setServerTimeout(4000);
+
+        advance(4900);
+        Assertions.assertTrue(idle.isUserActive());
+        TestSession.fireClientEvent(testUI, "user-activity");
+        advance(4900);
+        Assertions.assertTrue(idle.isUserActive());
+        Assertions.assertTrue(inactive.isEmpty());
+
+        // Expiry runs the listeners with the UI locked and current
+        advance(200);
+        Assertions.assertFalse(idle.isUserActive());
+        Assertions.assertEquals(List.of(testUI), inactive);
+        Assertions.assertNull(UI.getCurrent());
+        advance(60000);
+        Assertions.assertEquals(1, inactive.size());
+
+        // Activity starts a new deadline
+        TestSession.fireClientEvent(testUI, "user-active");
+        Assertions.assertTrue(idle.isUserActive());
+        advance(5100);
+        Assertions.assertEquals(2, inactive.size());
+    }
+
+    @Test
+    public void testServerTimeoutCancelledOnUntrack() {
+        useManualWheel();
+        testUI = TestSession.createUI();
+        Idle idle = Idle.track(testUI);
+        AtomicInteger inactive = new AtomicInteger();
+        idle.addUserInactiveListener(e -> inactive.incrementAndGet());
+        idle.setServerTimeout(4000);
+        Assertions.assertEquals(1, wheel.size());
+
+        idle.untrackUI();
+        Assertions.assertEquals(0, wheel.size());
+        advance(60000);
+        Assertions.assertEquals(0, inactive.get());
+    }
+
+    @Test
+    public void testBatchedClientCalls() {
+        testUI = TestSession.createUI();
+        Idle idle = Idle.track(testUI, 1000, false);
+        idle.setTimeout(2000);
+        List<PendingJavaScriptInvocation> invocations = flushJavaScript();
+        Assertions.assertEquals(1, invocations.size());
+        String js = invocations.get(0).getInvocation().getExpression();
+        Assertions.assertTrue(js.contains("setTimeout(2000)"));
+        Assertions.assertFalse(js.contains("setTimeout(1000)"));
+        Assertions.assertTrue(js.contains("register()"));
+
+        // Unchanged values are not sent again
+        idle.setTimeout(2000);
+        idle.setUpdateCss(false);
+        Assertions.assertTrue(flushJavaScript().isEmpty());
+    }
+
+    @Test
+    public void testRetrackClientCalls() {
+        testUI = TestSession.createUI();
+        Idle idle = Idle.track(testUI, 1000);
+        idle.setCrossTab(true);
+        flushJavaScript();
+
+        // Pending calls are dropped, the client resets on unregister
+        idle.setMinimumDwellTime(500);
+        idle.untrackUI();
+        List<PendingJavaScriptInvocation> invocations = flushJavaScript();
+        Assertions.assertEquals(1, invocations.size());
+        String js = invocations.get(0).getInvocation().getExpression();
+        Assertions.assertTrue(js.contains("idle.unregister();"), js);
+        Assertions.assertFalse(js.contains("setMinimumDwellTime"), js);
+
+        // Register comes first, the client starts from the defaults
+        Idle.track(testUI, 1000);
+        invocations = flushJavaScript();
+        Assertions.assertEquals(1, invocations.size());
+        js = invocations.get(0).getInvocation().getExpression();
+        int register = js.indexOf("idle.register();");
+        Assertions.assertTrue(register >= 0 && register < js.indexOf("idle.setTimeout(1000);"), js);
+        Assertions.assertFalse(js.contains("setCrossTab"), js);
+    }
+
+    @Test
+    public void testEventCoalescing() {
+        useManualWheel();
+        testUI = TestSession.createUI();
+        Idle idle = Idle.track(testUI);
+        idle.setEventCoalescing(200);
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger inactive = new AtomicInteger();
+        idle.addUserActiveListener(e -> active.incrementAndGet());
+        idle.addUserInactiveListener(e -> inactive.incrementAndGet());
+
+        // Flapping is reported once, with the final state
+        TestSession.fireClientEvent(testUI, "user-inactive");
+        TestSession.fireClientEvent(testUI, "user-active");
+        advance(100);
+        TestSession.fireClientEvent(testUI, "user-inactive");
+        Assertions.assertEquals(0, inactive.get());
+        advance(200);
+        Assertions.assertEquals(0, active.get());
+        Assertions.assertEquals(1, inactive.get());
+        Assertions.assertFalse(idle.isUserActive());
+
+        // Returning to the reported state is not reported at all
+        TestSession.fireClientEvent(testUI, "user-active");
+        TestSession.fireClientEvent(testUI, "user-inactive");
+        advance(300);
+        Assertions.assertEquals(0, active.get());
+        Assertions.assertEquals(1, inactive.get());
+    }
+
+    @Test
+    public void testCrossTabSessionState() {
+        TestSession session = new TestSession();
+        UI reporting = new UI();
+        UI other = new UI();
+        reporting.getInternals().setSession(session);
+        other.getInternals().setSession(session);
+        Idle.track(reporting).setCrossTab(true);
+        Idle otherIdle = Idle.track(other);
+        otherIdle.setCrossTab(true);
+        AtomicInteger inactive = new AtomicInteger();
+        otherIdle.addUserInactiveListener(e -> inactive.incrementAndGet());
+
+        // Reported state is shared with the other UIs of the session
+        TestSession.fireClientEvent(reporting, "user-inactive");
+        Assertions.assertEquals(1, inactive.get());
+        Assertions.assertFalse(otherIdle.isUserActive());
+        Assertions.assertFalse(Idle.isSessionUserActive(session));
+
+        TestSession.fireClientEvent(reporting, "user-active");
+        Assertions.assertTrue(otherIdle.isUserActive());
+        Assertions.assertTrue(Idle.isSessionUserActive(session));
+    }
+
+    @Test
+    public void testAsyncDispatch() throws InterruptedException {
+        testUI = TestSession.createUI();
+        Idle idle = Idle.track(testUI);
+        List<Runnable> tasks = new ArrayList<>();
+        idle.setListenerExecutor(tasks::add);
+        Assertions.assertTrue(idle.isAsyncDispatch());
+        AtomicInteger inactive = new AtomicInteger();
+        List<UI> uis = new ArrayList<>();
+        idle.addUserInactiveListener(e -> {
+            throw new IllegalStateException("Failing listener");
+        });
+        idle.addUserInactiveListener(e -> {
+            inactive.incrementAndGet();
+            uis.add(e.getUI());
+        });
+
+        // Listeners are only submitted on the request thread
+        TestSession.fireClientEvent(testUI, "user-inactive");
+        Assertions.assertEquals(2, tasks.size());
+        Assertions.assertEquals(0, inactive.get());
+
+        // A failing listener does not prevent the others
+        tasks.forEach(Runnable::run);
+        Assertions.assertEquals(1, inactive.get());
+        Assertions.assertEquals(testUI, uis.get(0));
+
+        // Default executor
+        idle.setAsyncDispatch(true);
+        CountDownLatch active = new CountDownLatch(1);
+        idle.addUserActiveListener(e -> active.countDown());
+        TestSession.fireClientEvent(testUI, "user-active");
+        Assertions.assertTrue(active.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testScriptFree() {
+        useManualWheel();
+        testUI = TestSession.createUI();
+        testUI.doInit(null, 3, "ROOT");
+        testUI.getSession().addUI(testUI);
+        VaadinRequest uidl = request("uidl", false);
+        VaadinRequest heartbeat = request("heartbeat", false);
+        VaadinRequest poll = request("uidl", true);
+        Idle idle = Idle.trackRequests(testUI, 300);
+        Assertions.assertTrue(idle.isScriptFree());
+        Assertions.assertTrue(flushJavaScript().isEmpty());
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger inactive = new AtomicInteger();
+        idle.addUserActiveListener(e -> active.incrementAndGet());
+        idle.addUserInactiveListener(e -> inactive.incrementAndGet());
+
+        // Requests keep the user active
+        RequestActivity.Interceptor interceptor = new RequestActivity.Interceptor();
+        for (int i = 0; i < 4; i++) {
+            advance(250);
+            interceptor.requestEnd(uidl, null, testUI.getSession());
+        }
+        Assertions.assertEquals(0, inactive.get());
+        Assertions.assertTrue(idle.isUserActive());
+
+        // Heartbeats and polls do not
+        advance(100);
+        interceptor.requestEnd(heartbeat, null, testUI.getSession());
+        interceptor.requestEnd(poll, null, testUI.getSession());
+        advance(150);
+        Assertions.assertEquals(0, inactive.get());
+        interceptor.requestEnd(heartbeat, null, testUI.getSession());
+        interceptor.requestEnd(poll, null, testUI.getSession());
+        advance(100);
+        Assertions.assertEquals(1, inactive.get());
+        Assertions.assertFalse(idle.isUserActive());
+
+        interceptor.requestEnd(uidl, null, testUI.getSession());
+        Assertions.assertEquals(1, active.get());
+        Assertions.assertTrue(idle.isUserActive());
+
+        idle.untrackUI();
+        Assertions.assertEquals(0, RequestActivity.get(testUI.getSession(), 3));
+    }
+
+    @Test
+    public void testTelemetry() {
+        testUI = TestSession.createUI();
+        Idle idle = Idle.track(testUI);
+        idle.setTelemetryCapacity(3);
+        Assertions.assertNull(idle.getTelemetry());
+        idle.setTelemetryInterval(10000);
+        Assertions.assertTrue(flushJavaScript().get(0).getInvocation().getExpression()
+                .contains("setTelemetry(10000, 60000)"));
+        ActivityTelemetry telemetry = idle.getTelemetry();
+
+        // Buckets 100 and 101, then more for bucket 101
+        fireTelemetry(4, 100, 60000, 10, 2, 101, 5000, 3, 0);
+        fireTelemetry(4, 101, 1000, 1, 1);
+        Assertions.assertEquals(2, telemetry.size());
+        ActivityTelemetry.Bucket bucket = telemetry.getBuckets().get(1);
+        Assertions.assertEquals(Instant.ofEpochMilli(101 * 60000L), bucket.getStart());
+        Assertions.assertEquals(6000, bucket.getActiveMillis());
+        Assertions.assertEquals(4, bucket.getInputCount(ActivitySource.MOUSE));
+        Assertions.assertEquals(1, bucket.getInputCount(ActivitySource.KEYBOARD));
+        Instant from = Instant.ofEpochMilli(100 * 60000L);
+        Instant to = Instant.ofEpochMilli(102 * 60000L);
+        Assertions.assertEquals(66000, telemetry.getActiveMillis(from, to));
+        Assertions.assertEquals(14, telemetry.getInputCount(ActivitySource.MOUSE, from, to));
+
+        // Ring buffer drops the oldest buckets
+        fireTelemetry(4, 102, 0, 1, 0, 103, 0, 1, 0);
+        Assertions.assertEquals(3, telemetry.size());
+        Assertions.assertEquals(Instant.ofEpochMilli(101 * 60000L),
+                telemetry.getBuckets().get(0).getStart());
+        Assertions.assertEquals(0, telemetry.getActiveMillis(from, from.plusSeconds(60)));
+    }
+
+    @Test
+    public void testIdleLevels() {
+        testUI = TestSession.createUI();
+        Idle idle = Idle.track(testUI);
+        idle.setIdleLevels(60000, 600000, 1800000);
+        Assertions.assertTrue(flushJavaScript().get(0).getInvocation().getExpression()
+                .contains("setLevels([60000,600000,1800000])"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> idle.setIdleLevels(2000, 1000));
+
+        List<Integer> changes = new ArrayList<>();
+        AtomicInteger loggedOut = new AtomicInteger();
+        idle.addUserLevelListener(e -> changes.add(e.getLevel()));
+        idle.addUserLevelListener(3, e -> loggedOut.incrementAndGet());
+
+        fireLevel(1);
+        fireLevel(2);
+        fireLevel(2);
+        fireLevel(3);
+        fireLevel(0);
+        Assertions.assertEquals(List.of(1, 2, 3, 0), changes);
+        Assertions.assertEquals(1, loggedOut.get());
+        Assertions.assertEquals(0, idle.getIdleLevel());
+    }
+
+    @Test
+    public void testVisibility() {
+        testUI = TestSession.createUI();
+        Idle idle = Idle.track(testUI);
+        idle.setVisibilityPolicy(VisibilityPolicy.PAUSE);
+        List<Boolean> changes = new ArrayList<>();
+        idle.addVisibilityListener(e -> changes.add(e.isVisible()));
+        String js = flushJavaScript().get(0).getInvocation().getExpression();
+        Assertions.assertTrue(js.contains("setVisibilityPolicy(\"pause\")"));
+        Assertions.assertTrue(js.contains("setReportVisibility(true)"));
+
+        TestSession.fireClientEvent(testUI, "user-hidden");
+        Assertions.assertFalse(idle.isPageVisible());
+        TestSession.fireClientEvent(testUI, "user-visible");
+        Assertions.assertTrue(idle.isPageVisible());
+        Assertions.assertEquals(List.of(false, true), changes);
+    }
+
+    @Test
+    public void testHibernation() {
+        useManualWheel();
+        testUI = TestSession.createUI();
+        Idle idle = Idle.track(testUI);
+        idle.setHibernationThreshold(200);
+        List<String> rows = new ArrayList<>(List.of("a", "b", "c"));
+        AtomicInteger rebuilt = new AtomicInteger();
+        idle.addHibernatable(rowsHibernatable(rows));
+        idle.addHibernatable(Hibernatable.of(() -> { }, rebuilt::incrementAndGet));
+        List<Integer> sizeOnActive = new ArrayList<>();
+        idle.addUserActiveListener(e -> sizeOnActive.add(rows.size()));
+
+        TestSession.fireClientEvent(testUI, "user-inactive");
+        advance(100);
+        Assertions.assertFalse(idle.isHibernated());
+        advance(200);
+        Assertions.assertTrue(idle.isHibernated());
+        Assertions.assertTrue(rows.isEmpty());
+        Assertions.assertTrue(idle.getReclaimedBytes() > 0);
+        Assertions.assertEquals(idle.getReclaimedBytes(), Idle.getTotalReclaimedBytes());
+
+        // Restored before the listeners
+        TestSession.fireClientEvent(testUI, "user-active");
+        Assertions.assertFalse(idle.isHibernated());
+        Assertions.assertEquals(List.of("a", "b", "c"), rows);
+        Assertions.assertEquals(List.of(3), sizeOnActive);
+        Assertions.assertEquals(1, rebuilt.get());
+        Assertions.assertEquals(0, idle.getReclaimedBytes());
+
+        // Activity before the threshold cancels hibernation
+        TestSession.fireClientEvent(testUI, "user-inactive");
+        TestSession.fireClientEvent(testUI, "user-active");
+        advance(300);
+        Assertions.assertFalse(idle.isHibernated());
+
+        // Untracking restores, as the components may move to another UI
+        TestSession.fireClientEvent(testUI, "user-inactive");
+        advance(300);
+        Assertions.assertTrue(idle.isHibernated());
+        idle.untrackUI();
+        Assertions.assertEquals(3, rows.size());
+        Assertions.assertEquals(2, rebuilt.get());
+    }
+
+    @Test
+    public void testCoalescedHibernation() {
+        useManualWheel();
+        testUI = TestSession.createUI();
+        Idle idle = Idle.track(testUI);
+        idle.setEventCoalescing(200);
+        idle.setHibernationThreshold(500);
+        AtomicInteger hibernated = new AtomicInteger();
+        AtomicInteger restored = new AtomicInteger();
+        idle.addHibernatable(Hibernatable.of(hibernated::incrementAndGet, restored::incrementAndGet));
+        AtomicInteger active = new AtomicInteger();
+        idle.addUserActiveListener(e -> active.incrementAndGet());
+
+        TestSession.fireClientEvent(testUI, "user-inactive");
+        advance(200);
+        advance(500);
+        Assertions.assertTrue(idle.isHibernated());
+
+        // Restored without waiting for the window
+        TestSession.fireClientEvent(testUI, "user-active");
+        Assertions.assertFalse(idle.isHibernated());
+        Assertions.assertEquals(1, restored.get());
+
+        // Flapping back hibernates again once the window has passed
+        TestSession.fireClientEvent(testUI, "user-inactive");
+        advance(200);
+        Assertions.assertFalse(idle.isUserActive());
+        Assertions.assertEquals(0, active.get());
+        Assertions.assertFalse(idle.isHibernated());
+        advance(500);
+        Assertions.assertTrue(idle.isHibernated());
+        Assertions.assertEquals(2, hibernated.get());
+        idle.untrackUI();
+    }
+
+    @Test
+    public void testHibernationOnPassivation() throws Exception {
+        useManualWheel();
+        testUI = TestSession.createUI();
+        WrappedSession httpSession = ((TestSession) testUI.getSession()).storeInHttpSession();
+        Idle idle = Idle.track(testUI);
+        Map<String, byte[]> stored = new HashMap<>();
+        idle.setHibernationStore(new HibernationStore() {
+            @Override
+            public void put(String key, byte[] data) {
+                stored.put(key, data);
+            }
+
+            @Override
+            public byte[] get(String key) {
+                return stored.get(key);
+            }
+
+            @Override
+            public byte[] take(String key) {
+                return stored.remove(key);
+            }
+        });
+        idle.setHibernationThreshold(200);
+        List<String> rows = new ArrayList<>(List.of("a", "b", "c"));
+        idle.addHibernatable(rowsHibernatable(rows));
+        TestSession.fireClientEvent(testUI, "user-inactive");
+        advance(300);
+        Assertions.assertEquals(1, stored.size());
+        SessionBinding binding = (SessionBinding) httpSession.getAttribute(SessionBinding.ATTRIBUTE);
+        HttpSessionEvent event = new HttpSessionEvent(Mockito.mock(HttpSession.class));
+
+        // Written out with the session, nothing is left in the store
+        binding.sessionWillPassivate(event);
+        Assertions.assertTrue(stored.isEmpty());
+        Assertions.assertEquals(0, idle.getReclaimedBytes());
+        Assertions.assertTrue(idle.isHibernated());
+        UI copy = (UI) deserialize(serialize(testUI));
+        Assertions.assertTrue(Idle.get(copy).isHibernated());
+        Idle.get(copy).untrackUI();
+
+        // Back in the store when activated in memory
+        binding.sessionDidActivate(event);
+        Assertions.assertEquals(1, stored.size());
+        Assertions.assertTrue(idle.getReclaimedBytes() > 0);
+        TestSession.fireClientEvent(testUI, "user-active");
+        Assertions.assertEquals(List.of("a", "b", "c"), rows);
+        Assertions.assertTrue(stored.isEmpty());
+    }
+
+    @Test
+    public void testHibernationStores(@TempDir Path directory) throws IOException {
+        for (HibernationStore store : List.of(HibernationStore.offHeap(), HibernationStore.directory(directory))) {
+            store.put("state", new byte[]{1, 2, 3});
+            // Reading for serialization leaves the data in place
+            Assertions.assertArrayEquals(new byte[]{1, 2, 3}, store.get("state"));
+            Assertions.assertArrayEquals(new byte[]{1, 2, 3}, store.get("state"));
+            Assertions.assertArrayEquals(new byte[]{1, 2, 3}, store.take("state"));
+            Assertions.assertNull(store.get("state"));
+            Assertions.assertNull(store.take("state"));
+        }
+    }
+
+    @Test
+    public void testInactivePolling() {
+        testUI = TestSession.createUI();
+        testUI.setPollInterval(1000);
+        Idle idle = Idle.track(testUI);
+        idle.setInactivePollInterval(60000);
+
+        TestSession.fireClientEvent(testUI, "user-inactive");
+        Assertions.assertEquals(60000, testUI.getPollInterval());
+        TestSession.fireClientEvent(testUI, "user-active");
+        Assertions.assertEquals(1000, testUI.getPollInterval());
+
+        // Stop polling, and keep an interval set by the application
+        idle.setInactivePollInterval(-1);
+        TestSession.fireClientEvent(testUI, "user-inactive");
+        Assertions.assertEquals(-1, testUI.getPollInterval());
+        testUI.setPollInterval(5000);
+        TestSession.fireClientEvent(testUI, "user-active");
+        Assertions.assertEquals(5000, testUI.getPollInterval());
+    }
+
+    @Test
+    public void testCoalescedPolling() {
+        useManualWheel();
+        testUI = TestSession.createUI();
+        Mockito.when(testUI.getSession().getService().ensurePushAvailable()).thenReturn(true);
+        testUI.getPushConfiguration().setPushMode(PushMode.AUTOMATIC);
+        testUI.setPollInterval(1000);
+        Idle idle = Idle.track(testUI);
+        idle.setEventCoalescing(200);
+        idle.setInactivePollInterval(60000);
+        idle.setPushThrottleInterval(1000);
+        List<Integer> intervalOnActive = new ArrayList<>();
+        idle.addUserActiveListener(e -> intervalOnActive.add(testUI.getPollInterval()));
+
+        TestSession.fireClientEvent(testUI, "user-inactive");
+        advance(200);
+        Assertions.assertEquals(60000, testUI.getPollInterval());
+        Assertions.assertEquals(PushMode.MANUAL, testUI.getPushConfiguration().getPushMode());
+
+        // Flapping back slows down again once the window has passed
+        TestSession.fireClientEvent(testUI, "user-active");
+        Assertions.assertEquals(1000, testUI.getPollInterval());
+        Assertions.assertEquals(PushMode.AUTOMATIC, testUI.getPushConfiguration().getPushMode());
+        TestSession.fireClientEvent(testUI, "user-inactive");
+        advance(200);
+        Assertions.assertEquals(60000, testUI.getPollInterval());
+        Assertions.assertEquals(PushMode.MANUAL, testUI.getPushConfiguration().getPushMode());
+
+        // Restored once, before the listeners
+        TestSession.fireClientEvent(testUI, "user-active");
+        testUI.setPollInterval(5000);
+        advance(200);
+        Assertions.assertEquals(List.of(5000), intervalOnActive);
+        Assertions.assertEquals(PushMode.AUTOMATIC, testUI.getPushConfiguration().getPushMode());
+        idle.untrackUI();
+    }
+
+    @Test
+    public void testPushThrottling() {
+        testUI = TestSession.createUI();
+        Mockito.when(testUI.getSession().getService().ensurePushAvailable()).thenReturn(true);
+        testUI.getPushConfiguration().setPushMode(PushMode.AUTOMATIC);
+        Idle idle = Idle.track(testUI);
+        idle.setPushThrottleInterval(1000);
+
+        TestSession.fireClientEvent(testUI, "user-inactive");
+        Assertions.assertEquals(PushMode.MANUAL, testUI.getPushConfiguration().getPushMode());
+        TestSession.fireClientEvent(testUI, "user-active");
+        Assertions.assertEquals(PushMode.AUTOMATIC, testUI.getPushConfiguration().getPushMode());
+
+        // Disabling while inactive restores the push mode
+        TestSession.fireClientEvent(testUI, "user-inactive");
+        idle.setPushThrottleInterval(0);
+        Assertions.assertEquals(PushMode.AUTOMATIC, testUI.getPushConfiguration().getPushMode());
+    }
+
+    @Test
+    public void testPushRelease() {
+        useManualWheel();
+        testUI = TestSession.createUI();
+        Mockito.when(testUI.getSession().getService().ensurePushAvailable()).thenReturn(true);
+        testUI.getPushConfiguration().setPushMode(PushMode.AUTOMATIC);
+        Idle idle = Idle.track(testUI);
+        idle.setPushThrottleInterval(1000);
+        idle.setPushReleaseThreshold(200);
+
+        TestSession.fireClientEvent(testUI, "user-inactive");
+        advance(100);
+        Assertions.assertFalse(idle.isPushReleased());
+        advance(200);
+        Assertions.assertTrue(idle.isPushReleased());
+        Assertions.assertEquals(1, Idle.getPushReleasedUICount());
+        Assertions.assertEquals(PushMode.DISABLED, testUI.getPushConfiguration().getPushMode());
+
+        // The original mode is restored through the throttled one
+        TestSession.fireClientEvent(testUI, "user-active");
+        Assertions.assertFalse(idle.isPushReleased());
+        Assertions.assertEquals(PushMode.AUTOMATIC, testUI.getPushConfiguration().getPushMode());
+        idle.untrackUI();
+    }
+
+    @Test
+    public void testPresenceQueries() {
+        useManualWheel();
+        testUI = TestSession.createUI();
+        Idle idle = Idle.track(testUI);
+        idle.addUserInactiveListener(e -> {
+        });
+        int inactive = Idle.getInactiveUICount();
+        TestSession.fireClientEvent(testUI, "user-inactive");
+        Assertions.assertEquals(inactive + 1, Idle.getInactiveUICount());
+        advance(300);
+        Assertions.assertEquals(Duration.ofMillis(300), idle.getTimeInState());
+        Assertions.assertTrue(Idle.countInState(false, Duration.ofMillis(300)) >= 1);
+
+        List<Idle> found = new ArrayList<>();
+        Idle.forEachInState(false, Duration.ofMillis(300), found::add);
+        Assertions.assertTrue(found.contains(idle));
+        found.clear();
+        Idle.forEachInState(false, Duration.ofMillis(301), found::add);
+        Assertions.assertFalse(found.contains(idle));
+        Assertions.assertEquals(Optional.of(testUI), idle.getUI());
+
+        idle.untrackUI();
+        Assertions.assertEquals(inactive, Idle.getInactiveUICount());
+        Assertions.assertEquals(Duration.ZERO, idle.getTimeInState());
+
+        // A new UI takes the freed index slot, which the old one must not see
+        UI other = TestSession.createUI();
+        Idle reused = Idle.track(other);
+        int active = Idle.getActiveUICount();
+        Assertions.assertEquals(Duration.ZERO, idle.getTimeInState());
+        TestSession.fireClientEvent(testUI, "user-inactive");
+        Assertions.assertEquals(active, Idle.getActiveUICount());
+        Assertions.assertEquals(inactive, Idle.getInactiveUICount());
+        Assertions.assertTrue(reused.isUserActive());
+        reused.untrackUI();
+    }
+
+    private void fireLevel(int level) {
+        JsonObject data = Json.createObject();
+        data.put("event.detail", level);
+        TestSession.fireClientEvent(testUI, "user-level", data);
+    }
+
+    @Test
+    public void testActivitySources() {
+        testUI = TestSession.createUI();
+        Idle idle = Idle.track(testUI);
+        Assertions.assertEquals(EnumSet.of(ActivitySource.MOUSE, ActivitySource.KEYBOARD, ActivitySource.TOUCH),
+                idle.getActivitySources());
+        flushJavaScript();
+        idle.setActivitySources(ActivitySource.WHEEL, ActivitySource.TOUCH);
+        Assertions.assertEquals(EnumSet.of(ActivitySource.TOUCH, ActivitySource.WHEEL), idle.getActivitySources());
+        Assertions.assertTrue(flushJavaScript().get(0).getInvocation().getExpression()
+                .contains("setActivitySources([\"TOUCH\",\"WHEEL\"])"));
+        Assertions.assertThrows(IllegalArgumentException.class, idle::setActivitySources);
+    }
+
+    @Test
+    public void testTransitionDetails() {
+        Idle idle = Idle.track(testUI);
+        List<Idle.UserActiveEvent> activeEvents = new ArrayList<>();
+        List<Idle.UserInactiveEvent> inactiveEvents = new ArrayList<>();
+        List<Idle> activeSources = new ArrayList<>();
+        idle.addUserActiveListener(activeEvents::add);
+        idle.addUserActiveListener(e -> activeSources.add(e.getIdle()));
+        idle.addUserInactiveListener(inactiveEvents::add);
+        ElementListenerMap listeners = testUI.getElement().getNode().getFeature(ElementListenerMap.class);
+        Assertions.assertTrue(listeners.getExpressions("user-active").contains("event.detail.source"));
+        Assertions.assertTrue(listeners.getExpressions("user-inactive").contains("event.detail.idleTime"));
+
+        JsonObject data = Json.createObject();
+        data.put("event.detail.lastActivity", 1700000000000.0);
+        data.put("event.detail.idleTime", 5200);
+        TestSession.fireClientEvent(testUI, "user-inactive", data);
+        Idle.UserInactiveEvent inactive = inactiveEvents.get(0);
+        Assertions.assertEquals(Optional.of(Instant.ofEpochMilli(1700000000000L)), inactive.getLastActivity());
+        Assertions.assertEquals(Optional.of(Duration.ofMillis(5200)), inactive.getIdleDuration());
+
+        data = Json.createObject();
+        data.put("event.detail.lastActivity", 1700000060000.0);
+        data.put("event.detail.idleTime", 60000);
+        data.put("event.detail.source", 1);
+        TestSession.fireClientEvent(testUI, "user-active", data);
+        Idle.UserActiveEvent active = activeEvents.get(0);
+        Assertions.assertEquals(Optional.of(Instant.ofEpochMilli(1700000060000L)), active.getLastActivity());
+        Assertions.assertEquals(Optional.of(Duration.ofMinutes(1)), active.getIdleDuration());
+        Assertions.assertEquals(Optional.of(ActivitySource.KEYBOARD), active.getActivitySource());
+        Assertions.assertEquals(List.of(idle), activeSources);
+
+        // No details from an older client script
+        TestSession.fireClientEvent(testUI, "user-inactive");
+        Assertions.assertTrue(inactiveEvents.get(1).getLastActivity().isEmpty());
+        Assertions.assertTrue(inactiveEvents.get(1).getIdleDuration().isEmpty());
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        // Keep the measurement to the UI and Idle state only
+        Idle.setClientBundled(true);
+        try {
+            Div view = new Div();
+            testUI.add(view);
+            int uiBytes = serialize(testUI).length;
+            Idle idle = Idle.track(testUI, 3000);
+            idle.setServerTimeout(60000);
+            idle.setIdleLevels(3000, 30000);
+            idle.setWorkerTimer(true);
+            idle.setActivitySources(ActivitySource.TOUCH, ActivitySource.SCROLL);
+            idle.addUserActiveListener(e -> view.setText("active"));
+            idle.addUserInactiveListener(e -> view.setText("inactive"));
+            TestSession.fireClientEvent(testUI, "user-inactive");
+
+            byte[] data = serialize(testUI);
+            // About 5.3 kB, most of it class descriptors and the listener lambdas
+            Assertions.assertTrue(data.length - uiBytes < 6144, "Idle adds " + (data.length - uiBytes) + " bytes");
+
+            int tracked = Idle.getTrackedUICount();
+            UI copy = (UI) deserialize(data);
+            // Tracked on first use only
+            Assertions.assertEquals(tracked, Idle.getTrackedUICount());
+            Idle restored = Idle.get(copy);
+            Assertions.assertNotNull(restored);
+            Assertions.assertEquals(tracked + 1, Idle.getTrackedUICount());
+            Assertions.assertNotSame(idle, restored);
+            Assertions.assertSame(idle, Idle.get(testUI));
+            Assertions.assertEquals(3000, restored.getTimeout());
+            Assertions.assertEquals(60000, restored.getServerTimeout());
+            Assertions.assertTrue(restored.isWorkerTimer());
+            Assertions.assertEquals(EnumSet.of(ActivitySource.TOUCH, ActivitySource.SCROLL),
+                    restored.getActivitySources());
+            Assertions.assertFalse(restored.isUserActive());
+
+            // Listeners and DOM listeners are restored with the UI
+            Div restoredView = (Div) copy.getChildren().findFirst().orElseThrow();
+            Assertions.assertEquals("inactive", restoredView.getText());
+            TestSession.fireClientEvent(copy, "user-active");
+            Assertions.assertEquals("active", restoredView.getText());
+            Assertions.assertTrue(restored.isUserActive());
+            Assertions.assertEquals("inactive", view.getText());
+
+            restored.untrackUI();
+            Assertions.assertNull(Idle.get(copy));
+            Assertions.assertSame(idle, Idle.get(testUI));
+        } finally {
+            Idle.setClientBundled(false);
+        }
+    }
+
+    /**
+     * Replaces the shared timing wheel with one that only turns on
+     * {@link #advance(long)}.
+     */
+    private void useManualWheel() {
+        // The presence index is shared, so the time must not go back
+        // from that of the previous test, or from the real clock. Starting
+        // on a tick makes the deadlines expire exactly on time.
+        long tick = TimingWheel.DEFAULT_TICK_MS;
+        now = manualTime = (Math.max(manualTime, TimingWheel.shared().now()) / tick + 1) * tick;
+        wheel = new TimingWheel(TimingWheel.DEFAULT_TICK_MS, () -> now);
+        wheel.advanceTo(now);
+        TimingWheel.setShared(wheel);
+    }
+
+    private void advance(long ms) {
+        now += ms;
+        manualTime = now;
+        wheel.advanceTo(now);
+    }
+
+    /**
+     * Hibernatable moving the rows to the hibernated state. Created in a
+     * static context, so that it can be serialized with the UI.
+     */
+    private static Hibernatable rowsHibernatable(List<String> rows) {
+        return new Hibernatable() {
+            @Override
+            public Serializable hibernate() {
+                ArrayList<String> state = new ArrayList<>(rows);
+                rows.clear();
+                return state;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public void restore(Serializable state) {
+                rows.addAll((List<String>) state);
+            }
+        };
+    }
+
+    private static byte[] serialize(Object object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Object deserialize(byte[] data) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data))) {
+            return in.readObject();
+        }
+    }
+
+    private void fireTelemetry(double... values) {
+        JsonArray detail = Json.createArray();
+        for (double value : values) {
+            detail.set(detail.length(), value);
+        }
+        JsonObject data = Json.createObject();
+        data.put("event.detail", detail);
+        TestSession.fireClientEvent(testUI, "idle-telemetry", data);
+    }
+
+    private VaadinRequest request(String type, boolean poll) {
+        VaadinRequest request = Mockito.mock(VaadinRequest.class);
+        Mockito.when(request.getParameter(ApplicationConstants.REQUEST_TYPE_PARAMETER)).thenReturn(type);
+        Mockito.when(request.getParameter(ApplicationConstants.UI_ID_PARAMETER))
+                .thenReturn(String.valueOf(testUI.getUIId()));
+        if (poll) {
+            Mockito.when(request.getAttribute(RequestActivity.POLL_ATTRIBUTE)).thenReturn(Boolean.TRUE);
+        }
+        return request;
+    }
+
+    private List<PendingJavaScriptInvocation> flushJavaScript() {
+        testUI.getInternals().getStateTree().runExecutionsBeforeClientResponse();
+        return testUI.getInternals().dumpPendingJavaScriptInvocations();
+    }
+
 }
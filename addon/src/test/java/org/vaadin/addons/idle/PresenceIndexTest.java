@@ -0,0 +1,126 @@
+/*
+ * Copyright 2017 Sami Ekblad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.idle;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class PresenceIndexTest {
+
+    @Test
+    public void testCountsAndOrder() {
+        PresenceIndex<String> index = new PresenceIndex<>();
+        int a = index.add("a", true, 100);
+        int b = index.add("b", true, 200);
+        int c = index.add("c", true, 300);
+        index.update(b, "b", false, 400);
+        index.update(a, "a", false, 500);
+        index.update(c, "c", false, 600);
+        index.update(c, "c", true, 700);
+
+        Assertions.assertEquals(1, index.count(true));
+        Assertions.assertEquals(2, index.count(false));
+        Assertions.assertEquals(1, index.count(false, 450));
+        Assertions.assertEquals(2, index.count(false, 500));
+        Assertions.assertEquals(0, index.count(true, 699));
+        Assertions.assertEquals(500, index.getTime(a, "a"));
+
+        List<String> inactive = new ArrayList<>();
+        index.forEach(false, Long.MAX_VALUE, inactive::add);
+        Assertions.assertEquals(List.of("b", "a"), inactive);
+
+        // Unchanged state keeps the time
+        index.update(a, "a", false, 800);
+        Assertions.assertEquals(500, index.getTime(a, "a"));
+
+        index.remove(b, "b");
+        Assertions.assertEquals(1, index.count(false));
+        Assertions.assertEquals(Long.MIN_VALUE, index.getTime(b, "b"));
+        // The slot is reused
+        Assertions.assertEquals(b, index.add("d", false, 900));
+        index.remove(b, "b");
+        Assertions.assertEquals(2, index.count(false));
+    }
+
+    @Test
+    public void testReusedSlot() {
+        PresenceIndex<String> index = new PresenceIndex<>();
+        int a = index.add("a", true, 100);
+        index.remove(a, "a");
+        int b = index.add("b", true, 200);
+        Assertions.assertEquals(a, b);
+
+        // A stale slot does not reach the new value
+        index.update(a, "a", false, 300);
+        Assertions.assertEquals(1, index.count(true));
+        Assertions.assertEquals(0, index.count(false));
+        Assertions.assertEquals(Long.MIN_VALUE, index.getTime(a, "a"));
+        Assertions.assertEquals(200, index.getTime(b, "b"));
+        index.remove(a, "a");
+        Assertions.assertEquals(1, index.count(true));
+
+        index.update(b, "b", false, 400);
+        Assertions.assertEquals(400, index.getTime(b, "b"));
+        Assertions.assertEquals(1, index.count(false));
+    }
+
+    @Test
+    public void testCompactionMatchesScan() {
+        PresenceIndex<Integer> index = new PresenceIndex<>();
+        Random random = new Random(42);
+        int size = 1000;
+        Integer[] values = new Integer[size];
+        int[] slots = new int[size];
+        boolean[] active = new boolean[size];
+        long[] times = new long[size];
+        long now = 0;
+        for (int i = 0; i < size; i++) {
+            values[i] = i;
+            slots[i] = index.add(values[i], true, now);
+            active[i] = true;
+        }
+        for (int step = 0; step < 100_000; step++) {
+            now += random.nextInt(3);
+            int i = random.nextInt(size);
+            if (active[i] != random.nextBoolean()) {
+                active[i] = !active[i];
+                times[i] = now;
+                index.update(slots[i], values[i], active[i], now);
+            }
+        }
+        for (long time : new long[]{0, now / 3, now / 2, now}) {
+            int expected = 0;
+            for (int i = 0; i < size; i++) {
+                if (!active[i] && times[i] <= time) {
+                    expected++;
+                }
+            }
+            Assertions.assertEquals(expected, index.count(false, time));
+            int[] iterated = new int[1];
+            long[] previous = {Long.MIN_VALUE};
+            index.forEach(false, time, i -> {
+                Assertions.assertTrue(times[i] >= previous[0]);
+                previous[0] = times[i];
+                iterated[0]++;
+            });
+            Assertions.assertEquals(expected, iterated[0]);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2017 Sami Ekblad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.idle;
+
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.component.html.Span;
+import com.vaadin.flow.component.orderedlayout.VerticalLayout;
+import com.vaadin.flow.router.Route;
+import com.vaadin.flow.shared.communication.PushMode;
+
+/**
+ * Test view using websocket push, released when the user is inactive.
+ */
+@Route("push")
+public class PushView extends VerticalLayout {
+
+    private final Span status = new Span("Server-side state: User active");
+
+    public PushView() {
+        UI ui = UI.getCurrent();
+        ui.getPushConfiguration().setPushMode(PushMode.AUTOMATIC);
+
+        Idle idle = Idle.track(ui, 1000);
+        idle.setPushReleaseThreshold(1000);
+        idle.addUserActiveListener(e -> status.setText("Server-side state: User active"));
+        idle.addUserInactiveListener(e -> status.setText("Server-side state: User inactive"));
+
+        // For testing purposes
+        status.setTitle("status");
+
+        add(status);
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2017 Sami Ekblad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.idle;
+
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.dom.DomEvent;
+import com.vaadin.flow.function.DeploymentConfiguration;
+import com.vaadin.flow.internal.nodefeature.ElementListenerMap;
+import com.vaadin.flow.server.Command;
+import com.vaadin.flow.server.VaadinContext;
+import com.vaadin.flow.server.VaadinService;
+import com.vaadin.flow.server.VaadinSession;
+import com.vaadin.flow.server.WrappedSession;
+import com.vaadin.flow.server.startup.ApplicationConfiguration;
+import elemental.json.Json;
+import elemental.json.JsonObject;
+import org.mockito.Mockito;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Session for server-side unit tests. The session is always considered
+ * locked and access tasks are run immediately.
+ */
+public class TestSession extends VaadinSession {
+
+    private final Lock lock = new ReentrantLock();
+    private transient DeploymentConfiguration configuration;
+    private WrappedSession httpSession;
+
+    public TestSession() {
+        super(mockService());
+    }
+
+    private static VaadinService mockService() {
+        VaadinService service = Mockito.mock(VaadinService.class);
+        // Written with the UIs, as in production mode
+        ApplicationConfiguration configuration = Mockito.mock(ApplicationConfiguration.class);
+        Mockito.when(configuration.isProductionMode()).thenReturn(true);
+        VaadinContext context = Mockito.mock(VaadinContext.class);
+        Mockito.when(context.getAttribute(Mockito.eq(ApplicationConfiguration.class), Mockito.any()))
+                .thenReturn(configuration);
+        Mockito.when(service.getContext()).thenReturn(context);
+        return service;
+    }
+
+    /**
+     * Creates a new UI attached to a new test session.
+     *
+     * @return Attached UI
+     */
+    public static UI createUI() {
+        UI ui = new UI();
+        ui.getInternals().setSession(new TestSession());
+        return ui;
+    }
+
+    /**
+     * Stores this session in an in-memory HTTP session, like the servlet
+     * does for real sessions.
+     *
+     * @return The HTTP session
+     */
+    public WrappedSession storeInHttpSession() {
+        httpSession = new MemorySession();
+        return httpSession;
+    }
+
+    /**
+     * Fires a DOM event on the UI element, as if sent by the client.
+     *
+     * @param ui        UI to fire the event on
+     * @param eventType DOM event type
+     */
+    public static void fireClientEvent(UI ui, String eventType) {
+        fireClientEvent(ui, eventType, Json.createObject());
+    }
+
+    /**
+     * Fires a DOM event on the UI element, as if sent by the client.
+     *
+     * @param ui        UI to fire the event on
+     * @param eventType DOM event type
+     * @param eventData Event data sent by the client
+     */
+    public static void fireClientEvent(UI ui, String eventType, JsonObject eventData) {
+        ui.getElement().getNode().getFeature(ElementListenerMap.class)
+                .fireEvent(new DomEvent(ui.getElement(), eventType, eventData));
+    }
+
+    @Override
+    public WrappedSession getSession() {
+        return httpSession;
+    }
+
+    @Override
+    public DeploymentConfiguration getConfiguration() {
+        if (configuration == null) {
+            configuration = Mockito.mock(DeploymentConfiguration.class);
+        }
+        return configuration;
+    }
+
+    @Override
+    public Lock getLockInstance() {
+        return lock;
+    }
+
+    @Override
+    public boolean hasLock() {
+        return true;
+    }
+
+    @Override
+    public void unlock() {
+        // Nothing is pending, as access tasks are run immediately. Skips
+        // passing this session to the mocked service, which would keep it
+        // reachable through the stubbing state of Mockito.
+        lock.unlock();
+    }
+
+    @Override
+    public Future<Void> access(Command command) {
+        command.execute();
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * HTTP session keeping the attributes in a map. Not a mock, as Mockito
+     * would keep the attributes reachable through the recorded calls.
+     * Serialized with the session, like a session restored by the
+     * container.
+     */
+    private static final class MemorySession implements WrappedSession, Serializable {
+
+        private final Map<String, Object> attributes = new HashMap<>();
+
+        @Override
+        public int getMaxInactiveInterval() {
+            return 1800;
+        }
+
+        @Override
+        public Object getAttribute(String name) {
+            return attributes.get(name);
+        }
+
+        @Override
+        public void setAttribute(String name, Object value) {
+            attributes.put(name, value);
+        }
+
+        @Override
+        public Set<String> getAttributeNames() {
+            return attributes.keySet();
+        }
+
+        @Override
+        public void invalidate() {
+            attributes.clear();
+        }
+
+        @Override
+        public String getId() {
+            return "test";
+        }
+
+        @Override
+        public long getCreationTime() {
+            return 0;
+        }
+
+        @Override
+        public long getLastAccessedTime() {
+            return 0;
+        }
+
+        @Override
+        public boolean isNew() {
+            return false;
+        }
+
+        @Override
+        public void removeAttribute(String name) {
+            attributes.remove(name);
+        }
+
+        @Override
+        public void setMaxInactiveInterval(int interval) {
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2017 Sami Ekblad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.idle;
+
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.component.html.Span;
+import com.vaadin.flow.component.orderedlayout.VerticalLayout;
+import com.vaadin.flow.router.BeforeEvent;
+import com.vaadin.flow.router.HasUrlParameter;
+import com.vaadin.flow.router.OptionalParameter;
+import com.vaadin.flow.router.Route;
+
+/**
+ * Test view for the client timer. The worker timer is used with the
+ * parameter <code>worker</code>.
+ */
+@Route("timer")
+public class TimerView extends VerticalLayout implements HasUrlParameter<String> {
+
+    public static final int TIMEOUT = 2000;
+
+    private final Idle idle;
+
+    public TimerView() {
+        idle = Idle.track(UI.getCurrent(), TIMEOUT);
+        add(new Span("Inactive after " + TIMEOUT + " ms"));
+    }
+
+    @Override
+    public void setParameter(BeforeEvent event, @OptionalParameter String parameter) {
+        idle.setWorkerTimer("worker".equals(parameter));
+    }
+}
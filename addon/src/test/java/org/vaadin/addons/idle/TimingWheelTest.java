@@ -0,0 +1,114 @@
+/*
+ * Copyright 2017 Sami Ekblad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vaadin.addons.idle;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class TimingWheelTest {
+
+    private static final long TICK = 100;
+
+    @Test
+    public void testExpiryWithinOneTick() {
+        TimingWheel wheel = new TimingWheel(TICK);
+        Random random = new Random(42);
+        int count = 100_000;
+        long[] deadlines = new long[count];
+        long[] firedAt = new long[count];
+        AtomicLong now = new AtomicLong();
+        for (int i = 0; i < count; i++) {
+            // Spread over all levels of the wheel, up to about 5 days
+            deadlines[i] = (long) Math.pow(10, 2 + random.nextDouble() * 7);
+            int index = i;
+            wheel.schedule(deadlines[i], () -> firedAt[index] = now.get());
+        }
+        Assertions.assertEquals(count, wheel.size());
+
+        long end = 0;
+        for (long deadline : deadlines) {
+            end = Math.max(end, deadline);
+        }
+        for (long t = 0; t <= end + TICK; t += TICK) {
+            now.set(t);
+            wheel.advanceTo(t);
+        }
+
+        Assertions.assertEquals(0, wheel.size());
+        for (int i = 0; i < count; i++) {
+            Assertions.assertTrue(firedAt[i] >= deadlines[i], "Fired early");
+            Assertions.assertTrue(firedAt[i] < deadlines[i] + TICK, "Fired late");
+        }
+    }
+
+    @Test
+    public void testExtendAndCancel() {
+        TimingWheel wheel = new TimingWheel(TICK);
+        AtomicInteger fired = new AtomicInteger();
+        TimingWheel.Timeout extended = wheel.schedule(1000, fired::incrementAndGet);
+        TimingWheel.Timeout cancelled = wheel.schedule(1000, fired::incrementAndGet);
+
+        wheel.advanceTo(900);
+        extended.extend(5000);
+        cancelled.cancel();
+        wheel.advanceTo(4900);
+        Assertions.assertEquals(0, fired.get());
+
+        wheel.advanceTo(5000);
+        Assertions.assertEquals(1, fired.get());
+
+        // Expired timeout can be scheduled again
+        extended.extend(6000);
+        wheel.advanceTo(6000);
+        Assertions.assertEquals(2, fired.get());
+    }
+
+    @Test
+    public void testExtendEarlier() {
+        TimingWheel wheel = new TimingWheel(TICK);
+        AtomicInteger fired = new AtomicInteger();
+        TimingWheel.Timeout timeout = wheel.schedule(100_000, fired::incrementAndGet);
+        timeout.extend(500);
+        wheel.advanceTo(500);
+        Assertions.assertEquals(1, fired.get());
+    }
+
+    @Test
+    public void testSharedShutdown() {
+        TimingWheel.acquireShared();
+        TimingWheel.acquireShared();
+        TimingWheel wheel = TimingWheel.shared();
+        Assertions.assertTrue(wheel.isStarted());
+
+        // Stopped with the last service only
+        TimingWheel.releaseShared();
+        Assertions.assertTrue(wheel.isStarted());
+        long now = wheel.now();
+        TimingWheel.releaseShared();
+        Assertions.assertFalse(wheel.isStarted());
+
+        // Created again on use, in the same time base
+        TimingWheel recreated = TimingWheel.shared();
+        Assertions.assertNotSame(wheel, recreated);
+        Assertions.assertTrue(recreated.isStarted());
+        Assertions.assertTrue(recreated.now() >= now);
+    }
+}
@@ -54,4 +54,15 @@ public class IdleDemoPage {
     public void inactiveFor(int ms) {
         page.waitForTimeout(ms);
     }
+
+    public IdleDemoPage clickButton(String text) {
+        page.getByText(text).click();
+        return this;
+    }
+
+    /** Evaluates an expression with <code>idle</code> bound to the client instance. */
+    public Object evaluateIdle(String expression) {
+        return page.evaluate("() => { const idle = window.org_vaadin_addons_idle_Idle_instance; return "
+                + expression + "; }");
+    }
 }
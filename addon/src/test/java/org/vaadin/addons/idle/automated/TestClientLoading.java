@@ -0,0 +1,147 @@
+/*
+ * Copyright 2017 Sami Ekblad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.idle.automated;
+
+import com.microsoft.playwright.Browser;
+import com.microsoft.playwright.Page;
+import com.microsoft.playwright.Playwright;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.function.ToDoubleFunction;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.vaadin.addons.idle.Idle;
+
+/**
+ * Compares the first render of a tracked UI when the client files are
+ * loaded separately with JSLoader and when they are in the frontend
+ * bundle.
+ *
+ * @author Sami Ekblad
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class TestClientLoading {
+
+    /** Every path is loaded this many times and the median is reported. */
+    private static final int RUNS = 5;
+
+    /** Resolves to the page time when the client starts tracking. */
+    private static final String READY_SCRIPT = """
+            () => {
+                const idle = window.org_vaadin_addons_idle_Idle_instance;
+                return idle !== undefined && idle.tracking && performance.now();
+            }
+            """;
+
+    /** Collects the paint time and the bytes transferred for the page. */
+    private static final String MEASURE_SCRIPT = """
+            () => {
+                const paint = performance.getEntriesByName("first-contentful-paint")[0];
+                const navigation = performance.getEntriesByType("navigation")[0];
+                const resources = performance.getEntriesByType("resource");
+                const idleFiles = resources.filter(r => /\\/idle\\.(js|css)(\\?|$)/.test(r.name));
+                const bytes = list => list.reduce((sum, r) => sum + r.transferSize, 0);
+                // JSLoader adds a script for idle.js and a link for idle.css. The
+                // bundle is imported by the Vaadin client without elements.
+                const injected = [...document.querySelectorAll("script[src], link[href]")]
+                        .filter(e => /\\/idle\\.(js|css)(\\?|$)/.test(e.src || e.href));
+                return {
+                    firstRender: paint ? paint.startTime : -1,
+                    totalBytes: navigation.transferSize + bytes(resources),
+                    idleBytes: bytes(idleFiles),
+                    idleRequests: idleFiles.length,
+                    injected: injected.length
+                };
+            }
+            """;
+
+    @LocalServerPort
+    private int port; // Use the random HTTP port assigned to test
+
+    static Playwright playwright = Playwright.create();
+
+    @Test
+    public void testBundledClientLoading() {
+        Browser browser = playwright.chromium().launch();
+        Result loader = measure(browser, "timer");
+        Result bundled;
+        Idle.setClientBundled(true);
+        try {
+            bundled = measure(browser, "bundle");
+        } finally {
+            Idle.setClientBundled(false);
+        }
+        browser.close();
+        LoggerFactory.getLogger(TestClientLoading.class)
+                .info("JSLoader: {}, bundled: {}", loader, bundled);
+
+        // JSLoader injects the files after the UI has been created
+        String results = "JSLoader: " + loader + ", bundled: " + bundled;
+        Assertions.assertEquals(2, loader.injected(), results);
+        Assertions.assertTrue(loader.idleBytes() > 0, results);
+        Assertions.assertEquals(0, bundled.injected(), results);
+        Assertions.assertTrue(bundled.firstRender() > 0, results);
+        Assertions.assertTrue(bundled.ready() > 0, results);
+    }
+
+    /** Loads the path with a cold cache and returns the medians. */
+    private Result measure(Browser browser, String path) {
+        Result[] results = new Result[RUNS];
+        for (int i = 0; i < RUNS; i++) {
+            // Every page has its own context and cache
+            Page page = browser.newPage();
+            page.navigate("http://localhost:" + port + "/" + path);
+            double ready = ((Number) page.waitForFunction(READY_SCRIPT).jsonValue()).doubleValue();
+            @SuppressWarnings("unchecked")
+            Map<String, Number> values = (Map<String, Number>) page.evaluate(MEASURE_SCRIPT);
+            results[i] = new Result(values.get("firstRender").doubleValue(), ready,
+                    values.get("totalBytes").longValue(), values.get("idleBytes").longValue(),
+                    values.get("idleRequests").intValue(), values.get("injected").intValue());
+            page.context().close();
+        }
+        return new Result(median(results, Result::firstRender), median(results, Result::ready),
+                (long) median(results, Result::totalBytes), (long) median(results, Result::idleBytes),
+                (int) median(results, Result::idleRequests), (int) median(results, Result::injected));
+    }
+
+    private static double median(Result[] results, ToDoubleFunction<Result> value) {
+        double[] values = Arrays.stream(results).mapToDouble(value).sorted().toArray();
+        return values[values.length / 2];
+    }
+
+    /**
+     * Page load measurements.
+     *
+     * @param firstRender first contentful paint, in ms from navigation start
+     * @param ready when the client started tracking, in ms from navigation start
+     * @param totalBytes bytes transferred for the document and all resources
+     * @param idleBytes bytes transferred for separately loaded client files
+     * @param idleRequests number of separately loaded client files
+     * @param injected number of script and link elements added for the client files
+     */
+    private record Result(double firstRender, double ready, long totalBytes, long idleBytes, int idleRequests,
+            int injected) {
+
+        @Override
+        public String toString() {
+            return String.format("first render %.0f ms, tracking at %.0f ms, %d bytes in total, %d bytes in %d client files, %d injected elements",
+                    firstRender, ready, totalBytes, idleBytes, idleRequests, injected);
+        }
+    }
+}
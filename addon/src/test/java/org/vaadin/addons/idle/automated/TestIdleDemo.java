@@ -63,4 +63,21 @@ public class TestIdleDemo  {
         Assertions.assertEquals("Server-side state: User active", page.getStatusText());
         Assertions.assertEquals("useractive",page.getBodyClass());
     }
+
+    @Test
+    public void testRetrackStartsFromDefaults() {
+        // Configuration of the previous instance, including a channel
+        page.evaluateIdle("idle.setCrossTab(true), idle.setLevels([500]), idle.setMinimumDwellTime(60000)");
+        Assertions.assertEquals(true, page.evaluateIdle("idle.crossTab"));
+
+        page.clickButton("Disable idle tracking");
+        page.clickButton("Enable idle tracking");
+        page.inactiveFor(500);
+        Assertions.assertEquals(true, page.evaluateIdle("idle.tracking"));
+        Assertions.assertEquals(false, page.evaluateIdle("idle.crossTab"));
+        Assertions.assertEquals(true, page.evaluateIdle("idle.channel === null && idle.leader"));
+        Assertions.assertEquals(0, page.evaluateIdle("idle.levels.length"));
+        Assertions.assertEquals(0, page.evaluateIdle("idle.minimumDwellTime"));
+        Assertions.assertEquals(5000, page.evaluateIdle("idle.timeout"));
+    }
 }
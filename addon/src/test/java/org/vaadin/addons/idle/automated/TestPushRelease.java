@@ -0,0 +1,80 @@
+/*
+ * Copyright 2017 Sami Ekblad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.idle.automated;
+
+import com.microsoft.playwright.Browser;
+import com.microsoft.playwright.Page;
+import com.microsoft.playwright.Playwright;
+import com.microsoft.playwright.WebSocket;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.vaadin.addons.idle.Idle;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Checks that the push connections of idle UIs are closed and reopened on
+ * activity.
+ *
+ * @author Sami Ekblad
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class TestPushRelease {
+
+    private static final int PAGES = 3;
+
+    @LocalServerPort
+    private int port; // Use the random HTTP port assigned to test
+
+    static Playwright playwright = Playwright.create();
+
+    @Test
+    public void testPushReleasedWhenIdle() {
+        Browser browser = playwright.chromium().launch();
+        Set<WebSocket> open = ConcurrentHashMap.newKeySet();
+        List<Page> pages = new ArrayList<>();
+        for (int i = 0; i < PAGES; i++) {
+            Page page = browser.newPage();
+            page.onWebSocket(ws -> {
+                open.add(ws);
+                ws.onClose(open::remove);
+            });
+            page.navigate("http://localhost:" + port + "/push");
+            pages.add(page);
+        }
+        Page first = pages.get(0);
+        first.waitForCondition(() -> open.size() == PAGES);
+
+        // Inactive for the timeout and the release threshold
+        first.waitForCondition(() -> open.isEmpty(),
+                new Page.WaitForConditionOptions().setTimeout(10000));
+        Assertions.assertEquals(PAGES, Idle.getPushReleasedUICount());
+
+        // Activity reconnects only the active page
+        IdleDemoPage demoPage = new IdleDemoPage(first);
+        demoPage.clickBody();
+        first.waitForCondition(() -> open.size() == 1);
+        Assertions.assertEquals("Server-side state: User active", demoPage.getStatusText());
+        Assertions.assertEquals(PAGES - 1, Idle.getPushReleasedUICount());
+
+        browser.close();
+    }
+}
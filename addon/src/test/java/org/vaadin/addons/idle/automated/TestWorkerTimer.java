@@ -0,0 +1,113 @@
+/*
+ * Copyright 2017 Sami Ekblad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.idle.automated;
+
+import com.microsoft.playwright.Browser;
+import com.microsoft.playwright.Page;
+import com.microsoft.playwright.Playwright;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.vaadin.addons.idle.TimerView;
+
+/**
+ * Measures how late the user is reported inactive when the window timers
+ * are throttled like in a background tab.
+ *
+ * @author Sami Ekblad
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class TestWorkerTimer {
+
+    /**
+     * Window timers are delayed to the next multiple of this, like the
+     * once per minute alignment of intensively throttled tabs.
+     */
+    private static final int THROTTLE_STEP = 10000;
+
+    private static final String THROTTLE_SCRIPT = """
+            const nativeSetTimeout = window.setTimeout;
+            window.setTimeout = function (handler, delay, ...args) {
+                if (window.idleThrottle) {
+                    delay = Math.ceil(Math.max(delay || 0, 1) / %d) * %d;
+                }
+                return nativeSetTimeout.call(window, handler, delay, ...args);
+            };
+            """.formatted(THROTTLE_STEP, THROTTLE_STEP);
+
+    /** Latency allowed for the event loop and the DOM update after expiry. */
+    private static final int MAX_WORKER_LATENCY = 1000;
+
+    private static final String READY_SCRIPT = """
+            worker => {
+                const idle = window.org_vaadin_addons_idle_Idle_instance;
+                return idle !== undefined && idle.tracking && (idle.worker !== null) === worker;
+            }
+            """;
+
+    /** Restarts the timer with throttling on and resolves to the latency. */
+    private static final String MEASURE_SCRIPT = """
+            timeout => new Promise(resolve => {
+                const idle = window.org_vaadin_addons_idle_Idle_instance;
+                window.idleThrottle = true;
+                const start = performance.now();
+                idle.timerReset();
+                new MutationObserver((mutations, observer) => {
+                    if (document.body.getAttribute("idle") === "userinactive") {
+                        observer.disconnect();
+                        resolve(performance.now() - start - timeout);
+                    }
+                }).observe(document.body, { attributes: true, attributeFilter: ["idle"] });
+            })
+            """;
+
+    @LocalServerPort
+    private int port; // Use the random HTTP port assigned to test
+
+    static Playwright playwright = Playwright.create();
+
+    @Test
+    public void testWorkerTimerNotThrottled() {
+        Browser browser = playwright.chromium().launch();
+        double windowLatency = measure(browser, "timer", false, "");
+        double workerLatency = measure(browser, "timer/worker", true, "");
+        // Falls back to window timers when workers are not available
+        double fallbackLatency = measure(browser, "timer/worker", false, "delete window.Worker;");
+        browser.close();
+        String results = "Expiry latency: window timer %.0f ms, worker timer %.0f ms, fallback %.0f ms"
+                .formatted(windowLatency, workerLatency, fallbackLatency);
+        LoggerFactory.getLogger(TestWorkerTimer.class).info(results);
+
+        // The window timer waits for the next throttling step
+        double throttledLatency = THROTTLE_STEP - TimerView.TIMEOUT - MAX_WORKER_LATENCY;
+        Assertions.assertTrue(windowLatency > throttledLatency, results);
+        Assertions.assertTrue(workerLatency < MAX_WORKER_LATENCY, results);
+        Assertions.assertTrue(workerLatency < windowLatency, results);
+        Assertions.assertTrue(fallbackLatency > throttledLatency, results);
+    }
+
+    private double measure(Browser browser, String path, boolean worker, String setup) {
+        Page page = browser.newPage();
+        page.addInitScript(setup + THROTTLE_SCRIPT);
+        page.navigate("http://localhost:" + port + "/" + path);
+        page.waitForFunction(READY_SCRIPT, worker);
+        double latency = ((Number) page.evaluate(MEASURE_SCRIPT, TimerView.TIMEOUT)).doubleValue();
+        page.close();
+        return latency;
+    }
+}
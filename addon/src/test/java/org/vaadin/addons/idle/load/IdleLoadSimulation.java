@@ -0,0 +1,329 @@
+/*
+ * Copyright 2017 Sami Ekblad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.idle.load;
+
+import com.vaadin.flow.component.UI;
+import org.vaadin.addons.idle.Idle;
+import org.vaadin.addons.idle.TestSession;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Headless load simulation for Idle.
+ * <p>
+ * Creates a number of server-side UIs with Idle attached and fires
+ * synthetic <code>user-active</code> and <code>user-inactive</code> DOM
+ * events into them from worker threads. No browser or servlet container is
+ * needed. Reports retained heap per tracked UI, event throughput and GC
+ * activity during the run.
+ * <p>
+ * Configured with system properties:
+ * <ul>
+ * <li><code>idle.load.uis</code> Number of UIs (default 1000)</li>
+ * <li><code>idle.load.threads</code> Number of worker threads (default
+ * number of processors)</li>
+ * <li><code>idle.load.duration</code> Length of the event phase in
+ * milliseconds (default 2000)</li>
+ * <li><code>idle.load.rate</code> Target events per second for all threads
+ * together, 0 for as fast as possible (default 0)</li>
+ * <li><code>idle.load.listeners</code> Listeners per state and UI (default
+ * 1)</li>
+ * <li><code>idle.load.serverTimeout</code> Server timeout in milliseconds,
+ * 0 to disable (default 0)</li>
+ * </ul>
+ * Can be run from the test classpath with {@link #main(String[])} or via
+ * {@link IdleLoadSimulationTest}.
+ *
+ * @author Sami Ekblad
+ */
+public class IdleLoadSimulation {
+
+    private final int uiCount;
+    private final int threads;
+    private final long durationMs;
+    private final long rate;
+    private final int listeners;
+    private final long serverTimeout;
+
+    private final LongAdder events = new LongAdder();
+    private final LongAdder dispatched = new LongAdder();
+
+    /**
+     * Creates a simulation configured from system properties.
+     */
+    public IdleLoadSimulation() {
+        this(Integer.getInteger("idle.load.uis", 1000),
+                Integer.getInteger("idle.load.threads", Runtime.getRuntime().availableProcessors()),
+                Long.getLong("idle.load.duration", 2000),
+                Long.getLong("idle.load.rate", 0),
+                Integer.getInteger("idle.load.listeners", 1),
+                Long.getLong("idle.load.serverTimeout", 0));
+    }
+
+    /**
+     * Creates a simulation.
+     *
+     * @param uiCount       Number of UIs
+     * @param threads       Number of worker threads
+     * @param durationMs    Length of the event phase in milliseconds
+     * @param rate          Target events per second, 0 for unlimited
+     * @param listeners     Listeners per state and UI
+     * @param serverTimeout Server timeout in milliseconds, 0 to disable
+     */
+    public IdleLoadSimulation(int uiCount, int threads, long durationMs, long rate,
+            int listeners, long serverTimeout) {
+        if (uiCount <= 0 || threads <= 0) {
+            throw new IllegalArgumentException("UI and thread count must be positive");
+        }
+        this.uiCount = uiCount;
+        this.threads = Math.min(threads, uiCount);
+        this.durationMs = durationMs;
+        this.rate = rate;
+        this.listeners = listeners;
+        this.serverTimeout = serverTimeout;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        System.out.println(new IdleLoadSimulation().run());
+    }
+
+    /**
+     * Runs the simulation.
+     *
+     * @return Measured results
+     * @throws InterruptedException If interrupted while waiting for the
+     *                              worker threads
+     */
+    public Result run() throws InterruptedException {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+        UI[] uis = new UI[uiCount];
+        for (int i = 0; i < uiCount; i++) {
+            uis[i] = TestSession.createUI();
+        }
+        long heapBefore = usedHeap(memory);
+
+        Idle[] idles = new Idle[uiCount];
+        for (int i = 0; i < uiCount; i++) {
+            Idle idle = Idle.track(uis[i]);
+            for (int l = 0; l < listeners; l++) {
+                idle.addUserActiveListener(e -> dispatched.increment());
+                idle.addUserInactiveListener(e -> dispatched.increment());
+            }
+            if (serverTimeout > 0) {
+                idle.setServerTimeout(serverTimeout);
+            }
+            flush(uis[i]);
+            idles[i] = idle;
+        }
+        long heapAfter = usedHeap(memory);
+
+        long gcCount = gcCount();
+        long gcTime = gcTime();
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        LongAdder allocated = new LongAdder();
+        CountDownLatch done = new CountDownLatch(threads);
+        long start = System.nanoTime();
+        long end = start + TimeUnit.MILLISECONDS.toNanos(durationMs);
+        for (int t = 0; t < threads; t++) {
+            int first = t;
+            Thread worker = new Thread(() -> {
+                long allocatedBefore = allocatedBytes(threadBean);
+                fireEvents(uis, first, end);
+                allocated.add(allocatedBytes(threadBean) - allocatedBefore);
+                done.countDown();
+            }, "idle-load-" + t);
+            worker.setDaemon(true);
+            worker.start();
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+
+        Result result = new Result(uiCount, heapAfter - heapBefore, events.sum(),
+                dispatched.sum(), elapsed, gcCount() - gcCount, gcTime() - gcTime,
+                allocated.sum());
+
+        for (Idle idle : idles) {
+            idle.untrackUI();
+        }
+        return result;
+    }
+
+    private void fireEvents(UI[] uis, int first, long end) {
+        // Each worker owns every n:th UI, so a UI is only used by one thread
+        long interval = rate > 0 ? TimeUnit.SECONDS.toNanos(threads) / rate : 0;
+        long next = System.nanoTime();
+        boolean[] inactive = new boolean[uis.length];
+        int i = first;
+        while (true) {
+            long now = System.nanoTime();
+            if (now >= end) {
+                return;
+            }
+            if (interval > 0) {
+                if (now < next) {
+                    LockSupport.parkNanos(Math.min(next - now, end - now));
+                    continue;
+                }
+                next += interval;
+            }
+            inactive[i] = !inactive[i];
+            TestSession.fireClientEvent(uis[i], inactive[i] ? "user-inactive" : "user-active");
+            events.increment();
+            i += threads;
+            if (i >= uis.length) {
+                i = first;
+            }
+        }
+    }
+
+    private static void flush(UI ui) {
+        ui.getInternals().getStateTree().runExecutionsBeforeClientResponse();
+        ui.getInternals().dumpPendingJavaScriptInvocations();
+    }
+
+    private static long usedHeap(MemoryMXBean memory) {
+        // Several rounds to let the collector settle
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcTime() {
+        long time = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(0, gc.getCollectionTime());
+        }
+        return time;
+    }
+
+    private static long allocatedBytes(ThreadMXBean threadBean) {
+        if (threadBean instanceof com.sun.management.ThreadMXBean bean
+                && bean.isThreadAllocatedMemorySupported()) {
+            return bean.getCurrentThreadAllocatedBytes();
+        }
+        return 0;
+    }
+
+    /**
+     * Results of a simulation run.
+     */
+    public static final class Result {
+
+        private final int uiCount;
+        private final long retainedHeap;
+        private final long events;
+        private final long dispatched;
+        private final long elapsedNanos;
+        private final long gcCount;
+        private final long gcTimeMs;
+        private final long allocatedBytes;
+
+        Result(int uiCount, long retainedHeap, long events, long dispatched, long elapsedNanos,
+                long gcCount, long gcTimeMs, long allocatedBytes) {
+            this.uiCount = uiCount;
+            this.retainedHeap = retainedHeap;
+            this.events = events;
+            this.dispatched = dispatched;
+            this.elapsedNanos = elapsedNanos;
+            this.gcCount = gcCount;
+            this.gcTimeMs = gcTimeMs;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        /**
+         * @return Heap retained by Idle per tracked UI in bytes
+         */
+        public long getRetainedHeapPerUI() {
+            return retainedHeap / uiCount;
+        }
+
+        /**
+         * @return Number of events fired
+         */
+        public long getEvents() {
+            return events;
+        }
+
+        /**
+         * @return Number of listener invocations
+         */
+        public long getDispatched() {
+            return dispatched;
+        }
+
+        /**
+         * @return Events fired per second
+         */
+        public double getEventsPerSecond() {
+            return events * 1e9 / Math.max(1, elapsedNanos);
+        }
+
+        /**
+         * @return Number of garbage collections during the event phase
+         */
+        public long getGcCount() {
+            return gcCount;
+        }
+
+        /**
+         * @return Time spent in garbage collection during the event phase
+         */
+        public long getGcTimeMs() {
+            return gcTimeMs;
+        }
+
+        /**
+         * @return Bytes allocated per event by the worker threads, or 0 if
+         * not supported by the JVM
+         */
+        public long getAllocatedBytesPerEvent() {
+            return events > 0 ? allocatedBytes / events : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Idle load simulation: %d UIs, %d B retained per UI, "
+                            + "%d events (%.0f/s), %d listener calls, "
+                            + "%d GCs (%d ms), %d B allocated per event",
+                    uiCount, getRetainedHeapPerUI(), events, getEventsPerSecond(), dispatched,
+                    gcCount, gcTimeMs, getAllocatedBytesPerEvent());
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2017 Sami Ekblad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vaadin.addons.idle.load;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Runs {@link IdleLoadSimulation} with the configuration from system
+ * properties, and checks the results against a per-UI memory and per-event
+ * allocation budget. Tagged {@code load} and only run with the
+ * {@code load} profile; size a node with for example
+ * <code>mvn test -Pload -Didle.load.uis=50000 -Didle.load.duration=30000</code>.
+ */
+@Tag("load")
+public class IdleLoadSimulationTest {
+
+    private static final long MAX_RETAINED_PER_UI = 16 * 1024;
+    private static final long MAX_ALLOCATED_PER_EVENT = 1024;
+
+    @Test
+    public void testLoad() throws InterruptedException {
+        IdleLoadSimulation.Result result = new IdleLoadSimulation().run();
+        String summary = result.toString();
+        Assertions.assertTrue(result.getEvents() > 0, summary);
+        // Every event is a state change, so each one reaches its listeners
+        Assertions.assertTrue(result.getDispatched() >= result.getEvents(), summary);
+        Assertions.assertTrue(result.getRetainedHeapPerUI() < MAX_RETAINED_PER_UI, summary);
+        Assertions.assertTrue(result.getAllocatedBytesPerEvent() < MAX_ALLOCATED_PER_EVENT, summary);
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2017 Sami Ekblad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.vaadin.addons.idle.metrics;
+
+import com.vaadin.flow.component.UI;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.vaadin.addons.idle.Idle;
+import org.vaadin.addons.idle.IdleMetrics;
+import org.vaadin.addons.idle.TestSession;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class IdleMetricsTest {
+
+    @AfterEach
+    public void after() {
+        Idle.setMetrics(IdleMetrics.NOOP);
+    }
+
+    @Test
+    public void testJmxMetrics() throws Exception {
+        JmxIdleMetrics metrics = JmxIdleMetrics.install();
+        try {
+            UI ui = TestSession.createUI();
+            Idle idle = Idle.track(ui);
+            idle.addUserInactiveListener(e -> {
+            });
+            TestSession.fireClientEvent(ui, "user-inactive");
+
+            Assertions.assertEquals(1, metrics.getTrackedTotal());
+            Assertions.assertEquals(1, metrics.getInactiveTransitions());
+            Assertions.assertEquals(1, metrics.getDispatches());
+            Assertions.assertEquals(1, Arrays.stream(metrics.getDispatchTimeHistogram()).sum());
+            Assertions.assertTrue(metrics.getTrackedUIs() >= 1);
+
+            ObjectName name = new ObjectName(JmxIdleMetrics.OBJECT_NAME);
+            Assertions.assertEquals(1L, ManagementFactory.getPlatformMBeanServer()
+                    .getAttribute(name, "InactiveTransitions"));
+        } finally {
+            metrics.unregister();
+        }
+    }
+
+    @Test
+    public void testMicrometerMetrics() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        MicrometerIdleMetrics metrics = new MicrometerIdleMetrics();
+        metrics.bindTo(registry);
+        Idle.setMetrics(metrics);
+
+        UI ui = TestSession.createUI();
+        Idle idle = Idle.track(ui);
+        idle.addUserActiveListener(e -> {
+        });
+        TestSession.fireClientEvent(ui, "user-inactive");
+        TestSession.fireClientEvent(ui, "user-active");
+
+        Assertions.assertEquals(1, registry.get("idle.tracking").tag("event", "tracked").counter().count());
+        Assertions.assertEquals(1, registry.get("idle.transitions").tag("state", "active").counter().count());
+        Assertions.assertEquals(1, registry.get("idle.dispatch").tag("state", "active").timer().count());
+        Assertions.assertTrue(registry.get("idle.uis").tag("state", "tracked").gauge().value() >= 1);
+    }
+
+    @Test
+    public void testAsyncDispatchTime() {
+        JmxIdleMetrics metrics = JmxIdleMetrics.install();
+        try {
+            UI ui = TestSession.createUI();
+            Idle idle = Idle.track(ui);
+            List<Runnable> tasks = new ArrayList<>();
+            idle.setListenerExecutor(tasks::add);
+            idle.addUserInactiveListener(e -> sleep(20));
+            idle.addUserInactiveListener(e -> sleep(20));
+            TestSession.fireClientEvent(ui, "user-inactive");
+
+            // Submitting is not recorded as the listener time
+            Assertions.assertEquals(0, metrics.getDispatches());
+            tasks.get(0).run();
+            Assertions.assertEquals(0, metrics.getDispatches());
+            tasks.get(1).run();
+            Assertions.assertEquals(1, metrics.getDispatches());
+            Assertions.assertTrue(metrics.getDispatchTimeTotalNanos() >= TimeUnit.MILLISECONDS.toNanos(40));
+        } finally {
+            metrics.unregister();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2017 Sami Ekblad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.idle.presence;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.vaadin.flow.component.UI;
+import elemental.json.Json;
+import elemental.json.JsonArray;
+import elemental.json.JsonObject;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.vaadin.addons.idle.Idle;
+import org.vaadin.addons.idle.Presence;
+import org.vaadin.addons.idle.PresenceStore;
+import org.vaadin.addons.idle.TestSession;
+import org.vaadin.addons.idle.UserPresence;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class PresenceTest {
+
+    @Test
+    public void testAggregation() {
+        CountingStore store = new CountingStore(new InMemoryPresenceStore());
+        Presence node1 = new Presence(store, "node1", 0);
+        Presence node2 = new Presence(store, "node2", 0);
+        UI ui1 = TestSession.createUI();
+        UI ui2 = TestSession.createUI();
+        UI ui3 = TestSession.createUI();
+        node1.track(Idle.track(ui1), "alice");
+        node1.track(Idle.track(ui2), "alice");
+        node2.track(Idle.track(ui3), "alice");
+        node1.flush();
+        node2.flush();
+        Assertions.assertEquals(new UserPresence("alice", 3, 3), node1.get("alice"));
+
+        // A transition storm is published as one update with the final state
+        for (int i = 0; i < 100; i++) {
+            TestSession.fireClientEvent(ui1, "user-inactive");
+            TestSession.fireClientEvent(ui1, "user-active");
+        }
+        TestSession.fireClientEvent(ui1, "user-inactive");
+        TestSession.fireClientEvent(ui2, "user-inactive");
+        Assertions.assertEquals(new UserPresence("alice", 0, 2), node1.getLocal("alice"));
+        int updates = store.updates.get();
+        node1.flush();
+        Assertions.assertEquals(updates + 1, store.updates.get());
+        Assertions.assertTrue(node1.isUserActive("alice"));
+
+        TestSession.fireClientEvent(ui3, "user-inactive");
+        node2.flush();
+        Assertions.assertFalse(node2.isUserActive("alice"));
+
+        // Untracked UIs are no longer counted, and closing a node removes its UIs
+        Idle.get(ui1).untrackUI();
+        node1.flush();
+        Assertions.assertEquals(new UserPresence("alice", 0, 2), node2.get("alice"));
+        node1.close();
+        Assertions.assertEquals(new UserPresence("alice", 0, 1), node2.get("alice"));
+        node2.close();
+        Assertions.assertFalse(node2.get("alice").isPresent());
+    }
+
+    @Test
+    public void testFailedUpdateIsRetried() {
+        CountingStore store = new CountingStore(new InMemoryPresenceStore());
+        Presence presence = new Presence(store, "node", 0);
+        presence.track(Idle.track(TestSession.createUI()), "bob");
+        store.failing = true;
+        Assertions.assertThrows(RuntimeException.class, presence::flush);
+        store.failing = false;
+        presence.flush();
+        Assertions.assertEquals(new UserPresence("bob", 1, 1), presence.get("bob"));
+    }
+
+    @Test
+    public void testHttpStore() throws IOException {
+        InMemoryPresenceStore backend = new InMemoryPresenceStore();
+        HttpServer server = startStandIn(backend);
+        try {
+            URI uri = URI.create("http://localhost:" + server.getAddress().getPort() + "/presence/");
+            HttpPresenceStore store = new HttpPresenceStore(uri);
+            store.update("node1", List.of(new UserPresence("carol smith", 1, 2)));
+            store.update("node2", List.of(new UserPresence("carol smith", 0, 1)));
+            Assertions.assertEquals(new UserPresence("carol smith", 1, 3), backend.get("carol smith"));
+            Assertions.assertEquals(new UserPresence("carol smith", 1, 3), store.get("carol smith"));
+
+            store.update("node1", List.of(new UserPresence("carol smith", 0, 0)));
+            Assertions.assertEquals(new UserPresence("carol smith", 0, 1), store.get("carol smith"));
+            Assertions.assertFalse(store.get("nobody").isPresent());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    /**
+     * Starts a local stand-in of a presence service backed by the store.
+     */
+    private static HttpServer startStandIn(PresenceStore backend) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/presence/", exchange -> {
+            try (exchange) {
+                String[] path = exchange.getRequestURI().getRawPath().split("/");
+                String id = URLDecoder.decode(path[3], StandardCharsets.UTF_8);
+                if ("nodes".equals(path[2]) && "PUT".equals(exchange.getRequestMethod())) {
+                    JsonArray body = Json.instance().parse(new String(exchange.getRequestBody().readAllBytes(),
+                            StandardCharsets.UTF_8));
+                    List<UserPresence> users = new ArrayList<>();
+                    for (int i = 0; i < body.length(); i++) {
+                        JsonArray user = body.getArray(i);
+                        users.add(new UserPresence(user.getString(0),
+                                (int) user.getNumber(1), (int) user.getNumber(2)));
+                    }
+                    backend.update(id, users);
+                    exchange.sendResponseHeaders(204, -1);
+                } else if ("users".equals(path[2])) {
+                    UserPresence user = backend.get(id);
+                    JsonObject json = Json.createObject();
+                    json.put("active", user.getActiveUIs());
+                    json.put("tracked", user.getTrackedUIs());
+                    respond(exchange, json.toJson());
+                } else {
+                    exchange.sendResponseHeaders(404, -1);
+                }
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    @Test
+    public void testSerializedIdleIsNotCounted() throws Exception {
+        Presence presence = new Presence(new InMemoryPresenceStore(), "node", 0);
+        UI ui = new UI();
+        Idle idle = Idle.track(ui);
+        presence.track(idle, "dave");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(ui);
+        }
+        UI copy;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            copy = (UI) in.readObject();
+        }
+
+        // The counts stay with the original UI on this node
+        TestSession.fireClientEvent(copy, "user-inactive");
+        Assertions.assertEquals(1, presence.getLocal("dave").getActiveUIs());
+        TestSession.fireClientEvent(ui, "user-inactive");
+        Assertions.assertEquals(0, presence.getLocal("dave").getActiveUIs());
+        Idle.get(copy).untrackUI();
+        Assertions.assertEquals(1, presence.getLocal("dave").getTrackedUIs());
+        idle.untrackUI();
+        Assertions.assertEquals(0, presence.getLocal("dave").getTrackedUIs());
+    }
+
+    private static void respond(HttpExchange exchange, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static class CountingStore implements PresenceStore {
+
+        private final PresenceStore delegate;
+        private final AtomicInteger updates = new AtomicInteger();
+        private volatile boolean failing;
+
+        private CountingStore(PresenceStore delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void update(String nodeId, Collection<UserPresence> users) throws IOException {
+            if (failing) {
+                throw new IOException("Unavailable");
+            }
+            updates.incrementAndGet();
+            delegate.update(nodeId, users);
+        }
+
+        @Override
+        public UserPresence get(String userId) throws IOException {
+            return delegate.get(userId);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2017 Sami Ekblad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.idle;
+
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.server.VaadinSession;
+
+/**
+ * UIs for benchmarks, attached to a session that is always considered
+ * locked.
+ */
+final class BenchmarkUIs {
+
+    private BenchmarkUIs() {
+    }
+
+    /**
+     * Creates a new UI attached to a new session.
+     *
+     * @return UI with a session
+     */
+    static UI create() {
+        UI ui = new UI();
+        ui.getInternals().setSession(new VaadinSession(null) {
+            @Override
+            public boolean hasLock() {
+                return true;
+            }
+        });
+        return ui;
+    }
+
+    /**
+     * Runs the tasks queued for the client response and returns the number
+     * of JavaScript invocations that would be sent.
+     *
+     * @param ui UI
+     * @return Number of pending JavaScript invocations
+     */
+    static int flush(UI ui) {
+        ui.getInternals().getStateTree().runExecutionsBeforeClientResponse();
+        return ui.getInternals().dumpPendingJavaScriptInvocations().size();
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2017 Sami Ekblad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.idle;
+
+import com.vaadin.flow.component.UI;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dispatch of state change events to listeners. The listeners only
+ * consume the event, so this measures the overhead of Idle itself.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class DispatchBenchmark {
+
+    @Param({"1", "10", "100", "1000"})
+    public int listenerCount;
+
+    private Idle idle;
+
+    @Setup
+    public void setup(Blackhole bh) {
+        UI ui = BenchmarkUIs.create();
+        idle = Idle.track(ui);
+        for (int i = 0; i < listenerCount; i++) {
+            idle.addUserActiveListener(bh::consume);
+            idle.addUserInactiveListener(bh::consume);
+        }
+        BenchmarkUIs.flush(ui);
+    }
+
+    @TearDown
+    public void tearDown() {
+        idle.untrackUI();
+    }
+
+    @Benchmark
+    public void fireUserActive() {
+        idle.fireUserActive();
+    }
+
+    @Benchmark
+    public void fireUserInactive() {
+        idle.fireUserInactive();
+    }
+}
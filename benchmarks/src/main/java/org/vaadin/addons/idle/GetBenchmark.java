@@ -0,0 +1,84 @@
+/*
+ * Copyright 2017 Sami Ekblad.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaadin.addons.idle;
+
+import com.vaadin.flow.component.UI;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Registry lookups from many threads at once. Use <code>-t</code> to
+ * change the number of threads.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@Threads(8)
+@State(Scope.Benchmark)
+public class GetBenchmark {
+
+    @Param({"100", "10000"})
+    public int uiCount;
+
+    private UI[] uis;
+    private UI[] untracked;
+    private Idle[] idles;
+
+    @Setup
+    public void setup() {
+        uis = new UI[uiCount];
+        untracked = new UI[uiCount];
+        idles = new Idle[uiCount];
+        for (int i = 0; i < uiCount; i++) {
+            uis[i] = BenchmarkUIs.create();
+            untracked[i] = BenchmarkUIs.create();
+            idles[i] = Idle.track(uis[i]);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (Idle idle : idles) {
+            idle.untrackUI();
+        }
+    }
+
+    @Benchmark
+    public Idle get() {
+        return Idle.get(uis[ThreadLocalRandom.current().nextInt(uiCount)]);
+    }
+
+    @Benchmark
+    public Idle getUntracked() {
+        return Idle.get(untracked[ThreadLocalRandom.current().nextInt(uiCount)]);
+    }
+}
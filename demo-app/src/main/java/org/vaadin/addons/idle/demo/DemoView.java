@@ -26,6 +26,7 @@ import com.vaadin.flow.router.PageTitle;
 import com.vaadin.flow.router.PreserveOnRefresh;
 import com.vaadin.flow.router.Route;
 import com.vaadin.flow.theme.Theme;
+import org.vaadin.addons.idle.Hibernatable;
 import org.vaadin.addons.idle.Idle;
 
 import java.util.TreeSet;
@@ -48,6 +49,8 @@ public class DemoView extends Div {
 
     private Span status;
 
+    private long timeout = 5000;
+
     public DemoView() {
         
         VerticalLayout wrapperLayout = new VerticalLayout();
@@ -61,23 +64,27 @@ public class DemoView extends Div {
         wrapperLayout.add(status);
         wrapperLayout.setAlignItems(FlexComponent.Alignment.CENTER);
 
-        // Initialize our new UI component
-        Idle idle = Idle.track(UI.getCurrent(), 5000);
-        idle.addUserActiveListener(e -> status.setText("You are now active"));
-        idle.addUserInactiveListener(e -> status.setText("You are now idle"));
-        timeouts.add(idle.getTimeout());
+        // Initialize our new UI component. The view is preserved on refresh,
+        // so the new UI is tracked whenever the view is attached.
+        addAttachListener(e -> track(e.getUI()));
+        timeouts.add(timeout);
         
         // Combobox to change the inactivity timeout
         ComboBox<Long> timeoutComboBox = new ComboBox<>(
                 "Inactivity timeout:", timeouts);
         timeoutComboBox.setWidth("250px");
-        timeoutComboBox.setValue(idle.getTimeout());
+        timeoutComboBox.setValue(timeout);
         timeoutComboBox.addValueChangeListener(e -> {
-            Long timeout = e.getValue();
+            timeout = e.getValue();
             Notification.show("Inactivity timeout is now set to:\n" +
                         timeout + " ms!");
-            idle.setTimeout(timeout);
+            Idle.get(UI.getCurrent()).setTimeout(timeout);
         });
+
+        // Release the combobox items while the user is away
+        Idle.bindHibernatable(timeoutComboBox, Hibernatable.of(
+                () -> timeoutComboBox.setItems(timeout),
+                () -> timeoutComboBox.setItems(timeouts)));
         
         timeoutComboBox.setItemLabelGenerator(timeout -> timeout + " ms");
         wrapperLayout.add(timeoutComboBox);
@@ -91,4 +98,14 @@ public class DemoView extends Div {
         add(layout);
     }
 
+    private void track(UI ui) {
+        Idle idle = Idle.get(ui);
+        if (idle == null) {
+            idle = Idle.track(ui, timeout);
+            idle.addUserActiveListener(e -> status.setText("You are now active"));
+            idle.addUserInactiveListener(e -> status.setText("You are now idle"));
+            idle.setHibernationThreshold(60000);
+        }
+    }
+
 }